@@ -16,7 +16,9 @@
 
 package org.odk.collect.android.dao;
 
+import android.content.ContentValues;
 import android.database.Cursor;
+import android.net.Uri;
 import android.support.test.runner.AndroidJUnit4;
 
 import org.junit.After;
@@ -30,6 +32,7 @@ import org.odk.collect.android.provider.InstanceProviderAPI;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 @RunWith(AndroidJUnit4.class)
 /**
@@ -175,6 +178,62 @@ public class InstancesDaoTest {
         assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, instances.get(0).getStatus());
     }
 
+    @Test
+    public void saveInstancesTest() {
+        Instance instance1 = new Instance.Builder()
+                .displayName("Widgets")
+                .instanceFilePath(Collect.INSTANCES_PATH + "/Widgets_2017-02-21_10-00-00/Widgets_2017-02-21_10-00-00.xml")
+                .jrFormId("widgets")
+                .status(InstanceProviderAPI.STATUS_COMPLETE)
+                .lastStatusChangeDate(1487671200000L)
+                .build();
+        Instance instance2 = new Instance.Builder()
+                .displayName("sample")
+                .instanceFilePath(Collect.INSTANCES_PATH + "/sample_2017-02-21_10-00-05/sample_2017-02-21_10-00-05.xml")
+                .jrFormId("sample")
+                .status(InstanceProviderAPI.STATUS_INCOMPLETE)
+                .lastStatusChangeDate(1487671205000L)
+                .build();
+
+        assertEquals(2, instancesDao.saveInstances(new ContentValues[] {
+                instancesDao.getValuesFromInstanceObject(instance1),
+                instancesDao.getValuesFromInstanceObject(instance2)}));
+
+        Cursor cursor = instancesDao.getInstancesCursorForFilePath(Collect.INSTANCES_PATH + "/sample_2017-02-21_10-00-05/sample_2017-02-21_10-00-05.xml");
+        List<Instance> instances = instancesDao.getInstancesFromCursor(cursor);
+        assertEquals(1, instances.size());
+
+        assertEquals("sample", instances.get(0).getDisplayName());
+        assertEquals(InstanceProviderAPI.STATUS_INCOMPLETE, instances.get(0).getStatus());
+
+        cursor = instancesDao.getSavedInstancesCursor(null);
+        assertEquals(7, instancesDao.getInstancesFromCursor(cursor).size());
+    }
+
+    @Test
+    public void deleteKeepingSubmittedTest() {
+        Uri uri = InstanceProviderAPI.InstanceColumns.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InstanceProviderAPI.KEEP_SUBMITTED, Boolean.toString(true))
+                .build();
+        String selection = InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " IN (?,?)";
+
+        int deleted = Collect.getInstance().getContentResolver()
+                .delete(uri, selection, new String[] {"Hypertension Screening", "Biggest N of Set"});
+        assertEquals(3, deleted);
+
+        Cursor cursor = instancesDao.getSavedInstancesCursor(InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " ASC");
+        List<Instance> instances = instancesDao.getInstancesFromCursor(cursor);
+        assertEquals(2, instances.size());
+        assertEquals("Cascading Select Form", instances.get(0).getDisplayName());
+        assertEquals("sample", instances.get(1).getDisplayName());
+
+        cursor = instancesDao.getSentInstancesCursor();
+        instances = instancesDao.getInstancesFromCursor(cursor);
+        assertEquals(2, instances.size());
+        assertEquals("Biggest N of Set", instances.get(0).getDisplayName());
+        assertNotNull(instances.get(0).getDeletedDate());
+    }
+
     private void fillDatabase() {
         Instance instance1 = new Instance.Builder()
                 .displayName("Hypertension Screening")
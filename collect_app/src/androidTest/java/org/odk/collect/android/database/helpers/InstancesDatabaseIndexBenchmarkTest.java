@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.database.helpers;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+
+import timber.log.Timber;
+
+import static org.junit.Assert.assertTrue;
+import static org.odk.collect.android.database.helpers.InstancesDatabaseHelper.INSTANCES_TABLE_NAME;
+
+/**
+ * Times the hot queries of the instances table over a synthetic database of 50,000 instances,
+ * without and then with the indexes, and checks that the query plans use the indexes. The timings
+ * are only logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InstancesDatabaseIndexBenchmarkTest {
+
+    private static final int INSTANCE_COUNT = 50000;
+    private static final int FORM_COUNT = 20;
+    private static final int QUERY_COUNT = 50;
+
+    private static final String[] STATUSES = {InstanceProviderAPI.STATUS_INCOMPLETE,
+            InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMITTED,
+            InstanceProviderAPI.STATUS_SUBMISSION_FAILED};
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        InstancesDatabaseHelper.createInstancesTable(db);
+
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < INSTANCE_COUNT; i++) {
+                values.put(InstanceColumns.DISPLAY_NAME, "Form " + (i % FORM_COUNT) + " instance " + i);
+                values.put(InstanceColumns.INSTANCE_FILE_PATH, getInstanceFilePath(i));
+                values.put(InstanceColumns.JR_FORM_ID, "form" + (i % FORM_COUNT));
+                values.put(InstanceColumns.JR_VERSION, "1");
+                values.put(InstanceColumns.STATUS, STATUSES[i % STATUSES.length]);
+                values.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, i);
+                values.put(InstanceColumns.DISPLAY_SUBTEXT, "");
+                db.insert(INSTANCES_TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void hotQueriesShouldUseTheIndexes() {
+        long[] withoutIndexes = runQueries();
+        InstancesDatabaseHelper.createInstancesIndexes(db);
+        long[] withIndexes = runQueries();
+
+        Timber.i("By file path: %d ms without indexes, %d ms with", withoutIndexes[0], withIndexes[0]);
+        Timber.i("By status: %d ms without indexes, %d ms with", withoutIndexes[1], withIndexes[1]);
+        Timber.i("By form: %d ms without indexes, %d ms with", withoutIndexes[2], withIndexes[2]);
+
+        assertUsesIndex(INSTANCES_TABLE_NAME + "_file_path", InstanceColumns.INSTANCE_FILE_PATH + "=?",
+                new String[] {getInstanceFilePath(0)}, null);
+        assertUsesIndex(INSTANCES_TABLE_NAME + "_status", InstanceColumns.STATUS + "=?",
+                new String[] {InstanceProviderAPI.STATUS_COMPLETE}, InstanceColumns.DISPLAY_NAME + " ASC LIMIT 50");
+        assertUsesIndex(INSTANCES_TABLE_NAME + "_form", InstanceColumns.JR_FORM_ID + "=? AND "
+                + InstanceColumns.JR_VERSION + "=?", new String[] {"form0", "1"}, null);
+    }
+
+    private void assertUsesIndex(String index, String selection, String[] selectionArgs, String orderByAndLimit) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + getSql(selection, orderByAndLimit), selectionArgs)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        assertTrue(plan.toString(), plan.toString().contains("USING INDEX " + index));
+    }
+
+    /**
+     * Returns how long the lookups by file path, by status and by form took, in milliseconds.
+     */
+    private long[] runQueries() {
+        long[] durations = new long[3];
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            count(InstanceColumns.INSTANCE_FILE_PATH + "=?", new String[] {getInstanceFilePath(i * 997)}, null);
+        }
+        durations[0] = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            // the first page of a list sorted by name
+            count(InstanceColumns.STATUS + "=?", new String[] {STATUSES[i % STATUSES.length]},
+                    InstanceColumns.DISPLAY_NAME + " ASC LIMIT 50");
+        }
+        durations[1] = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            count(InstanceColumns.JR_FORM_ID + "=? AND " + InstanceColumns.JR_VERSION + "=?",
+                    new String[] {"form" + (i % FORM_COUNT), "1"}, null);
+        }
+        durations[2] = System.currentTimeMillis() - start;
+
+        return durations;
+    }
+
+    private int count(String selection, String[] selectionArgs, String orderByAndLimit) {
+        try (Cursor cursor = db.rawQuery(getSql(selection, orderByAndLimit), selectionArgs)) {
+            return cursor.getCount();
+        }
+    }
+
+    private static String getSql(String selection, String orderByAndLimit) {
+        return "SELECT * FROM " + INSTANCES_TABLE_NAME + " WHERE " + selection
+                + (orderByAndLimit != null ? " ORDER BY " + orderByAndLimit : "");
+    }
+
+    private static String getInstanceFilePath(int i) {
+        return "/sdcard/odk/instances/form_" + i + "/form_" + i + ".xml";
+    }
+}
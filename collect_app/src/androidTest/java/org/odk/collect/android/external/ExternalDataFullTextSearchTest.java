@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs searches against the FTS4 index that {@link ExternalDataBulkImporter} builds for the
+ * columns whose name ends in {@link ExternalDataFullTextIndex#COLUMN_SUFFIX}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExternalDataFullTextSearchTest {
+    private static final String TABLE = ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME;
+    private static final String COLUMN = "c_name_search";
+    private static final int BENCHMARK_ROWS = 20000;
+
+    private File testDir;
+    private File csvFile;
+    private File dbFile;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        testDir = new File(Collect.CACHE_PATH, "external-data-search");
+        testDir.mkdirs();
+        csvFile = new File(testDir, "data.csv");
+        dbFile = new File(testDir, "data.db");
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+        File[] files = testDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDir.delete();
+    }
+
+    @Test
+    public void wordsShouldBeMatchedByPrefix() throws IOException {
+        importNames("Ana Maria", "Banana split", "Anabela", "Maria Ana Silva");
+
+        assertEquals(Arrays.asList("Ana Maria", "Anabela", "Maria Ana Silva"), search("ana"));
+        assertEquals(Arrays.asList("Banana split"), search("BAN"));
+        assertEquals(Collections.emptyList(), search("nana"));
+    }
+
+    @Test
+    public void everyWordShouldBeMatchedInAnyOrder() throws IOException {
+        importNames("Ana Maria", "Ana Pereira", "Maria Ana Silva", "Maria Costa");
+
+        assertEquals(Arrays.asList("Ana Maria", "Maria Ana Silva"), search("maria ana"));
+        assertEquals(Arrays.asList("Ana Pereira"), search("ana  pe"));
+        assertEquals(Arrays.asList("Maria Ana Silva"), search("mar sil ana"));
+    }
+
+    @Test
+    public void operatorsAndPunctuationShouldBeSearchedAsText() throws IOException {
+        importNames("Salt or pepper", "Salt", "Pat O'Brien", "Not here", "Near miss");
+
+        assertEquals(Arrays.asList("Salt or pepper"), search("salt OR"));
+        assertEquals(Arrays.asList("Not here"), search("NOT"));
+        assertEquals(Arrays.asList("Pat O'Brien"), search("o'brien"));
+        assertEquals(Arrays.asList("Salt", "Salt or pepper"), search("-salt*"));
+        assertEquals(Arrays.asList("Near miss"), search("\"near\" NEAR"));
+        assertNull(ExternalDataFullTextIndex.toMatchExpression("\"*-"));
+    }
+
+    @Test
+    public void incrementalUpdatesShouldKeepTheIndexInSync() throws IOException {
+        writeCsv("id_key,name_search", "1,Ana Maria", "2,Bruno");
+        new ExternalDataBulkImporter(csvFile, null).importInto(dbFile);
+
+        writeCsv("id_key,name_search", "1,Carla", "2,Bruno", "3,Ana Luisa");
+        assertTrue(new ExternalDataBulkImporter(csvFile, null).updateInto(dbFile));
+
+        db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertEquals(Arrays.asList("Ana Luisa"), search("ana"));
+        assertEquals(Arrays.asList("Carla"), search("car"));
+    }
+
+    /**
+     * Compares words searches through the index with the LIKE scans of contains searches. Every
+     * name starts with the searched value, so both have to find the same rows; their timings are
+     * only logged.
+     */
+    @Test
+    public void indexShouldFindWhatLikeFinds() throws IOException {
+        String[] names = new String[BENCHMARK_ROWS];
+        String[] colors = {"red", "green", "blue", "yellow", "black"};
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            names[i] = "name" + i + " " + colors[i % colors.length];
+        }
+        importNames(names);
+
+        for (String value : new String[] {"name12", "name1999", "name7"}) {
+            long start = SystemClock.elapsedRealtime();
+            List<String> liked = query(COLUMN + " LIKE ?", '%' + value + '%');
+            long likeMillis = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            List<String> matched = search(value);
+            long matchMillis = SystemClock.elapsedRealtime() - start;
+
+            Timber.i("Searching %d rows for %s: %d ms with LIKE, %d ms with the index (%d rows)",
+                    BENCHMARK_ROWS, value, likeMillis, matchMillis, matched.size());
+            assertEquals(liked, matched);
+        }
+    }
+
+    private void importNames(String... names) throws IOException {
+        String[] lines = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            lines[i] = i + ",\"" + names[i].replace("\"", "\"\"") + "\"";
+        }
+        writeCsv("id,name_search", lines);
+        new ExternalDataBulkImporter(csvFile, null).importInto(dbFile);
+        db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    private void writeCsv(String header, String... lines) throws IOException {
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write(header + "\n");
+        for (String line : lines) {
+            writer.write(line + "\n");
+        }
+        writer.close();
+    }
+
+    private List<String> search(String value) {
+        return query(ExternalDataFullTextIndex.getSelection(TABLE, Collections.singletonList(COLUMN)),
+                ExternalDataFullTextIndex.toMatchExpression(value));
+    }
+
+    /** Returns the matching names, sorted. */
+    private List<String> query(String selection, String arg) {
+        List<String> names = new ArrayList<>();
+        Cursor c = db.query(TABLE, new String[] {COLUMN}, selection, new String[] {arg},
+                null, null, COLUMN);
+        try {
+            while (c.moveToNext()) {
+                names.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import timber.log.Timber;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the row-by-row import of {@link RowByRowExternalDataImporter} with
+ * {@link ExternalDataBulkImporter} and logs the rows per second of each.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExternalDataImportBenchmarkTest {
+    private static final int ROWS = 20000;
+
+    private File testDir;
+    private File csvFile;
+
+    @Before
+    public void setUp() throws IOException {
+        testDir = new File(Collect.CACHE_PATH, "external-data-benchmark");
+        testDir.mkdirs();
+        csvFile = new File(testDir, "benchmark.csv");
+
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write("name,label,region_key,population\n");
+        for (int i = 0; i < ROWS; i++) {
+            writer.write("name" + i + ",\"Label, number " + i + "\",region" + (i % 50) + "," + i * 7 + "\n");
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = testDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDir.delete();
+    }
+
+    @Test
+    public void bulkImportShouldMatchRowByRowImport() {
+        File rowByRowDb = new File(testDir, "row-by-row.db");
+        long start = SystemClock.elapsedRealtime();
+        new RowByRowExternalDataImporter(rowByRowDb, csvFile).importFromCSV();
+        long rowByRowMillis = SystemClock.elapsedRealtime() - start;
+
+        File bulkDb = new File(testDir, "bulk.db");
+        start = SystemClock.elapsedRealtime();
+        int imported = new ExternalDataBulkImporter(csvFile, null).importInto(bulkDb);
+        long bulkMillis = SystemClock.elapsedRealtime() - start;
+
+        Timber.i("Row-by-row import: %d rows/s", ROWS * 1000L / Math.max(rowByRowMillis, 1));
+        Timber.i("Bulk import: %d rows/s", ROWS * 1000L / Math.max(bulkMillis, 1));
+
+        assertEquals(ROWS, imported);
+        assertEquals(ROWS, countRows(rowByRowDb));
+        assertEquals(ROWS, countRows(bulkDb));
+    }
+
+    private int countRows(File dbFile) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, null);
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        } finally {
+            c.close();
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ExternalDataIncrementalImportTest {
+    private static final int ROWS = 5500;
+
+    private File testDir;
+    private File csvFile;
+    private File dbFile;
+
+    @Before
+    public void setUp() {
+        testDir = new File(Collect.CACHE_PATH, "external-data-incremental");
+        testDir.mkdirs();
+        csvFile = new File(testDir, "data.csv");
+        dbFile = new File(testDir, "data.db");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = testDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDir.delete();
+    }
+
+    @Test
+    public void updateShouldApplyInsertsUpdatesAndDeletes() throws IOException {
+        writeCsv("id_key,label", -1, -1, false);
+        new ExternalDataBulkImporter(csvFile, null).importInto(dbFile);
+
+        // update row 10, delete row 20 and append one row
+        writeCsv("id_key,label", 10, 20, true);
+        assertTrue(new ExternalDataBulkImporter(csvFile, null).updateInto(dbFile));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(ROWS, count(db, null));
+            assertEquals("changed", label(db, "id10"));
+            assertEquals(0, count(db, "c_id_key = 'id20'"));
+            assertEquals("label" + ROWS, label(db, "id" + ROWS));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void updateShouldNotApplyWithoutKeyColumn() throws IOException {
+        writeCsv("id,label", -1, -1, false);
+        new ExternalDataBulkImporter(csvFile, null).importInto(dbFile);
+
+        writeCsv("id,label", 10, -1, false);
+        assertFalse(new ExternalDataBulkImporter(csvFile, null).updateInto(dbFile));
+    }
+
+    @Test
+    public void updateShouldNotApplyWhenAChangedChunkDuplicatesAKeyOfAnUnchangedChunk() throws IOException {
+        writeCsv("id_key,label", -1, -1, false);
+        new ExternalDataBulkImporter(csvFile, null).importInto(dbFile);
+
+        // the key of a row of the fifth chunk now duplicates a key of the untouched first chunk
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write("id_key,label\n");
+        for (int i = 0; i < ROWS; i++) {
+            writer.write((i == 4000 ? "id10" : "id" + i) + ",label" + i + "\n");
+        }
+        writer.close();
+        assertFalse(new ExternalDataBulkImporter(csvFile, null).updateInto(dbFile));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(ROWS, count(db, null));
+            assertEquals("label10", label(db, "id10"));
+            assertEquals("label4000", label(db, "id4000"));
+        } finally {
+            db.close();
+        }
+    }
+
+    private void writeCsv(String header, int changedRow, int deletedRow, boolean append) throws IOException {
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write(header + "\n");
+        int rows = append ? ROWS + 1 : ROWS;
+        for (int i = 0; i < rows; i++) {
+            if (i == deletedRow) {
+                continue;
+            }
+            writer.write("id" + i + "," + (i == changedRow ? "changed" : "label" + i) + "\n");
+        }
+        writer.close();
+    }
+
+    private int count(SQLiteDatabase db, String where) {
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME
+                + (where != null ? " WHERE " + where : ""), null);
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private String label(SQLiteDatabase db, String key) {
+        Cursor c = db.rawQuery("SELECT c_label FROM " + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME
+                + " WHERE c_id_key = ?", new String[] {key});
+        try {
+            c.moveToFirst();
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.external;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.database.DatabaseContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Imports a data set one {@link ContentValues} insert at a time from within
+ * {@link #onCreate(SQLiteDatabase)}, the way external data was imported before
+ * {@link ExternalDataBulkImporter}. Only kept as the baseline the bulk import is measured against.
+ */
+class RowByRowExternalDataImporter extends SQLiteOpenHelper {
+    private final File dataSetFile;
+
+    RowByRowExternalDataImporter(File dbFile, File dataSetFile) {
+        super(new DatabaseContext(dbFile.getParentFile().getAbsolutePath()), dbFile.getName(), null,
+                ExternalSQLiteOpenHelper.VERSION);
+        this.dataSetFile = dataSetFile;
+    }
+
+    void importFromCSV() {
+        getWritableDatabase().close();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        try {
+            importInto(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    private void importInto(SQLiteDatabase db, String tableName) throws IOException {
+        CSVReader reader = new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
+                ExternalSQLiteOpenHelper.DELIMITING_CHAR, ExternalSQLiteOpenHelper.QUOTE_CHAR,
+                ExternalSQLiteOpenHelper.ESCAPE_CHAR);
+        try {
+            String[] headerRow = reader.readNext();
+            headerRow[0] = ExternalSQLiteOpenHelper.removeByteOrderMark(headerRow[0]);
+
+            Map<String, String> columnNamesCache = new HashMap<>();
+            StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
+                    .append(tableName)
+                    .append(" ( ");
+            boolean sortColumnAlreadyPresent = false;
+            for (int i = 0; i < headerRow.length; i++) {
+                String columnName = headerRow[i].trim();
+                if (columnName.length() == 0) {
+                    continue;
+                }
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sortColumnAlreadyPresent = true;
+                    sb.append(safeColumnName).append(" real ");
+                } else {
+                    sb.append(safeColumnName).append(" text collate nocase ");
+                }
+            }
+            if (!sortColumnAlreadyPresent) {
+                sb.append(", ").append(ExternalDataUtil.SORT_COLUMN_NAME).append(" real ");
+            }
+            db.execSQL(sb.append(" );").toString());
+
+            // the indexes are created once all rows are in, inserts are faster without them
+            List<String> createIndexesCommands = new ArrayList<>();
+            for (String header : headerRow) {
+                if (header.endsWith("_key")) {
+                    createIndexesCommands.add("CREATE INDEX " + header + "_idx ON " + tableName + " ("
+                            + ExternalDataUtil.toSafeColumnName(header, columnNamesCache) + ");");
+                }
+            }
+
+            String[] row = reader.readNext();
+            int rowCount = 0;
+            while (row != null) {
+                if (!ExternalDataUtil.containsAnyData(row)) {
+                    row = reader.readNext();
+                    continue;
+                }
+                if (row.length < headerRow.length) {
+                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+                }
+
+                ContentValues values = new ContentValues();
+                if (!sortColumnAlreadyPresent) {
+                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
+                }
+                for (int i = 0; i < row.length && i < headerRow.length; i++) {
+                    String columnName = headerRow[i].trim();
+                    if (columnName.length() == 0) {
+                        continue;
+                    }
+                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                        values.put(safeColumnName, Double.parseDouble(row[i]));
+                    } else {
+                        values.put(safeColumnName, row[i]);
+                    }
+                }
+                db.insertOrThrow(tableName, null, values);
+                row = reader.readNext();
+                rowCount++;
+            }
+
+            for (String createIndexCommand : createIndexesCommands) {
+                db.execSQL(createIndexCommand);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
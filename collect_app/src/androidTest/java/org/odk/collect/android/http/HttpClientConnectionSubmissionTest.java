@@ -0,0 +1,166 @@
+package org.odk.collect.android.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.odk.collect.android.test.MockedServerTest;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.odk.collect.android.test.TestUtils.cleanUpTempFiles;
+import static org.odk.collect.android.test.TestUtils.createTempFile;
+
+public class HttpClientConnectionSubmissionTest extends MockedServerTest {
+
+    private HttpClientConnection httpClientConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        httpClientConnection = new HttpClientConnection();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cleanUpTempFiles();
+    }
+
+    @Test
+    public void uploadSubmissionFile_shouldReportEveryByteSent() throws Exception {
+        // given
+        server.enqueue(createdResponse());
+        File submission = createTempFile("<form-content-here/>");
+        File attachment = createTempFile(repeat("attachment", 1000));
+        final AtomicLong bytesSent = new AtomicLong();
+
+        // when
+        httpClientConnection.uploadSubmissionFile(Collections.singletonList(attachment), submission,
+                submissionUri(), null, 0, false, new UploadProgressListener() {
+                    @Override
+                    public void onBytesSent(long byteCount) {
+                        bytesSent.addAndGet(byteCount);
+                    }
+                });
+
+        // then
+        RecordedRequest r = nextRequest();
+        assertEquals(r.getBodySize(), bytesSent.get());
+    }
+
+    @Test
+    public void uploadSubmissionFile_shouldGzipSubmission_whenServerSupportsIt() throws Exception {
+        // given
+        server.enqueue(createdResponse());
+        File submission = createTempFile("<form-content-here/>");
+
+        // when
+        httpClientConnection.uploadSubmissionFile(new ArrayList<File>(), submission, submissionUri(),
+                null, 0, true, null);
+
+        // then
+        RecordedRequest r = nextRequest();
+        assertEquals("gzip", r.getHeader("Content-Encoding"));
+        assertTrue(gunzip(r.getBody()).contains("<form-content-here/>"));
+    }
+
+    @Test
+    public void uploadSubmissionFile_shouldNotGzipAttachments() throws Exception {
+        // given
+        server.enqueue(createdResponse());
+        File submission = createTempFile("<form-content-here/>");
+        File attachment = createTempFile("attachment");
+
+        // when
+        httpClientConnection.uploadSubmissionFile(Collections.singletonList(attachment), submission,
+                submissionUri(), null, 0, true, null);
+
+        // then
+        RecordedRequest r = nextRequest();
+        assertNull(r.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void uploadSubmissionFile_shouldSplitAtTheContentLengthTheServerAccepts() throws Exception {
+        // given
+        server.enqueue(createdResponse());
+        server.enqueue(createdResponse());
+        File submission = createTempFile("<form-content-here/>");
+        List<File> attachments = new ArrayList<>();
+        attachments.add(createTempFile(repeat("a", 1000)));
+        attachments.add(createTempFile(repeat("b", 1000)));
+
+        // when
+        httpClientConnection.uploadSubmissionFile(attachments, submission, submissionUri(), null,
+                1500, false, null);
+
+        // then
+        String firstBody = nextRequest().getBody().readUtf8();
+        assertTrue(firstBody.contains("*isIncomplete*"));
+        assertTrue(firstBody.contains(repeat("a", 1000)));
+        assertFalse(firstBody.contains(repeat("b", 1000)));
+
+        String secondBody = nextRequest().getBody().readUtf8();
+        assertFalse(secondBody.contains("*isIncomplete*"));
+        assertTrue(secondBody.contains(repeat("b", 1000)));
+    }
+
+    @Test
+    public void uploadSubmissionFile_shouldSendFewerBytesWithGzip() throws Exception {
+        // given
+        String content = "<data>" + repeat("<question>some answer</question>", 4000) + "</data>";
+        File submission = createTempFile(content);
+        server.enqueue(createdResponse());
+        server.enqueue(createdResponse());
+
+        // when
+        httpClientConnection.uploadSubmissionFile(new ArrayList<File>(), submission, submissionUri(),
+                null, 0, false, null);
+        httpClientConnection.uploadSubmissionFile(new ArrayList<File>(), submission, submissionUri(),
+                null, 0, true, null);
+
+        // then
+        RecordedRequest plain = nextRequest();
+        RecordedRequest gzipped = nextRequest();
+        assertNull(plain.getHeader("Content-Encoding"));
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertTrue(gzipped.getBodySize() < plain.getBodySize() / 10);
+        assertTrue(gunzip(gzipped.getBody()).contains(content));
+    }
+
+    private URI submissionUri() {
+        return URI.create(server.url("/submission").toString());
+    }
+
+    private static MockResponse createdResponse() {
+        return new MockResponse()
+                .setResponseCode(201)
+                .setHeader("Content-Type", "text/xml; charset=UTF-8")
+                .setBody("<OpenRosaResponse xmlns=\"http://openrosa.org/http/response\"><message>success</message></OpenRosaResponse>");
+    }
+
+    private static String gunzip(Buffer body) throws Exception {
+        return Okio.buffer(new GzipSource(body)).readUtf8();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.exception.EncryptionException;
+import org.odk.collect.android.logic.FormController.InstanceMetadata;
+import org.odk.collect.android.utilities.EncryptionUtils.EncryptedFormInformation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import timber.log.Timber;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class EncryptionUtilsTest {
+    private static final int ATTACHMENT_BYTES = 32 * 1024 * 1024;
+
+    private File instanceDir;
+    private File instanceXml;
+    private File submissionXml;
+
+    @Before
+    public void setUp() throws IOException {
+        instanceDir = new File(Collect.CACHE_PATH, "encryption-test");
+        instanceDir.mkdirs();
+        instanceXml = writeFile("instance.xml", 1024);
+        submissionXml = writeFile("submission.xml", 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(instanceDir);
+    }
+
+    @Test
+    public void aFailingFileShouldRemoveTheEncryptedFilesOfTheWholeSubmission() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            writeFile("photo" + i + ".jpg", 1024 * 1024);
+        }
+        writeFile("broken.jpg", 1024);
+        // the encrypted file of broken.jpg can't be written over a non-empty directory
+        File blocker = new File(instanceDir, "broken.jpg.enc");
+        blocker.mkdirs();
+        new File(blocker, "file").createNewFile();
+
+        try {
+            EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, getFormInformation());
+            fail("Expected the encryption to fail");
+        } catch (EncryptionException e) {
+            // expected
+        }
+
+        for (File file : instanceDir.listFiles()) {
+            assertTrue(file.getName(), !file.getName().endsWith(".enc") || file.equals(blocker));
+        }
+        assertEquals(1024 * 1024, new File(instanceDir, "photo0.jpg").length());
+        assertEquals(1024, submissionXml.length());
+    }
+
+    /**
+     * Samples the used heap while a large attachment is encrypted. The plaintext and ciphertext
+     * are streamed, so the heap must grow by much less than the size of the attachment.
+     */
+    @Test
+    public void encryptingShouldNotHoldTheAttachmentInMemory() throws Exception {
+        File video = writeFile("video.mp4", ATTACHMENT_BYTES);
+        EncryptedFormInformation formInfo = getFormInformation();
+
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = {baseline};
+        Thread sampler = new Thread(() -> {
+            while (true) {
+                peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+        try {
+            EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+
+        long growth = peak[0] - baseline;
+        Timber.i("Encrypting %d MB grew the heap by %.2f MB", ATTACHMENT_BYTES / (1024 * 1024),
+                growth / (1024F * 1024F));
+        assertTrue("Heap grew by " + growth + " bytes", growth < ATTACHMENT_BYTES / 2);
+
+        File encryptedVideo = new File(instanceDir, "video.mp4.enc");
+        assertTrue(encryptedVideo.length() >= video.length());
+        assertTrue(encryptedVideo.length() <= video.length() + EncryptionUtils.IV_BYTE_LENGTH);
+    }
+
+    private EncryptedFormInformation getFormInformation() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(EncryptionUtils.RSA_ALGORITHM);
+        generator.initialize(2048);
+        PublicKey publicKey = generator.generateKeyPair().getPublic();
+        return new EncryptedFormInformation("encrypted", "1",
+                new InstanceMetadata("uuid:encryption-test", null, false), publicKey);
+    }
+
+    private File writeFile(String name, int length) throws IOException {
+        File file = new File(instanceDir, name);
+        byte[] buffer = new byte[64 * 1024];
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int written = 0; written < length; written += buffer.length) {
+                buffer[0] = (byte) written;
+                out.write(buffer, 0, Math.min(buffer.length, length - written));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -339,6 +339,35 @@ public class ImageConverterTest {
         assertEquals(1500, image.getHeight());
     }
 
+    @Test
+    public void rotateAndScaleDownImageWithSampling() throws IOException {
+        GeneralSharedPreferences.getInstance().save("image_size", "original_image_size");
+        saveTestBitmap(4000, 3000, ExifInterface.ORIENTATION_ROTATE_270);
+        ImageConverter.execute(TEST_IMAGE_PATH, getTestImageWidget(XML_OPENROSA_NAMESPACE, "max-pixels", "650"), Collect.getInstance());
+
+        Bitmap image = FileUtils.getBitmap(TEST_IMAGE_PATH, new BitmapFactory.Options());
+        assertEquals(487, image.getWidth());
+        assertEquals(650, image.getHeight());
+
+        // The rotation has been applied so it mustn't be applied again by viewers
+        ExifInterface exifInterface = new ExifInterface(TEST_IMAGE_PATH);
+        assertEquals(ExifInterface.ORIENTATION_UNDEFINED,
+                exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED));
+    }
+
+    @Test
+    public void imageShouldNotBeRewrittenWhenNothingChanges() {
+        GeneralSharedPreferences.getInstance().save("image_size", "original_image_size");
+        saveTestBitmap(3000, 4000, null);
+        File image = new File(TEST_IMAGE_PATH);
+        image.setLastModified(1000000L);
+        long lastModified = image.lastModified();
+
+        ImageConverter.execute(TEST_IMAGE_PATH, getTestImageWidget(), Collect.getInstance());
+
+        assertEquals(lastModified, image.lastModified());
+    }
+
     private void saveTestBitmap(int width, int height, Integer orientation) {
         Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
         FileUtils.saveBitmapToFile(bitmap, TEST_IMAGE_PATH);
@@ -37,7 +37,6 @@ import org.osmdroid.tileprovider.IRegisterReceiver;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 import static org.odk.collect.android.utilities.PermissionUtils.areLocationPermissionsGranted;
 
@@ -276,13 +275,12 @@ public class GeoShapeActivity extends BaseGeoMapActivity implements IRegisterRec
         if (points.size() > 1 && !points.get(0).equals(points.get(points.size() - 1))) {
             points.add(points.get(0));
         }
-        String result = "";
+        StringBuilder result = new StringBuilder();
         for (MapPoint point : points) {
             // TODO(ping): Remove excess precision when we're ready for the output to change.
-            result += String.format(Locale.US, "%s %s 0.0 0.0;",
-                Double.toString(point.lat), Double.toString(point.lon));
+            result.append(point.lat).append(' ').append(point.lon).append(" 0.0 0.0;");
         }
-        return result.trim();
+        return result.toString();
     }
 
     private void showZoomDialog() {
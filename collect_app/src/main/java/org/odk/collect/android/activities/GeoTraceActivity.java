@@ -40,7 +40,6 @@ import org.osmdroid.tileprovider.IRegisterReceiver;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -348,15 +347,16 @@ public class GeoTraceActivity extends BaseGeoMapActivity implements IRegisterRec
      * Serializes a list of polyline vertices into a string, in the format
      * appropriate for storing as the result of this form question.
      */
-    private String formatPoints(List<MapPoint> points) {
-        String result = "";
+    @VisibleForTesting public static String formatPoints(List<MapPoint> points) {
+        StringBuilder result = new StringBuilder();
         for (MapPoint point : points) {
             // TODO(ping): Remove excess precision when we're ready for the output to change.
-            result += String.format(Locale.US, "%s %s %s %s;",
-                Double.toString(point.lat), Double.toString(point.lon),
-                Double.toString(point.alt), Float.toString((float) point.sd));
+            result.append(point.lat).append(' ')
+                .append(point.lon).append(' ')
+                .append(point.alt).append(' ')
+                .append((float) point.sd).append(';');
         }
-        return result.trim();
+        return result.toString();
     }
 
     private void buildDialogs() {
@@ -306,6 +306,11 @@ public class GoogleSheetsUploaderActivity extends CollectAbstractActivity implem
         progressDialog.setMessage(alertMsg);
     }
 
+    @Override
+    public void bytesSentUpdate(int percentSent) {
+        // not reported by the Google Sheets uploader
+    }
+
     @Override
     protected Dialog onCreateDialog(int id) {
         switch (id) {
@@ -302,6 +302,11 @@ public class InstanceUploaderActivity extends CollectAbstractActivity implements
         progressDialog.setMessage(alertMsg);
     }
 
+    @Override
+    public void bytesSentUpdate(int percentSent) {
+        progressDialog.setMessage(getString(R.string.percent_sent, alertMsg, percentSent));
+    }
+
     @Override
     protected Dialog onCreateDialog(int id) {
         switch (id) {
@@ -259,7 +259,8 @@ public class InstanceUploaderList extends InstanceListActivity implements
      * Updates whether an auto-send job is ongoing.
      */
     private void updateAutoSendStatus() {
-        LiveData<List<WorkStatus>> statuses = WorkManager.getInstance().getStatusesForUniqueWorkLiveData(AutoSendWorker.class.getName());
+        // by tag so that the runs scheduled for instances held back by their backoff are included
+        LiveData<List<WorkStatus>> statuses = WorkManager.getInstance().getStatusesByTagLiveData(AutoSendWorker.class.getName());
 
         statuses.observe(this, workStatuses -> {
             if (workStatuses != null) {
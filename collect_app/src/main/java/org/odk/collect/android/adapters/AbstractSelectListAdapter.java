@@ -27,16 +27,14 @@ import android.widget.Filterable;
 import android.widget.TextView;
 
 import org.javarosa.core.model.SelectChoice;
-import org.javarosa.form.api.FormEntryPrompt;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FormEntryPromptUtils;
 import org.odk.collect.android.views.MediaLayout;
 import org.odk.collect.android.views.ODKView;
 import org.odk.collect.android.widgets.SelectWidget;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 import static org.odk.collect.android.widgets.QuestionWidget.isRTL;
 
@@ -47,10 +45,13 @@ public abstract class AbstractSelectListAdapter extends RecyclerView.Adapter<Abs
     List<SelectChoice> items;
     List<SelectChoice> filteredItems;
 
+    private final ChoiceSearchIndex searchIndex;
+
     AbstractSelectListAdapter(List<SelectChoice> items, SelectWidget widget) {
         this.items = items;
         this.widget = widget;
         filteredItems = items;
+        searchIndex = new ChoiceSearchIndex(items, item -> widget.getFormEntryPrompt().getSelectChoiceText(item));
     }
 
     @Override
@@ -68,23 +69,11 @@ public abstract class AbstractSelectListAdapter extends RecyclerView.Adapter<Abs
         return new Filter() {
             @Override
             protected FilterResults performFiltering(CharSequence charSequence) {
-                String searchStr = charSequence.toString().toLowerCase(Locale.US);
-                FilterResults filterResults = new FilterResults();
-                if (searchStr.isEmpty()) {
-                    filterResults.values = items;
-                    filterResults.count = items.size();
-                } else {
-                    List<SelectChoice> filteredList = new ArrayList<>();
-                    FormEntryPrompt formEntryPrompt = widget.getFormEntryPrompt();
-                    for (SelectChoice item : items) {
-                        if (formEntryPrompt.getSelectChoiceText(item).toLowerCase(Locale.US).contains(searchStr)) {
-                            filteredList.add(item);
-                        }
-                    }
-                    filterResults.values = filteredList;
-                    filterResults.count = filteredList.size();
-                }
+                List<SelectChoice> filteredList = searchIndex.filter(charSequence.toString(), getLanguage());
 
+                FilterResults filterResults = new FilterResults();
+                filterResults.values = filteredList;
+                filterResults.count = filteredList.size();
                 return filterResults;
             }
 
@@ -96,6 +85,11 @@ public abstract class AbstractSelectListAdapter extends RecyclerView.Adapter<Abs
         };
     }
 
+    private static String getLanguage() {
+        FormController formController = Collect.getInstance().getFormController();
+        return formController != null ? formController.getLanguage() : null;
+    }
+
     abstract CompoundButton setUpButton(int index);
 
     void adjustButton(TextView button, int index) {
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.adapters;
+
+import org.javarosa.core.model.SelectChoice;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the choices of a select whose label contains a search string, ignoring case and
+ * diacritics.
+ *
+ * The labels are localized and folded once per language rather than on every keystroke, and a
+ * search that contains the previous one only looks at the choices that matched the previous one,
+ * which is what happens while the search string is being typed.
+ */
+class ChoiceSearchIndex {
+
+    interface LabelProvider {
+        String getLabel(SelectChoice choice);
+    }
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+
+    private final List<SelectChoice> items;
+    private final LabelProvider labelProvider;
+
+    private String language;
+    private String[] foldedLabels;
+
+    private String previousSearch;
+    private int[] previousMatches;
+    private int previousMatchCount;
+
+    ChoiceSearchIndex(List<SelectChoice> items, LabelProvider labelProvider) {
+        this.items = items;
+        this.labelProvider = labelProvider;
+    }
+
+    /**
+     * Returns the choices whose label in the given language contains the search string, in their
+     * original order, or all of them if the search string is empty.
+     */
+    synchronized List<SelectChoice> filter(String search, String language) {
+        if (foldedLabels == null || !(language == null ? this.language == null : language.equals(this.language))) {
+            foldLabels(language);
+        }
+
+        String foldedSearch = fold(search);
+        if (foldedSearch.isEmpty()) {
+            previousSearch = null;
+            return items;
+        }
+
+        int[] matches;
+        int matchCount = 0;
+        if (previousSearch != null && foldedSearch.contains(previousSearch)) {
+            // only the choices that matched a shorter search can match this one
+            matches = new int[previousMatchCount];
+            for (int i = 0; i < previousMatchCount; i++) {
+                if (foldedLabels[previousMatches[i]].contains(foldedSearch)) {
+                    matches[matchCount++] = previousMatches[i];
+                }
+            }
+        } else {
+            matches = new int[foldedLabels.length];
+            for (int i = 0; i < foldedLabels.length; i++) {
+                if (foldedLabels[i].contains(foldedSearch)) {
+                    matches[matchCount++] = i;
+                }
+            }
+        }
+
+        previousSearch = foldedSearch;
+        previousMatches = matches;
+        previousMatchCount = matchCount;
+
+        List<SelectChoice> filteredItems = new ArrayList<>(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            filteredItems.add(items.get(matches[i]));
+        }
+        return filteredItems;
+    }
+
+    /**
+     * Lower-cases the text and strips it of diacritics, so that e.g. "Évora" and "evora" are the
+     * same.
+     */
+    static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.US);
+    }
+
+    private void foldLabels(String language) {
+        foldedLabels = new String[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            foldedLabels[i] = fold(labelProvider.getLabel(items.get(i)));
+        }
+        this.language = language;
+        previousSearch = null;
+    }
+}
@@ -55,6 +55,8 @@ import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.tasks.sms.SmsNotificationReceiver;
 import org.odk.collect.android.tasks.sms.SmsSentBroadcastReceiver;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.FormDefCache;
+import org.odk.collect.android.utilities.ImageLoader;
 import org.odk.collect.android.utilities.LocaleHelper;
 import org.odk.collect.android.utilities.NotificationUtils;
 import org.odk.collect.android.utilities.PRNGFixes;
@@ -288,6 +290,13 @@ public class Collect extends Application implements HasActivityInjector {
         }
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        FormDefCache.clearMemoryCache();
+        ImageLoader.clearMemoryCache();
+    }
+
     /**
      * Gets the default {@link Tracker} for this {@link Application}.
      *
@@ -25,8 +25,10 @@ import android.support.v4.content.CursorLoader;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dto.Form;
 import org.odk.collect.android.provider.FormsProviderAPI;
+import org.odk.collect.android.utilities.ApplicationConstants;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -112,6 +114,16 @@ public class FormsDao {
         return getFormsCursor(null, selection, selectionArgs, null);
     }
 
+    /**
+     * Returns the form id and auto-send setting of the forms that specify whether to auto-send.
+     */
+    public Cursor getFormsWithAutoSendCursor() {
+        String[] projection = {FormsProviderAPI.FormsColumns.JR_FORM_ID, FormsProviderAPI.FormsColumns.AUTO_SEND};
+        String selection = FormsProviderAPI.FormsColumns.AUTO_SEND + " IS NOT NULL";
+
+        return getFormsCursor(projection, selection, null, null);
+    }
+
     public boolean isFormEncrypted(String formId, String formVersion) {
         boolean encrypted = false;
 
@@ -165,15 +177,24 @@ public class FormsDao {
         Collect.getInstance().getContentResolver().delete(FormsProviderAPI.FormsColumns.CONTENT_URI, null, null);
     }
 
+    /**
+     * Deletes the forms with the given ids, {@link ApplicationConstants#SQLITE_MAX_VARIABLE_NUMBER}
+     * at a time.
+     */
     public void deleteFormsFromIDs(String[] idsToDelete) {
-        String selection = FormsProviderAPI.FormsColumns._ID + " in (";
-        for (int i = 0; i < idsToDelete.length - 1; i++) {
-            selection += "?, ";
-        }
-        selection += "? )";
+        for (int low = 0; low < idsToDelete.length; low += ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER) {
+            String[] selectionArgs = Arrays.copyOfRange(idsToDelete, low,
+                    Math.min(idsToDelete.length, low + ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER));
 
-        //This will break if the number of forms to delete > SQLITE_MAX_VARIABLE_NUMBER (999)
-        Collect.getInstance().getContentResolver().delete(FormsProviderAPI.FormsColumns.CONTENT_URI, selection, idsToDelete);
+            StringBuilder selection = new StringBuilder(FormsProviderAPI.FormsColumns._ID + " IN (");
+            for (int i = 0; i < selectionArgs.length; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(')');
+
+            Collect.getInstance().getContentResolver().delete(FormsProviderAPI.FormsColumns.CONTENT_URI,
+                    selection.toString(), selectionArgs);
+        }
     }
 
     public void deleteFormsFromMd5Hash(String... hashes) {
@@ -249,6 +249,15 @@ public class InstancesDao {
         return Collect.getInstance().getContentResolver().insert(InstanceProviderAPI.InstanceColumns.CONTENT_URI, values);
     }
 
+    /**
+     * Saves all the instances in a single transaction.
+     *
+     * @return the number of instances saved
+     */
+    public int saveInstances(ContentValues[] values) {
+        return Collect.getInstance().getContentResolver().bulkInsert(InstanceProviderAPI.InstanceColumns.CONTENT_URI, values);
+    }
+
     public int updateInstance(ContentValues values, String where, String[] whereArgs) {
         return Collect.getInstance().getContentResolver().update(InstanceProviderAPI.InstanceColumns.CONTENT_URI, values, where, whereArgs);
     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.dao;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.provider.InstanceProviderAPI.OutboxColumns;
+
+import timber.log.Timber;
+
+/**
+ * Encapsulates access to the outbox, the queue of finalized instances that auto-send drains.
+ *
+ * Instances are queued by database triggers when they are finalized and leave the queue by
+ * themselves once they are submitted, deleted or reopened. Each failed attempt pushes the next one
+ * back exponentially, from {@link #INITIAL_BACKOFF_MILLIS} up to {@link #MAX_BACKOFF_MILLIS}.
+ */
+public class OutboxDao {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    static final long INITIAL_BACKOFF_MILLIS = 60 * 1000L;
+    static final long MAX_BACKOFF_MILLIS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * Queues the instance with the given file, resetting the state of any previous attempts.
+     */
+    public void enqueue(String instanceFilePath, int priority) {
+        Cursor cursor = new InstancesDao().getInstancesCursorForFilePath(instanceFilePath);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                enqueue(cursor.getLong(cursor.getColumnIndex(InstanceColumns._ID)), priority);
+            } else {
+                Timber.w("No instance found to queue for %s", instanceFilePath);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void enqueue(long instanceId, int priority) {
+        ContentValues values = new ContentValues();
+        values.put(OutboxColumns.INSTANCE_ID, instanceId);
+        values.put(OutboxColumns.PRIORITY, priority);
+        Collect.getInstance().getContentResolver().insert(OutboxColumns.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the queued instances whose next attempt is due, the ones with the highest priority
+     * first and otherwise in the order they were queued.
+     */
+    public Cursor getEligibleInstancesCursor(long now) {
+        String selection = OutboxColumns.NEXT_ATTEMPT_DATE + "<=? and "
+                + InstanceColumns.DELETED_DATE + " IS NULL and ("
+                + InstanceColumns.STATUS + "=? or " + InstanceColumns.STATUS + "=?)";
+        String[] selectionArgs = {String.valueOf(now),
+                InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMISSION_FAILED};
+        String sortOrder = OutboxColumns.PRIORITY + " DESC, " + OutboxColumns.ENQUEUED_DATE + " ASC";
+
+        return Collect.getInstance().getContentResolver()
+                .query(OutboxColumns.CONTENT_URI, null, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Returns the earliest date after the given one at which a queued instance that is held back
+     * by its backoff becomes due, or null if there is none.
+     */
+    public Long getNextAttemptDate(long now) {
+        String selection = OutboxColumns.NEXT_ATTEMPT_DATE + ">? and "
+                + InstanceColumns.DELETED_DATE + " IS NULL and ("
+                + InstanceColumns.STATUS + "=? or " + InstanceColumns.STATUS + "=?)";
+        String[] selectionArgs = {String.valueOf(now),
+                InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMISSION_FAILED};
+
+        Cursor cursor = Collect.getInstance().getContentResolver().query(OutboxColumns.CONTENT_URI,
+                new String[] {OutboxColumns.NEXT_ATTEMPT_DATE}, selection, selectionArgs,
+                OutboxColumns.NEXT_ATTEMPT_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records a failed attempt to send the instance and pushes its next attempt back.
+     */
+    public void recordFailure(long instanceId, String error, long now) {
+        int attempts = getAttempts(instanceId) + 1;
+
+        ContentValues values = new ContentValues();
+        values.put(OutboxColumns.ATTEMPTS, attempts);
+        values.put(OutboxColumns.LAST_ERROR, error);
+        values.put(OutboxColumns.NEXT_ATTEMPT_DATE, now + getBackoffMillis(attempts));
+        Collect.getInstance().getContentResolver().update(OutboxColumns.CONTENT_URI, values,
+                OutboxColumns.INSTANCE_ID + "=?", new String[] {String.valueOf(instanceId)});
+    }
+
+    /**
+     * Returns how long to wait before the next attempt after the given number of failed ones.
+     */
+    static long getBackoffMillis(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 30);
+        return Math.min(INITIAL_BACKOFF_MILLIS << doublings, MAX_BACKOFF_MILLIS);
+    }
+
+    private int getAttempts(long instanceId) {
+        Cursor cursor = Collect.getInstance().getContentResolver().query(OutboxColumns.CONTENT_URI,
+                new String[] {OutboxColumns.ATTEMPTS}, OutboxColumns.INSTANCE_ID + "=?",
+                new String[] {String.valueOf(instanceId)}, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -38,13 +38,22 @@ public class DatabaseContext extends ContextWrapper {
         return new File(path + File.separator + name);
     }
 
+    /**
+     * Opens the database at our own path, honouring {@link #MODE_ENABLE_WRITE_AHEAD_LOGGING} since
+     * that is how {@link android.database.sqlite.SQLiteOpenHelper#setWriteAheadLoggingEnabled}
+     * asks for write-ahead logging before API 28.
+     */
     @Override
     public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
-        return openOrCreateDatabase(name, mode, factory);
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY;
+        if ((mode & MODE_ENABLE_WRITE_AHEAD_LOGGING) != 0) {
+            flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        }
+        return SQLiteDatabase.openDatabase(getDatabasePath(name).getPath(), null, flags, errorHandler);
     }
 
     @Override
     public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
-        return SQLiteDatabase.openOrCreateDatabase(getDatabasePath(name), null);
+        return openOrCreateDatabase(name, mode, factory, null);
     }
 }
\ No newline at end of file
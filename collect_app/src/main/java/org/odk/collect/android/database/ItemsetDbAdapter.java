@@ -11,6 +11,7 @@ import org.odk.collect.android.application.Collect;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -168,6 +169,55 @@ public class ItemsetDbAdapter {
                 null, null, null, null);
     }
 
+    /**
+     * Returns the distinct values of the given columns of the matching rows. The column names are
+     * quoted, so they may contain characters like ':'.
+     */
+    public Cursor query(String hash, String[] columns, String selection, String[] selectionArgs) throws SQLException {
+        String[] quotedColumns = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            quotedColumns[i] = "\"" + columns[i] + "\"";
+        }
+        return db.query(true, DATABASE_TABLE + hash, quotedColumns, selection, selectionArgs,
+                null, null, null, null);
+    }
+
+    public String[] getColumnNames(String hash) throws SQLException {
+        Cursor c = db.query(DATABASE_TABLE + hash, null, null, null, null, null, null, "0");
+        try {
+            return c.getColumnNames();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Indexes the given columns of an itemset table, in the order given.
+     */
+    public void createIndex(String pathHash, String indexName, List<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("create index if not exists \"")
+                .append(DATABASE_TABLE)
+                .append(pathHash)
+                .append('_')
+                .append(indexName)
+                .append("\" on ")
+                .append(DATABASE_TABLE)
+                .append(pathHash)
+                .append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('"').append(columns.get(i)).append('"');
+        }
+        sb.append(");");
+
+        String indexCreate = sb.toString();
+        Timber.i("create string: %s", indexCreate);
+        db.execSQL(indexCreate);
+    }
+
     public void dropTable(String pathHash, String path) {
         // drop the table
         db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE + pathHash);
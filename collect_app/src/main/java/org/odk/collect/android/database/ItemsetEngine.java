@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.database;
+
+import android.database.Cursor;
+import android.util.LruCache;
+
+import org.javarosa.core.model.SelectChoice;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Answers the itemset queries of cascading selects for one form session.
+ *
+ * The itemsets database is opened on the first query and kept open until {@link #close()}, the
+ * columns to read are resolved once per table and language, and the items of the most recent
+ * queries are kept so that moving back and forth between questions does not query again. Cached
+ * items are dropped as soon as the itemsets.csv they were loaded from changes.
+ */
+public class ItemsetEngine {
+
+    static final int MAX_CACHED_RESULTS = 20;
+
+    private static final char KEY_SEPARATOR = '\u001f';
+    private static final String LIST_NAME_COLUMN = "list_name";
+
+    private final Map<String, ItemsetTable> tables = new HashMap<>();
+
+    private ItemsetDbAdapter adapter;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the items of the itemset table loaded from the given file that match the selection,
+     * labelled in the given language if the table has labels for it.
+     */
+    public synchronized List<SelectChoice> getItems(File itemsetFile, String selection,
+                                                    String[] selectionArgs, String language) {
+        String pathHash = ItemsetDbAdapter.getMd5FromString(itemsetFile.getAbsolutePath());
+        ItemsetTable table = getTable(pathHash, itemsetFile);
+
+        String key = key(selection, language, selectionArgs);
+        List<Item> items = table.results.get(key);
+        if (items == null) {
+            misses++;
+            items = queryItems(pathHash, table, selection, selectionArgs, language);
+            table.results.put(key, items);
+        } else {
+            hits++;
+        }
+
+        List<SelectChoice> choices = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            SelectChoice selectChoice = new SelectChoice(null, items.get(i).label, items.get(i).name, false);
+            selectChoice.setIndex(i);
+            choices.add(selectChoice);
+        }
+        return choices;
+    }
+
+    /**
+     * Closes the database and drops the cached items. The engine can still be used afterwards,
+     * the database is then opened again.
+     */
+    public synchronized void close() {
+        if (adapter != null) {
+            adapter.close();
+            adapter = null;
+        }
+        tables.clear();
+
+        if (hits + misses > 0) {
+            Timber.i("Itemset queries: %d hits, %d misses", hits, misses);
+        }
+    }
+
+    /**
+     * Returns the columns the predicate of an itemset query filters on, e.g. state and county for
+     * instance('cities')/root/item[state=/data/state and county=/data/county].
+     */
+    public static List<String> getFilterColumns(String query) {
+        int start = query.indexOf('[');
+        int end = query.lastIndexOf(']');
+        if (start == -1 || end <= start) {
+            return Collections.emptyList();
+        }
+
+        List<String> columns = new ArrayList<>();
+        // must include the spaces so we don't match words like "land"
+        for (String condition : query.substring(start + 1, end).split(" and | or ")) {
+            String[] pair = condition.split("=");
+            if (pair.length == 2 && !columns.contains(pair[0].trim())) {
+                columns.add(pair[0].trim());
+            }
+        }
+        return columns;
+    }
+
+    private ItemsetTable getTable(String pathHash, File itemsetFile) {
+        String version = itemsetFile.length() + ":" + itemsetFile.lastModified();
+
+        ItemsetTable table = tables.get(pathHash);
+        if (table != null && !table.version.equals(version)) {
+            Timber.i("%s changed, dropping its cached items", itemsetFile.getAbsolutePath());
+            table = null;
+        }
+        if (table == null) {
+            table = new ItemsetTable(version);
+            tables.put(pathHash, table);
+        }
+        return table;
+    }
+
+    private List<Item> queryItems(String pathHash, ItemsetTable table, String selection,
+                                  String[] selectionArgs, String language) {
+        if (adapter == null) {
+            adapter = new ItemsetDbAdapter().open();
+        }
+
+        String labelColumn = table.labelColumns.get(language);
+        if (labelColumn == null) {
+            if (table.columns == null) {
+                table.columns = Arrays.asList(adapter.getColumnNames(pathHash));
+                if (table.columns.contains(LIST_NAME_COLUMN)) {
+                    // itemsets imported before indexes were created at import time
+                    adapter.createIndex(pathHash, "idx0", Collections.singletonList(LIST_NAME_COLUMN));
+                }
+            }
+            // use the label for the language if there is one, the default label otherwise
+            String labelLang = "label" + "::" + language;
+            labelColumn = table.columns.contains(labelLang) ? labelLang : "label";
+            table.labelColumns.put(language, labelColumn);
+        }
+
+        List<Item> items = new ArrayList<>();
+        Cursor c = adapter.query(pathHash, new String[] {"name", labelColumn}, selection, selectionArgs);
+        try {
+            while (c.moveToNext()) {
+                items.add(new Item(c.getString(0), c.getString(1)));
+            }
+        } finally {
+            c.close();
+        }
+        return items;
+    }
+
+    private static String key(String selection, String language, String... selectionArgs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(selection).append(KEY_SEPARATOR).append(language).append(KEY_SEPARATOR);
+        for (String arg : selectionArgs) {
+            sb.append(arg).append(KEY_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    private static class ItemsetTable {
+        final String version;
+        final Map<String, String> labelColumns = new HashMap<>();
+        final LruCache<String, List<Item>> results = new LruCache<>(MAX_CACHED_RESULTS);
+        List<String> columns;
+
+        ItemsetTable(String version) {
+            this.version = version;
+        }
+    }
+
+    private static class Item {
+        final String name;
+        final String label;
+
+        Item(String name, String label) {
+            this.name = name;
+            this.label = label;
+        }
+    }
+}
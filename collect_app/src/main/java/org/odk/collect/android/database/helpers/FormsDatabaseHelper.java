@@ -34,7 +34,9 @@ import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.DAT
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.DESCRIPTION;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.DISPLAY_NAME;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.DISPLAY_SUBTEXT;
+import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.FORM_FILE_LAST_MODIFIED;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.FORM_FILE_PATH;
+import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.FORM_FILE_SIZE;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.FORM_MEDIA_PATH;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.JRCACHE_FILE_PATH;
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.JR_FORM_ID;
@@ -51,7 +53,7 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "forms.db";
     public static final String FORMS_TABLE_NAME = "forms";
 
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 8;
 
     // These exist in database versions 2 and 3, but not in 4...
     private static final String TEMP_FORMS_TABLE_NAME = "forms_v4";
@@ -59,11 +61,14 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
 
     public FormsDatabaseHelper() {
         super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
+        // lets the lists read while forms are being downloaded or synced
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         createFormsTable(db, FORMS_TABLE_NAME);
+        createFormsIndexes(db);
     }
 
     @SuppressWarnings({"checkstyle:FallThrough"})
@@ -82,6 +87,10 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                 success &= upgradeToVersion5(db);
             case 5:
                 success &= upgradeToVersion6(db);
+            case 6:
+                success &= upgradeToVersion7(db);
+            case 7:
+                success &= upgradeToVersion8(db);
                 break;
             default:
                 Timber.i("Unknown version %s", oldVersion);
@@ -104,6 +113,7 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                     .end();
 
             createFormsTable(db, FORMS_TABLE_NAME);
+            createFormsIndexes(db);
         } catch (SQLiteException e) {
             Timber.e(e);
             success = false;
@@ -295,6 +305,52 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
         return success;
     }
 
+    private boolean upgradeToVersion7(SQLiteDatabase db) {
+        boolean success = true;
+        try {
+            createFormsIndexes(db);
+        } catch (SQLiteException e) {
+            Timber.e(e);
+            success = false;
+        }
+        return success;
+    }
+
+    private boolean upgradeToVersion8(SQLiteDatabase db) {
+        boolean success = true;
+        try {
+            CustomSQLiteQueryBuilder
+                    .begin(db)
+                    .alter()
+                    .table(FORMS_TABLE_NAME)
+                    .addColumn(FORM_FILE_SIZE, "integer")
+                    .end();
+
+            CustomSQLiteQueryBuilder
+                    .begin(db)
+                    .alter()
+                    .table(FORMS_TABLE_NAME)
+                    .addColumn(FORM_FILE_LAST_MODIFIED, "integer")
+                    .end();
+        } catch (SQLiteException e) {
+            Timber.e(e);
+            success = false;
+        }
+        return success;
+    }
+
+    /**
+     * Creates the indexes behind the lookups by form id and version, by hash and by file path.
+     */
+    static void createFormsIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FORMS_TABLE_NAME + "_form ON "
+                + FORMS_TABLE_NAME + " (" + JR_FORM_ID + ", " + JR_VERSION + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FORMS_TABLE_NAME + "_md5_hash ON "
+                + FORMS_TABLE_NAME + " (" + MD5_HASH + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FORMS_TABLE_NAME + "_file_path ON "
+                + FORMS_TABLE_NAME + " (" + FORM_FILE_PATH + ")");
+    }
+
     private void createFormsTable(SQLiteDatabase db, String tableName) {
         db.execSQL("CREATE TABLE IF NOT EXISTS " + tableName + " ("
                 + _ID + " integer primary key, "
@@ -313,6 +369,8 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                 + JRCACHE_FILE_PATH + " text not null, "
                 + AUTO_SEND + " text, "
                 + AUTO_DELETE + " text, "
-                + LAST_DETECTED_FORM_VERSION_HASH + " text);");
+                + LAST_DETECTED_FORM_VERSION_HASH + " text, "
+                + FORM_FILE_SIZE + " integer, "
+                + FORM_FILE_LAST_MODIFIED + " integer);");
     }
 }
@@ -24,6 +24,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.OutboxColumns;
 import org.odk.collect.android.utilities.CustomSQLiteQueryBuilder;
 
 import timber.log.Timber;
@@ -46,19 +47,24 @@ import static org.odk.collect.android.provider.InstanceProviderAPI.InstanceColum
 public class InstancesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "instances.db";
     public static final String INSTANCES_TABLE_NAME = "instances";
+    public static final String OUTBOX_TABLE_NAME = "outbox";
 
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 6;
 
     private final String[] instancesTableColumnsInVersion4 = new String[] {_ID, DISPLAY_NAME, SUBMISSION_URI, CAN_EDIT_WHEN_COMPLETE,
             INSTANCE_FILE_PATH, JR_FORM_ID, JR_VERSION, STATUS, LAST_STATUS_CHANGE_DATE, DISPLAY_SUBTEXT, DELETED_DATE};
 
     public InstancesDatabaseHelper() {
         super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
+        // lets the lists read while instances are being saved or sent
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         createInstancesTable(db);
+        createInstancesIndexes(db);
+        createOutboxTable(db);
     }
 
     @SuppressWarnings({"checkstyle:FallThrough"})
@@ -74,6 +80,10 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
                 success &= upgradeToVersion3(db);
             case 3:
                 success &= upgradeToVersion4(db);
+            case 4:
+                success &= upgradeToVersion5(db);
+            case 5:
+                success &= upgradeToVersion6(db);
                 break;
             default:
                 Timber.i("Unknown version " + oldVersion);
@@ -91,6 +101,8 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
         boolean success = true;
         switch (newVersion) {
             case 4:
+            case 5:
+            case 6:
                 success = downgrade(db, instancesTableColumnsInVersion4);
                 break;
 
@@ -153,6 +165,35 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
         return success;
     }
 
+    private boolean upgradeToVersion5(SQLiteDatabase db) {
+        boolean success = true;
+        try {
+            createOutboxTable(db);
+
+            // queue the instances that were finalized before the outbox existed
+            db.execSQL("INSERT OR IGNORE INTO " + OUTBOX_TABLE_NAME + " ("
+                    + OutboxColumns.INSTANCE_ID + ", " + OutboxColumns.ENQUEUED_DATE + ") SELECT "
+                    + _ID + ", " + LAST_STATUS_CHANGE_DATE + " FROM " + INSTANCES_TABLE_NAME
+                    + " WHERE " + STATUS + " IN ('" + InstanceProviderAPI.STATUS_COMPLETE + "', '"
+                    + InstanceProviderAPI.STATUS_SUBMISSION_FAILED + "') AND " + DELETED_DATE + " IS NULL");
+        } catch (SQLiteException e) {
+            Timber.e(e);
+            success = false;
+        }
+        return success;
+    }
+
+    private boolean upgradeToVersion6(SQLiteDatabase db) {
+        boolean success = true;
+        try {
+            createInstancesIndexes(db);
+        } catch (SQLiteException e) {
+            Timber.e(e);
+            success = false;
+        }
+        return success;
+    }
+
     private boolean downgrade(SQLiteDatabase db, String[] instancesTableColumns) {
         boolean success = true;
         String temporaryTable = INSTANCES_TABLE_NAME + "_tmp";
@@ -180,6 +221,10 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
                     .begin(db)
                     .dropIfExists(temporaryTable)
                     .end();
+
+            // the indexes and the triggers of the outbox went away with the temporary table
+            createInstancesIndexes(db);
+            createOutboxTable(db);
         } catch (SQLiteException e) {
             Timber.i(e);
             success = false;
@@ -187,7 +232,7 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
         return success;
     }
 
-    private void createInstancesTable(SQLiteDatabase db) {
+    static void createInstancesTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE IF NOT EXISTS " + INSTANCES_TABLE_NAME + " ("
                 + _ID + " integer primary key, "
                 + DISPLAY_NAME + " text not null, "
@@ -201,4 +246,55 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
                 + DISPLAY_SUBTEXT + " text not null,"
                 + DELETED_DATE + " date );");
     }
+
+    /**
+     * Creates the indexes behind the lookups by file path, the lists filtered by status and sorted
+     * by name, and the lookups by form.
+     */
+    static void createInstancesIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_file_path ON "
+                + INSTANCES_TABLE_NAME + " (" + INSTANCE_FILE_PATH + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_status ON "
+                + INSTANCES_TABLE_NAME + " (" + STATUS + ", " + DISPLAY_NAME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_form ON "
+                + INSTANCES_TABLE_NAME + " (" + JR_FORM_ID + ", " + JR_VERSION + ")");
+    }
+
+    /**
+     * Creates the outbox and the triggers that put instances in it when they are finalized, however
+     * they get written (saved in form entry or picked up from the instances folder), and take them
+     * out of it once they have been submitted, deleted or reopened for editing.
+     */
+    private void createOutboxTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + OUTBOX_TABLE_NAME + " ("
+                + OutboxColumns.INSTANCE_ID + " integer primary key, "
+                + OutboxColumns.PRIORITY + " integer not null default 0, "
+                + OutboxColumns.ATTEMPTS + " integer not null default 0, "
+                + OutboxColumns.NEXT_ATTEMPT_DATE + " date not null default 0, "
+                + OutboxColumns.LAST_ERROR + " text, "
+                + OutboxColumns.ENQUEUED_DATE + " date not null);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + OUTBOX_TABLE_NAME + "_next_attempt ON "
+                + OUTBOX_TABLE_NAME + " (" + OutboxColumns.NEXT_ATTEMPT_DATE + ")");
+
+        String enqueue = " BEGIN INSERT OR IGNORE INTO " + OUTBOX_TABLE_NAME + " ("
+                + OutboxColumns.INSTANCE_ID + ", " + OutboxColumns.ENQUEUED_DATE + ") VALUES (new."
+                + _ID + ", CAST(strftime('%s', 'now') AS INTEGER) * 1000); END;";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + OUTBOX_TABLE_NAME + "_ai AFTER INSERT ON "
+                + INSTANCES_TABLE_NAME + " WHEN new." + STATUS + " = '" + InstanceProviderAPI.STATUS_COMPLETE
+                + "' AND new." + DELETED_DATE + " IS NULL" + enqueue);
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + OUTBOX_TABLE_NAME + "_au_complete AFTER UPDATE OF "
+                + STATUS + " ON " + INSTANCES_TABLE_NAME + " WHEN new." + STATUS + " = '"
+                + InstanceProviderAPI.STATUS_COMPLETE + "' AND old." + STATUS + " IS NOT new." + STATUS
+                + " AND new." + DELETED_DATE + " IS NULL" + enqueue);
+
+        String dequeue = " BEGIN DELETE FROM " + OUTBOX_TABLE_NAME + " WHERE "
+                + OutboxColumns.INSTANCE_ID + " = old." + _ID + "; END;";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + OUTBOX_TABLE_NAME + "_ad AFTER DELETE ON "
+                + INSTANCES_TABLE_NAME + dequeue);
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + OUTBOX_TABLE_NAME + "_au AFTER UPDATE OF "
+                + STATUS + ", " + DELETED_DATE + " ON " + INSTANCES_TABLE_NAME + " WHEN new." + STATUS
+                + " NOT IN ('" + InstanceProviderAPI.STATUS_COMPLETE + "', '"
+                + InstanceProviderAPI.STATUS_SUBMISSION_FAILED + "') OR new." + DELETED_DATE
+                + " IS NOT NULL" + dequeue);
+    }
 }
\ No newline at end of file
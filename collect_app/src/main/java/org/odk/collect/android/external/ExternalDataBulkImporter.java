@@ -0,0 +1,524 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.exception.ExternalDataException;
+import org.odk.collect.android.listeners.ExternalDataLoadingListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+import timber.log.Timber;
+
+/**
+ * Loads an external data CSV into a fresh SQLite database as fast as possible.
+ *
+ * Unlike {@link ExternalSQLiteOpenHelper#onCreate(SQLiteDatabase)}, which runs inside the single
+ * transaction opened by {@link android.database.sqlite.SQLiteOpenHelper}, this works on the
+ * database file directly so that it can:
+ * <ul>
+ * <li>map CSV columns to table columns once instead of once per cell,</li>
+ * <li>reuse a single compiled INSERT statement with bound arguments,</li>
+ * <li>commit in batches of {@link #BATCH_SIZE} rows,</li>
+ * <li>turn off journaling and synchronous writes while loading and</li>
+ * <li>publish progress at most every {@link #PROGRESS_INTERVAL_MILLIS}.</li>
+ * </ul>
+ * Indexes, including the full-text index of {@link ExternalDataFullTextIndex}, are only built
+ * once all rows are in. The database version is set last so that a partially imported file is
+ * never mistaken for a complete one.
+ */
+public class ExternalDataBulkImporter {
+
+    static final int BATCH_SIZE = 5000;
+    static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    private final File dataSetFile;
+    private final ExternalDataLoadingListener loadingListener;
+
+    public ExternalDataBulkImporter(File dataSetFile, ExternalDataLoadingListener loadingListener) {
+        this.dataSetFile = dataSetFile;
+        this.loadingListener = loadingListener;
+    }
+
+    /**
+     * Imports the data set into the given database file, which should not exist yet.
+     *
+     * @return the number of imported rows
+     */
+    public int importInto(File dbFile) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        String journalMode = null;
+        String synchronous = null;
+        try {
+            // the file is thrown away if anything goes wrong, so there is nothing to roll back to
+            journalMode = queryPragma(db, "journal_mode");
+            queryPragma(db, "journal_mode=OFF");
+            synchronous = queryPragma(db, "synchronous");
+            db.execSQL("PRAGMA synchronous=OFF");
+
+            int rowCount = load(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+            if (!isCancelled()) {
+                db.setVersion(ExternalSQLiteOpenHelper.VERSION);
+            }
+            return rowCount;
+        } catch (Exception e) {
+            db.close();
+            db = null;
+            if (dbFile.exists() && !dbFile.delete()) {
+                Timber.e("Unable to delete partially imported %s", dbFile.getAbsolutePath());
+            }
+            throw e instanceof ExternalDataException
+                    ? (ExternalDataException) e
+                    : new ExternalDataException(Collect.getInstance().getString(
+                            R.string.ext_import_generic_error, dataSetFile.getName(), e.getMessage()), e);
+        } finally {
+            if (db != null) {
+                if (synchronous != null) {
+                    db.execSQL("PRAGMA synchronous=" + synchronous);
+                }
+                if (journalMode != null) {
+                    queryPragma(db, "journal_mode=" + journalMode);
+                }
+                db.close();
+            }
+            ExternalDataQueryCache.invalidate(dbFile);
+        }
+    }
+
+    /**
+     * Applies a newer version of the data set to a database that was fully imported before, using
+     * the chunk hashes recorded by {@link ExternalDataChunkIndex}. Everything is applied in one
+     * transaction, so the database is left untouched if this returns false.
+     *
+     * @return false if the database cannot be updated incrementally (for example because it has
+     * no unique {@code _key} column or the columns changed) or the update was cancelled
+     */
+    public boolean updateInto(File dbFile) {
+        SQLiteDatabase db = null;
+        CSVReader reader = null;
+        try {
+            db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+            if (db.getVersion() != ExternalSQLiteOpenHelper.VERSION) {
+                return false;
+            }
+
+            reader = openReader();
+            String[] headerRow = readHeaderRow(reader);
+            ColumnMapping mapping = new ColumnMapping(headerRow);
+            if (mapping.keyIndex < 0) {
+                return false;
+            }
+
+            String tableName = ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME;
+            ExternalDataChunkIndex.Diff diff = new ExternalDataChunkIndex(db, tableName, mapping).startDiff();
+            if (diff == null) {
+                return false;
+            }
+
+            Timber.i("Incrementally updating %s from '%s'", dbFile.getName(), dataSetFile.toString());
+            onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                    dataSetFile.getName(), ""));
+
+            return applyDiff(db, reader, headerRow, diff);
+        } catch (Exception e) {
+            Timber.w(e, "Unable to update %s incrementally", dbFile.getName());
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            }
+            if (db != null) {
+                db.close();
+            }
+            ExternalDataQueryCache.invalidate(dbFile);
+        }
+    }
+
+    private boolean applyDiff(SQLiteDatabase db, CSVReader reader, String[] headerRow,
+                              ExternalDataChunkIndex.Diff diff) throws IOException {
+        List<String[]> chunkRows = new ArrayList<>(ExternalDataChunkIndex.CHUNK_SIZE);
+        int rowCount = 0;
+        long lastProgress = SystemClock.elapsedRealtime();
+
+        db.beginTransaction();
+        try {
+            String[] row;
+            while ((row = reader.readNext()) != null && !isCancelled() && !diff.hasDuplicateKeys()) {
+                if (!ExternalDataUtil.containsAnyData(row)) {
+                    continue;
+                }
+                if (row.length < headerRow.length) {
+                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+                }
+                chunkRows.add(row);
+                rowCount++;
+
+                if (chunkRows.size() == ExternalDataChunkIndex.CHUNK_SIZE) {
+                    diff.apply(chunkRows, rowCount - chunkRows.size());
+                    chunkRows.clear();
+
+                    long now = SystemClock.elapsedRealtime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                        lastProgress = now;
+                        onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                                dataSetFile.getName(), " (" + rowCount + " records so far)"));
+                    }
+                }
+            }
+            if (isCancelled()) {
+                Timber.w("User canceled updating data from %s", dataSetFile.toString());
+                onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
+                return false;
+            }
+            if (!chunkRows.isEmpty()) {
+                diff.apply(chunkRows, rowCount - chunkRows.size());
+            }
+            diff.finish();
+            if (diff.hasDuplicateKeys()) {
+                Timber.w("Found duplicate keys in %s, re-importing it in full", dataSetFile.getName());
+                return false;
+            }
+
+            db.setTransactionSuccessful();
+            onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
+            return true;
+        } finally {
+            db.endTransaction();
+            diff.close();
+        }
+    }
+
+    private CSVReader openReader() throws IOException {
+        return new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
+                ExternalSQLiteOpenHelper.DELIMITING_CHAR, ExternalSQLiteOpenHelper.QUOTE_CHAR,
+                ExternalSQLiteOpenHelper.ESCAPE_CHAR);
+    }
+
+    private String[] readHeaderRow(CSVReader reader) throws IOException {
+        String[] headerRow = reader.readNext();
+        if (headerRow == null || !ExternalDataUtil.containsAnyData(headerRow)) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_file_no_data_error));
+        }
+        headerRow[0] = ExternalSQLiteOpenHelper.removeByteOrderMark(headerRow[0]);
+
+        List<String> conflictingColumns =
+                ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
+        if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_conflicting_columns_error,
+                            conflictingColumns));
+        }
+        return headerRow;
+    }
+
+    private int load(SQLiteDatabase db, String tableName) throws IOException {
+        Timber.i("Bulk reading data from '%s'", dataSetFile.toString());
+
+        onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                dataSetFile.getName(), ""));
+
+        CSVReader reader = null;
+        try {
+            reader = openReader();
+            String[] headerRow = readHeaderRow(reader);
+
+            ColumnMapping mapping = new ColumnMapping(headerRow);
+
+            String createTable = mapping.getCreateTableSql(tableName);
+            Timber.i("Creating database for %s with query: %s", dataSetFile, createTable);
+            db.execSQL(createTable);
+
+            int rowCount = insertRows(db, reader, mapping, tableName);
+
+            if (isCancelled()) {
+                Timber.w("User canceled reading data from %s", dataSetFile.toString());
+                onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
+            } else {
+                onProgress(Collect.getInstance().getString(R.string.ext_import_finalizing_message));
+
+                // indexes are built after the inserts, which is much faster than maintaining them
+                for (String createIndexCommand : mapping.getCreateIndexSql(tableName)) {
+                    Timber.i(createIndexCommand);
+                    db.execSQL(createIndexCommand);
+                }
+                if (!mapping.fullTextColumns.isEmpty()) {
+                    Timber.i("Building full-text index of %s", mapping.fullTextColumns);
+                    ExternalDataFullTextIndex.create(db, tableName, mapping.fullTextColumns);
+                }
+
+                Timber.i("Read %d rows from %s", rowCount, dataSetFile.toString());
+                onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
+            }
+            return rowCount;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            }
+        }
+    }
+
+    private int insertRows(SQLiteDatabase db, CSVReader reader, ColumnMapping mapping,
+                           String tableName) throws IOException {
+        final String[] headerRow = mapping.headerRow;
+
+        SQLiteStatement insert = db.compileStatement(mapping.getInsertSql(tableName));
+        ExternalDataChunkIndex.Recorder recorder = mapping.keyIndex >= 0
+                ? new ExternalDataChunkIndex(db, tableName, mapping).startRecording()
+                : null;
+        int rowCount = 0;
+        long lastProgress = SystemClock.elapsedRealtime();
+
+        db.beginTransaction();
+        try {
+            String[] row;
+            while ((row = reader.readNext()) != null && !isCancelled()) {
+                // SCTO-894 - skip empty lines and fill up short ones
+                if (!ExternalDataUtil.containsAnyData(row)) {
+                    continue;
+                }
+                if (row.length < headerRow.length) {
+                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+                }
+
+                mapping.bind(insert, row, rowCount + 1);
+                insert.executeInsert();
+                if (recorder != null) {
+                    recorder.add(row, rowCount);
+                }
+                rowCount++;
+
+                if (rowCount % BATCH_SIZE == 0) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    db.beginTransaction();
+                }
+
+                long now = SystemClock.elapsedRealtime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    lastProgress = now;
+                    onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
+                }
+            }
+            if (recorder != null) {
+                recorder.finish();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return rowCount;
+    }
+
+    private boolean isCancelled() {
+        return loadingListener != null && loadingListener.isCancelled();
+    }
+
+    private void onProgress(String message) {
+        if (loadingListener != null) {
+            loadingListener.publishExternalDataLoadingProgress(message);
+        }
+    }
+
+    /**
+     * Runs a pragma that returns a value (setting journal_mode does) and returns that value.
+     */
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The safe column name of every CSV column, computed once per import.
+     */
+    static class ColumnMapping {
+        final String[] headerRow;
+        /** 1-based INSERT argument index for each CSV column, 0 for blank columns. */
+        final int[] bindIndexes;
+        /** CSV column holding the sort order, or -1 if one is generated from the row number. */
+        final int sortColumnIndex;
+        /** INSERT argument index of the generated sort column, or 0 if the CSV has one. */
+        final int generatedSortBindIndex;
+        /** First CSV column whose name ends in {@code _key}, or -1 if there is none. */
+        final int keyIndex;
+
+        /** Columns whose name ends in {@link ExternalDataFullTextIndex#COLUMN_SUFFIX}. */
+        final List<String> fullTextColumns = new ArrayList<>();
+
+        private final List<String> columns = new ArrayList<>();
+        private final List<String> keyColumns = new ArrayList<>();
+
+        ColumnMapping(String[] headerRow) {
+            this.headerRow = headerRow;
+            this.bindIndexes = new int[headerRow.length];
+
+            Map<String, String> columnNamesCache = new HashMap<>();
+            int sortColumn = -1;
+            int firstKeyColumn = -1;
+            for (int i = 0; i < headerRow.length; i++) {
+                String columnName = headerRow[i].trim();
+                if (columnName.length() == 0) {
+                    continue;
+                }
+                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+                columns.add(safeColumnName);
+                bindIndexes[i] = columns.size();
+                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sortColumn = i;
+                }
+                if (columnName.endsWith("_key")) {
+                    keyColumns.add(safeColumnName);
+                    if (firstKeyColumn < 0) {
+                        firstKeyColumn = i;
+                    }
+                }
+                if (columnName.endsWith(ExternalDataFullTextIndex.COLUMN_SUFFIX)) {
+                    fullTextColumns.add(safeColumnName);
+                }
+            }
+            sortColumnIndex = sortColumn;
+            keyIndex = firstKeyColumn;
+
+            if (sortColumnIndex < 0) {
+                columns.add(ExternalDataUtil.SORT_COLUMN_NAME);
+                generatedSortBindIndex = columns.size();
+            } else {
+                generatedSortBindIndex = 0;
+            }
+        }
+
+        /** Returns the table column for the given CSV column, or null for blank columns. */
+        String getColumn(int csvIndex) {
+            int bindIndex = bindIndexes[csvIndex];
+            return bindIndex == 0 ? null : columns.get(bindIndex - 1);
+        }
+
+        /** Returns the number of arguments bound by {@link #bind}. */
+        int getBindCount() {
+            return columns.size();
+        }
+
+        /**
+         * Binds a row to a statement from {@link #getInsertSql} or {@link #getUpdateSql}.
+         *
+         * @param rowNumber the 1-based number of the row, used when the sort order is generated
+         */
+        void bind(SQLiteStatement statement, String[] row, int rowNumber) {
+            statement.clearBindings();
+            if (generatedSortBindIndex > 0) {
+                statement.bindLong(generatedSortBindIndex, rowNumber);
+            }
+            for (int i = 0; i < headerRow.length; i++) {
+                int bindIndex = bindIndexes[i];
+                if (bindIndex == 0) {
+                    continue;
+                }
+                String value = row[i];
+                if (i == sortColumnIndex) {
+                    try {
+                        statement.bindDouble(bindIndex, Double.parseDouble(value));
+                    } catch (NumberFormatException | NullPointerException e) {
+                        throw new ExternalDataException(Collect.getInstance().getString(
+                                R.string.ext_sortBy_numeric_error, value));
+                    }
+                } else if (value == null) {
+                    statement.bindNull(bindIndex);
+                } else {
+                    statement.bindString(bindIndex, value);
+                }
+            }
+        }
+
+        String getCreateTableSql(String tableName) {
+            StringBuilder sb = new StringBuilder()
+                    .append("CREATE TABLE IF NOT EXISTS ")
+                    .append(tableName)
+                    .append(" ( ");
+            for (int i = 0; i < columns.size(); i++) {
+                String column = columns.get(i);
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                sb.append(column);
+                sb.append(column.equals(ExternalDataUtil.SORT_COLUMN_NAME) ? " real " : " text collate nocase ");
+            }
+            return sb.append(" );").toString();
+        }
+
+        String getInsertSql(String tableName) {
+            StringBuilder names = new StringBuilder();
+            StringBuilder args = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i != 0) {
+                    names.append(", ");
+                    args.append(", ");
+                }
+                names.append(columns.get(i));
+                args.append('?');
+            }
+            return "INSERT INTO " + tableName + " (" + names + ") VALUES (" + args + ")";
+        }
+
+        /** Returns an UPDATE of all columns by key whose last argument is the key value. */
+        String getUpdateSql(String tableName) {
+            StringBuilder sb = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i != 0) {
+                    sb.append(", ");
+                }
+                sb.append(columns.get(i)).append(" = ?");
+            }
+            return sb.append(" WHERE ").append(getColumn(keyIndex)).append(" = ?").toString();
+        }
+
+        List<String> getCreateIndexSql(String tableName) {
+            List<String> commands = new ArrayList<>();
+            for (String keyColumn : keyColumns) {
+                commands.add("CREATE INDEX " + keyColumn + "_idx ON " + tableName + " (" + keyColumn + ");");
+            }
+            return commands;
+        }
+    }
+}
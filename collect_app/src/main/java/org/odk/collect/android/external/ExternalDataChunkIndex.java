@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import timber.log.Timber;
+
+/**
+ * Bookkeeping that lets a new version of an external data CSV be applied as a diff.
+ *
+ * The non-empty CSV rows are split into chunks of {@link #CHUNK_SIZE} rows by position. For every
+ * chunk we keep an MD5 of its contents, and for every row the chunk its key was last seen in.
+ * Rows are keyed by the first column whose name ends in {@code _key}, which must be unique.
+ *
+ * When the CSV changes, chunks whose hash is unchanged are skipped. Rows of changed chunks are
+ * updated in place or inserted, and keys that were in a changed or dropped chunk but are no
+ * longer in the file are deleted. Appends and in-place edits therefore only touch the chunks
+ * they fall into, while inserting or deleting rows in the middle of the file re-applies the
+ * chunks after that point.
+ */
+class ExternalDataChunkIndex {
+
+    static final int CHUNK_SIZE = 1000;
+
+    private static final int HEADER_CHUNK = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SQLiteDatabase db;
+    private final String tableName;
+    private final ExternalDataBulkImporter.ColumnMapping mapping;
+    private final String chunksTable;
+    private final String keysTable;
+
+    ExternalDataChunkIndex(SQLiteDatabase db, String tableName,
+                           ExternalDataBulkImporter.ColumnMapping mapping) {
+        this.db = db;
+        this.tableName = tableName;
+        this.mapping = mapping;
+        this.chunksTable = tableName + "_chunks";
+        this.keysTable = tableName + "_keys";
+    }
+
+    /**
+     * Creates the tracking tables and returns a recorder to feed every row of a full import to.
+     */
+    Recorder startRecording() {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + chunksTable
+                + " (chunk integer primary key, hash text not null);");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + keysTable
+                + " (row_key text primary key, chunk integer not null);");
+        return new Recorder();
+    }
+
+    /**
+     * Returns a diff to feed the rows of a newer version of the CSV to, or null if this database
+     * has no usable chunk hashes for a CSV with this header.
+     */
+    Diff startDiff() {
+        Map<Integer, String> hashes = readHashes();
+        if (hashes == null || !getHeaderHash().equals(hashes.remove(HEADER_CHUNK))) {
+            return null;
+        }
+        return new Diff(hashes);
+    }
+
+    private Map<Integer, String> readHashes() {
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {chunksTable});
+        try {
+            if (c.getCount() == 0) {
+                return null;
+            }
+        } finally {
+            c.close();
+        }
+
+        Map<Integer, String> hashes = new HashMap<>();
+        c = db.rawQuery("SELECT chunk, hash FROM " + chunksTable, null);
+        try {
+            while (c.moveToNext()) {
+                hashes.put(c.getInt(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return hashes;
+    }
+
+    private void drop() {
+        db.execSQL("DROP TABLE IF EXISTS " + chunksTable);
+        db.execSQL("DROP TABLE IF EXISTS " + keysTable);
+    }
+
+    private String getHeaderHash() {
+        ChunkHasher hasher = new ChunkHasher();
+        hasher.add(new String[] {String.valueOf(CHUNK_SIZE)});
+        hasher.add(mapping.headerRow);
+        return hasher.finish();
+    }
+
+    private String getKey(String[] row) {
+        String key = row[mapping.keyIndex];
+        return key == null ? "" : key;
+    }
+
+    private SQLiteStatement compileChunkHashInsert() {
+        return db.compileStatement("INSERT OR REPLACE INTO " + chunksTable + " (chunk, hash) VALUES (?, ?)");
+    }
+
+    private static void writeChunkHash(SQLiteStatement statement, int chunk, String hash) {
+        statement.bindLong(1, chunk);
+        statement.bindString(2, hash);
+        statement.executeInsert();
+    }
+
+    /**
+     * Records chunk hashes and row keys while a full import inserts rows. If the key column turns
+     * out not to be unique, the tracking tables are dropped and the data set will always be
+     * re-imported in full.
+     */
+    class Recorder {
+        private final SQLiteStatement insertKey;
+        private final SQLiteStatement insertChunk;
+        private final ChunkHasher hasher = new ChunkHasher();
+        private int currentChunk;
+        private int rowsInChunk;
+        private boolean duplicateKeys;
+
+        Recorder() {
+            insertKey = db.compileStatement("INSERT OR IGNORE INTO " + keysTable
+                    + " (row_key, chunk) VALUES (?, ?)");
+            insertChunk = compileChunkHashInsert();
+        }
+
+        void add(String[] row, int rowIndex) {
+            int chunk = rowIndex / CHUNK_SIZE;
+            if (chunk != currentChunk) {
+                flush();
+                currentChunk = chunk;
+            }
+            hasher.add(row);
+            rowsInChunk++;
+
+            if (!duplicateKeys) {
+                insertKey.bindString(1, getKey(row));
+                insertKey.bindLong(2, chunk);
+                duplicateKeys = insertKey.executeInsert() == -1;
+            }
+        }
+
+        void finish() {
+            flush();
+            writeChunkHash(insertChunk, HEADER_CHUNK, getHeaderHash());
+            insertKey.close();
+            insertChunk.close();
+
+            if (duplicateKeys) {
+                Timber.w("Values of %s are not unique, %s can only be re-imported in full",
+                        mapping.getColumn(mapping.keyIndex), tableName);
+                drop();
+            }
+        }
+
+        private void flush() {
+            if (rowsInChunk > 0) {
+                writeChunkHash(insertChunk, currentChunk, hasher.finish());
+                rowsInChunk = 0;
+            }
+        }
+    }
+
+    /**
+     * Applies the chunks of a newer version of the CSV. Must be used inside a transaction, which
+     * should be rolled back if {@link #hasDuplicateKeys()} is true at the end, and closed once
+     * done with, whether it was finished or not.
+     *
+     * Keys are checked for duplicates against the whole data set: among the rows of the changed
+     * chunks as they are applied, and when finishing, against the rows of the unchanged chunks,
+     * which are never read.
+     */
+    class Diff {
+        private final Map<Integer, String> storedHashes;
+        private final TreeSet<Integer> changedChunks = new TreeSet<>();
+        private final SQLiteStatement insertSeen;
+        private final SQLiteStatement insertMoved;
+        private final SQLiteStatement update;
+        private final SQLiteStatement insert;
+        private final SQLiteStatement upsertKey;
+        private final SQLiteStatement insertChunk;
+        private boolean duplicateKeys;
+        private int chunkCount;
+
+        Diff(Map<Integer, String> storedHashes) {
+            this.storedHashes = storedHashes;
+
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS seen_keys (row_key text primary key);");
+            db.execSQL("DELETE FROM temp.seen_keys");
+            // keys of changed chunks that used to be in another chunk, along with that chunk
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS moved_keys (row_key text primary key, chunk integer not null);");
+            db.execSQL("DELETE FROM temp.moved_keys");
+            insertSeen = db.compileStatement("INSERT OR IGNORE INTO temp.seen_keys (row_key) VALUES (?)");
+            insertMoved = db.compileStatement("INSERT OR REPLACE INTO temp.moved_keys (row_key, chunk)"
+                    + " SELECT row_key, chunk FROM " + keysTable + " WHERE row_key = ? AND chunk != ?");
+            update = db.compileStatement(mapping.getUpdateSql(tableName));
+            insert = db.compileStatement(mapping.getInsertSql(tableName));
+            upsertKey = db.compileStatement("INSERT OR REPLACE INTO " + keysTable
+                    + " (row_key, chunk) VALUES (?, ?)");
+            insertChunk = compileChunkHashInsert();
+        }
+
+        /**
+         * @param rows          the rows of one chunk, at most {@link #CHUNK_SIZE}
+         * @param firstRowIndex the 0-based index of the chunk's first row among non-empty rows
+         */
+        void apply(List<String[]> rows, int firstRowIndex) {
+            int chunk = firstRowIndex / CHUNK_SIZE;
+            chunkCount = chunk + 1;
+
+            ChunkHasher hasher = new ChunkHasher();
+            for (String[] row : rows) {
+                hasher.add(row);
+            }
+            String hash = hasher.finish();
+            if (hash.equals(storedHashes.get(chunk))) {
+                return;
+            }
+
+            changedChunks.add(chunk);
+            int rowIndex = firstRowIndex;
+            for (String[] row : rows) {
+                String key = getKey(row);
+                insertSeen.bindString(1, key);
+                if (insertSeen.executeInsert() == -1) {
+                    duplicateKeys = true;
+                    return;
+                }
+
+                mapping.bind(update, row, rowIndex + 1);
+                update.bindString(mapping.getBindCount() + 1, key);
+                if (update.executeUpdateDelete() == 0) {
+                    mapping.bind(insert, row, rowIndex + 1);
+                    insert.executeInsert();
+                }
+
+                insertMoved.bindString(1, key);
+                insertMoved.bindLong(2, chunk);
+                insertMoved.executeInsert();
+
+                upsertKey.bindString(1, key);
+                upsertKey.bindLong(2, chunk);
+                upsertKey.executeInsert();
+                rowIndex++;
+            }
+            writeChunkHash(insertChunk, chunk, hash);
+        }
+
+        /**
+         * Drops chunks past the end of the new file and deletes rows whose keys are gone. Also
+         * finds keys of changed chunks that are still in an unchanged chunk, whose rows would
+         * otherwise have silently overwritten each other.
+         */
+        void finish() {
+            for (Integer storedChunk : storedHashes.keySet()) {
+                if (storedChunk >= chunkCount) {
+                    changedChunks.add(storedChunk);
+                }
+            }
+            db.execSQL("DELETE FROM " + chunksTable + " WHERE chunk >= " + chunkCount);
+
+            StringBuilder chunkList = new StringBuilder();
+            for (Integer chunk : changedChunks) {
+                if (chunkList.length() > 0) {
+                    chunkList.append(',');
+                }
+                chunkList.append(chunk);
+            }
+
+            if (!duplicateKeys) {
+                // an unchanged chunk still holds every key it held before
+                duplicateKeys = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM temp.moved_keys"
+                        + " WHERE chunk < " + chunkCount
+                        + (changedChunks.isEmpty() ? "" : " AND chunk NOT IN (" + chunkList + ")"), null) > 0;
+            }
+
+            if (!changedChunks.isEmpty() && !duplicateKeys) {
+                String removedKeys = "SELECT row_key FROM " + keysTable
+                        + " WHERE chunk IN (" + chunkList + ")"
+                        + " AND row_key NOT IN (SELECT row_key FROM temp.seen_keys)";
+
+                db.execSQL("DELETE FROM " + tableName + " WHERE "
+                        + mapping.getColumn(mapping.keyIndex) + " IN (" + removedKeys + ")");
+                db.execSQL("DELETE FROM " + keysTable + " WHERE row_key IN (" + removedKeys + ")");
+            }
+
+            Timber.i("%d of %d chunks of %s changed", changedChunks.size(),
+                    Math.max(chunkCount, storedHashes.size()), tableName);
+        }
+
+        /**
+         * Releases the compiled statements and the temporary tables. Should be called after the
+         * transaction has ended so that dropping the tables is not rolled back.
+         */
+        void close() {
+            insertSeen.close();
+            insertMoved.close();
+            update.close();
+            insert.close();
+            upsertKey.close();
+            insertChunk.close();
+            db.execSQL("DROP TABLE IF EXISTS temp.seen_keys");
+            db.execSQL("DROP TABLE IF EXISTS temp.moved_keys");
+        }
+
+        boolean hasDuplicateKeys() {
+            return duplicateKeys;
+        }
+
+        int getChangedChunkCount() {
+            return changedChunks.size();
+        }
+    }
+
+    /**
+     * Incrementally hashes rows, separating cells and rows so that moving a value between
+     * neighbouring cells changes the hash.
+     */
+    static class ChunkHasher {
+        private final MessageDigest digest;
+
+        ChunkHasher() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void add(String[] row) {
+            for (String cell : row) {
+                if (cell != null) {
+                    digest.update(cell.getBytes(UTF_8));
+                }
+                digest.update((byte) 0x1f);
+            }
+            digest.update((byte) 0x1e);
+        }
+
+        /** Returns the hash of everything added so far and resets the hasher. */
+        String finish() {
+            return new BigInteger(1, digest.digest()).toString(16);
+        }
+    }
+}
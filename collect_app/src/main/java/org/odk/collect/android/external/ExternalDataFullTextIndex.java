@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * An FTS4 index over the external data columns that words searches look into, so that they do
+ * not have to scan the whole table.
+ *
+ * Indexing is opt-in: only CSV columns whose name ends in {@link #COLUMN_SUFFIX} are indexed. The
+ * index is an external content table filled in once all rows are imported and kept up to date by
+ * triggers afterwards, so incremental updates of the data set maintain it too.
+ *
+ * The index matches whole words by prefix, which is what a search() of type words asks for (e.g.
+ * "ana" finds "Ana Maria" but not "Banana"). Indexing a column does not change the contains,
+ * startsWith, endsWith and matches searches on it, they keep using LIKE.
+ */
+public final class ExternalDataFullTextIndex {
+
+    public static final String COLUMN_SUFFIX = "_search";
+
+    private ExternalDataFullTextIndex() {
+    }
+
+    public static String getIndexTableName(String tableName) {
+        return tableName + "_fts";
+    }
+
+    /**
+     * Creates and fills the index of the given columns, and the triggers that keep it in sync.
+     * Must be called after the table is filled.
+     */
+    static void create(SQLiteDatabase db, String tableName, List<String> columns) {
+        String indexTable = getIndexTableName(tableName);
+        String columnList = join(columns, "", ", ");
+
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + indexTable + " USING fts4(" + columnList
+                    + ", content=\"" + tableName + "\", prefix=\"2,3\", tokenize=unicode61)");
+        } catch (SQLiteException e) {
+            // unicode61 is only available from Lollipop on, the default tokenizer folds ASCII only
+            Timber.i("unicode61 tokenizer not available, using the default one");
+            db.execSQL("CREATE VIRTUAL TABLE " + indexTable + " USING fts4(" + columnList
+                    + ", content=\"" + tableName + "\", prefix=\"2,3\")");
+        }
+        db.execSQL("INSERT INTO " + indexTable + "(" + indexTable + ") VALUES('rebuild')");
+
+        String delete = "DELETE FROM " + indexTable + " WHERE docid = old.rowid; END;";
+        String insert = "INSERT INTO " + indexTable + "(docid, " + columnList + ") VALUES(new.rowid, "
+                + join(columns, "new.", ", ") + "); END;";
+        db.execSQL("CREATE TRIGGER " + indexTable + "_bu BEFORE UPDATE ON " + tableName + " BEGIN " + delete);
+        db.execSQL("CREATE TRIGGER " + indexTable + "_bd BEFORE DELETE ON " + tableName + " BEGIN " + delete);
+        db.execSQL("CREATE TRIGGER " + indexTable + "_au AFTER UPDATE ON " + tableName + " BEGIN " + insert);
+        db.execSQL("CREATE TRIGGER " + indexTable + "_ai AFTER INSERT ON " + tableName + " BEGIN " + insert);
+    }
+
+    /**
+     * Returns the columns of the table that are in its index, which is empty if it has no index.
+     */
+    public static Set<String> getIndexedColumns(SQLiteDatabase db, String tableName) {
+        Set<String> columns = new HashSet<>();
+        Cursor c = db.rawQuery("PRAGMA table_info(" + getIndexTableName(tableName) + ")", null);
+        try {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameIndex));
+            }
+        } finally {
+            c.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Returns a selection on the table that keeps the rows whose indexed columns match the
+     * expression bound to it, once per column.
+     */
+    public static String getSelection(String tableName, List<String> columns) {
+        String indexTable = getIndexTableName(tableName);
+        StringBuilder sb = new StringBuilder("rowid IN (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) {
+                sb.append(" UNION ");
+            }
+            sb.append("SELECT docid FROM ").append(indexTable)
+                    .append(" WHERE ").append(columns.get(i)).append(" MATCH ?");
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Turns a searched value into a match expression that finds all of its words as word
+     * prefixes, in any order.
+     *
+     * @return the expression, or null if the value has no words to match
+     */
+    public static String toMatchExpression(String value) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean wordChar = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                // lower case so that words like OR and NOT are not taken for operators
+                tokens.add(value.substring(start, i).toLowerCase(Locale.US) + '*');
+                start = -1;
+            }
+        }
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        return join(tokens, "", " ");
+    }
+
+    private static String join(List<String> values, String prefix, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(prefix).append(value);
+        }
+        return sb.toString();
+    }
+}
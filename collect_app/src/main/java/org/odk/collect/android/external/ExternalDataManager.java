@@ -18,6 +18,8 @@
 
 package org.odk.collect.android.external;
 
+import org.odk.collect.android.database.ItemsetEngine;
+
 /**
  * This class handles all DB connections for the function handlers
  * <p/>
@@ -39,5 +41,17 @@ public interface ExternalDataManager {
      */
     ExternalSQLiteOpenHelper getDatabase(String dataSetName, boolean required);
 
+    /**
+     * Returns the cache of lookup results and compiled statements shared by the function
+     * handlers of the current form. It is emptied by {@link #close()}.
+     */
+    ExternalDataQueryCache getQueryCache();
+
+    /**
+     * Returns the engine answering the itemset queries of the current form. Its database is
+     * closed by {@link #close()}.
+     */
+    ItemsetEngine getItemsetEngine();
+
     void close();
 }
@@ -20,6 +20,7 @@ package org.odk.collect.android.external;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.ItemsetEngine;
 import org.odk.collect.android.exception.ExternalDataException;
 
 import java.io.File;
@@ -39,8 +40,13 @@ public class ExternalDataManagerImpl implements ExternalDataManager {
 
     private final File mediaFolder;
 
+    private final ExternalDataQueryCache queryCache;
+
+    private final ItemsetEngine itemsetEngine = new ItemsetEngine();
+
     public ExternalDataManagerImpl(File mediaFolder) {
         this.mediaFolder = mediaFolder;
+        queryCache = new ExternalDataQueryCache(mediaFolder);
     }
 
     @Override
@@ -63,8 +69,21 @@ public class ExternalDataManagerImpl implements ExternalDataManager {
         return sqLiteOpenHelper;
     }
 
+    @Override
+    public ExternalDataQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    @Override
+    public ItemsetEngine getItemsetEngine() {
+        return itemsetEngine;
+    }
+
     @Override
     public void close() {
+        // the compiled statements have to be released before their databases
+        queryCache.close();
+        itemsetEngine.close();
         if (dbMap != null) {
             for (ExternalSQLiteOpenHelper externalSQLiteOpenHelper : dbMap.values()) {
                 Timber.w("Closing database handler:%s", externalSQLiteOpenHelper.toString());
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.content.Context;
+import android.os.Environment;
+import android.support.annotation.NonNull;
+
+import org.odk.collect.android.listeners.ExternalDataLoadingListener;
+
+import java.io.File;
+
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import timber.log.Timber;
+
+/**
+ * Prepares the external data of one form media folder in the background so that the import does
+ * not happen while the form is being opened.
+ */
+public class ExternalDataPreparationWorker extends Worker {
+    private static final String KEY_MEDIA_PATH = "mediaPath";
+
+    public ExternalDataPreparationWorker(@NonNull Context c, @NonNull WorkerParameters parameters) {
+        super(c, parameters);
+    }
+
+    /**
+     * Schedules preparation of the given media folder, replacing any pending or running
+     * preparation of the same folder since it would work on outdated files.
+     */
+    public static void enqueue(File mediaDir) {
+        String mediaPath = mediaDir.getAbsolutePath();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ExternalDataPreparationWorker.class)
+                .addTag(ExternalDataPreparationWorker.class.getName())
+                .setInputData(new Data.Builder().putString(KEY_MEDIA_PATH, mediaPath).build())
+                .build();
+        WorkManager.getInstance().beginUniqueWork(ExternalDataPreparationWorker.class.getName() + ":" + mediaPath,
+                ExistingWorkPolicy.REPLACE, request).enqueue();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String mediaPath = getInputData().getString(KEY_MEDIA_PATH, null);
+        if (mediaPath == null) {
+            return Result.FAILURE;
+        }
+        if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+            return Result.RETRY;
+        }
+
+        File mediaDir = new File(mediaPath);
+        if (!mediaDir.isDirectory()) {
+            return Result.SUCCESS;
+        }
+
+        try {
+            ExternalDataPreparer.prepare(mediaDir, new ExternalDataLoadingListener() {
+                @Override
+                public boolean isCancelled() {
+                    return isStopped();
+                }
+
+                @Override
+                public void publishExternalDataLoadingProgress(String message) {
+                    Timber.d(message);
+                }
+            });
+        } catch (RuntimeException e) {
+            // the form loader will try again and report the error to the user
+            Timber.w(e, "Unable to prepare external data of %s", mediaPath);
+            return Result.FAILURE;
+        }
+        return Result.SUCCESS;
+    }
+}
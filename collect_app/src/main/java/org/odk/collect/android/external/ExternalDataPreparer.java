@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.SQLException;
+
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.ItemsetDbAdapter;
+import org.odk.collect.android.database.ItemsetEngine;
+import org.odk.collect.android.listeners.ExternalDataLoadingListener;
+import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.XmlMetadataParser;
+import org.odk.collect.android.utilities.ZipUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.bytecode.opencsv.CSVReader;
+import timber.log.Timber;
+
+/**
+ * Turns the zip and CSV files in a form's media folder into the SQLite databases used while
+ * filling in the form: zips are extracted, external data CSVs are imported and itemsets.csv is
+ * loaded into the itemsets database.
+ *
+ * This can run in the background right after a form's media is downloaded or changed (see
+ * {@link ExternalDataPreparationWorker}) so that opening the form only has to check
+ * {@link #isPrepared(File)}. Preparation of a given media folder is never run concurrently.
+ */
+public final class ExternalDataPreparer {
+
+    public static final String ITEMSETS_CSV = "itemsets.csv";
+
+    private static final String LIST_NAME_COLUMN = "list_name";
+    private static final String MEDIA_SUFFIX = "-media";
+
+    /** Written last by a successful preparation and holds the signature of itemsets.csv. */
+    private static final String PREPARED_STATE_FILE = ".prepared";
+
+    private static final Map<String, Object> LOCKS = new HashMap<>();
+
+    private ExternalDataPreparer() {
+    }
+
+    /**
+     * Returns true if the media folder has no zip or CSV waiting to be imported and itemsets.csv
+     * has not changed since it was last loaded.
+     */
+    public static boolean isPrepared(File mediaDir) {
+        File stateFile = new File(mediaDir, PREPARED_STATE_FILE);
+        if (!stateFile.exists()) {
+            return false;
+        }
+        if (!getPendingFiles(mediaDir).isEmpty()) {
+            return false;
+        }
+        String state = new String(FileUtils.read(stateFile));
+        return state.equals(getItemsetsSignature(mediaDir));
+    }
+
+    /**
+     * Cheaply tells whether anything was added to, removed from or renamed in the media folder
+     * since it was last prepared. Used to decide whether to schedule a preparation.
+     */
+    public static boolean mayNeedPreparation(File mediaDir) {
+        if (!mediaDir.isDirectory()) {
+            return false;
+        }
+        File stateFile = new File(mediaDir, PREPARED_STATE_FILE);
+        return !stateFile.exists() || mediaDir.lastModified() > stateFile.lastModified()
+                || !new String(FileUtils.read(stateFile)).equals(getItemsetsSignature(mediaDir));
+    }
+
+    /**
+     * Prepares all external data of the media folder, waiting for any preparation of the same
+     * folder that is already running.
+     */
+    public static void prepare(File mediaDir, ExternalDataLoadingListener listener) {
+        synchronized (getLock(mediaDir)) {
+            if (isPrepared(mediaDir)) {
+                Timber.i("External data of %s is already prepared", mediaDir.getName());
+                return;
+            }
+
+            final long start = System.currentTimeMillis();
+            loadExternalData(mediaDir, listener);
+            if (listener.isCancelled()) {
+                return;
+            }
+            processItemSets(mediaDir);
+
+            FileUtils.write(new File(mediaDir, PREPARED_STATE_FILE), getItemsetsSignature(mediaDir).getBytes());
+            Timber.i("Prepared external data of %s in %.3f seconds.", mediaDir.getName(),
+                    (System.currentTimeMillis() - start) / 1000F);
+        }
+    }
+
+    private static Object getLock(File mediaDir) {
+        synchronized (LOCKS) {
+            String path = mediaDir.getAbsolutePath();
+            Object lock = LOCKS.get(path);
+            if (lock == null) {
+                lock = new Object();
+                LOCKS.put(path, lock);
+            }
+            return lock;
+        }
+    }
+
+    private static Map<String, File> getPendingFiles(File mediaDir) {
+        Map<String, File> pending = new HashMap<>();
+        File[] files = mediaDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String lowerCaseName = file.getName().toLowerCase(Locale.US);
+                return lowerCaseName.endsWith(".zip")
+                        || lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(ITEMSETS_CSV);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                pending.put(file.getName(), file);
+            }
+        }
+        return pending;
+    }
+
+    private static String getItemsetsSignature(File mediaDir) {
+        File csv = new File(mediaDir, ITEMSETS_CSV);
+        return csv.exists() ? csv.length() + ":" + csv.lastModified() : "";
+    }
+
+    private static void loadExternalData(File mediaFolder, ExternalDataLoadingListener listener) {
+        // SCTO-594
+        File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().toLowerCase(Locale.US).endsWith(".zip");
+            }
+        });
+
+        if (zipFiles != null) {
+            ZipUtils.unzip(zipFiles);
+            for (File zipFile : zipFiles) {
+                boolean deleted = zipFile.delete();
+                if (!deleted) {
+                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
+                }
+            }
+        }
+
+        File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String lowerCaseName = file.getName().toLowerCase(Locale.US);
+                return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(
+                        ITEMSETS_CSV);
+            }
+        });
+
+        Map<String, File> externalDataMap = new HashMap<String, File>();
+
+        if (csvFiles != null) {
+
+            for (File csvFile : csvFiles) {
+                String dataSetName = csvFile.getName().substring(0,
+                        csvFile.getName().lastIndexOf("."));
+                externalDataMap.put(dataSetName, csvFile);
+            }
+
+            if (!externalDataMap.isEmpty()) {
+
+                listener.publishExternalDataLoadingProgress(Collect.getInstance()
+                        .getString(R.string.survey_loading_reading_csv_message));
+
+                ExternalDataReader externalDataReader = new ExternalDataReaderImpl(listener);
+                externalDataReader.doImport(externalDataMap);
+            }
+        }
+    }
+
+    private static void processItemSets(File formMediaDir) {
+        // for itemsets.csv, we only check to see if the itemset file has been
+        // updated
+        final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ITEMSETS_CSV);
+        String csvmd5 = null;
+        if (csv.exists()) {
+            csvmd5 = FileUtils.getMd5Hash(csv);
+            boolean readFile = false;
+            final ItemsetDbAdapter ida = new ItemsetDbAdapter();
+            ida.open();
+            // get the database entry (if exists) for this itemsets.csv, based
+            // on the path
+            final Cursor c = ida.getItemsets(csv.getAbsolutePath());
+            if (c != null) {
+                if (c.getCount() == 1) {
+                    c.moveToFirst(); // should be only one, ever, if any
+                    final String oldmd5 = c.getString(c.getColumnIndex("hash"));
+                    if (oldmd5.equals(csvmd5)) {
+                        // they're equal, do nothing
+                    } else {
+                        // the csv has been updated, delete the old entries
+                        ida.dropTable(ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()),
+                                csv.getAbsolutePath());
+                        // and read the new
+                        readFile = true;
+                    }
+                } else {
+                    // new csv, add it
+                    readFile = true;
+                }
+                c.close();
+            }
+            ida.close();
+            if (readFile) {
+                readCSV(csv, csvmd5, ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()));
+            }
+        }
+    }
+
+    private static void readCSV(File csv, String formHash, String pathHash) {
+
+        CSVReader reader;
+        ItemsetDbAdapter ida = new ItemsetDbAdapter();
+        ida.open();
+        boolean withinTransaction = false;
+        String[] columnHeaders = null;
+
+        try {
+            reader = new CSVReader(new FileReader(csv));
+
+            String[] nextLine;
+            int lineNumber = 0;
+            while ((nextLine = reader.readNext()) != null) {
+                lineNumber++;
+                if (lineNumber == 1) {
+                    // first line of csv is column headers
+                    columnHeaders = nextLine;
+                    ida.createTable(formHash, pathHash, columnHeaders,
+                            csv.getAbsolutePath());
+                    continue;
+                }
+                // add the rest of the lines to the specified database
+                // nextLine[] is an array of values from the line
+                if (lineNumber == 2) {
+                    // start a transaction for the inserts
+                    withinTransaction = true;
+                    ida.beginTransaction();
+                }
+                ida.addRow(pathHash, columnHeaders, nextLine);
+
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Exception thrown while reading csv file");
+        } finally {
+            if (withinTransaction) {
+                ida.commit();
+            }
+            if (columnHeaders != null) {
+                createItemsetIndexes(ida, pathHash, Arrays.asList(columnHeaders), csv.getParentFile());
+            }
+            ida.close();
+        }
+    }
+
+    /**
+     * Indexes the list name of an itemset table together with the columns each itemset query of
+     * the form filters on. The indexes are created after the rows are inserted, which is faster
+     * than maintaining them during the import.
+     */
+    private static void createItemsetIndexes(ItemsetDbAdapter ida, String pathHash, List<String> columnHeaders,
+                                             File formMediaDir) {
+        if (!columnHeaders.contains(LIST_NAME_COLUMN)) {
+            return;
+        }
+
+        Set<List<String>> indexes = new LinkedHashSet<>();
+        indexes.add(Collections.singletonList(LIST_NAME_COLUMN));
+
+        File formFile = getFormFile(formMediaDir);
+        if (formFile != null) {
+            for (String query : XmlMetadataParser.getAttributeValues(formFile, "query")) {
+                List<String> columns = new ArrayList<>();
+                columns.add(LIST_NAME_COLUMN);
+                for (String column : ItemsetEngine.getFilterColumns(query)) {
+                    if (columnHeaders.contains(column) && !columns.contains(column)) {
+                        columns.add(column);
+                    }
+                }
+                indexes.add(columns);
+            }
+        }
+
+        int number = 0;
+        for (List<String> columns : indexes) {
+            try {
+                ida.createIndex(pathHash, "idx" + number++, columns);
+            } catch (SQLException e) {
+                Timber.w(e, "Unable to index %s", columns);
+            }
+        }
+    }
+
+    /**
+     * Returns the form a media folder belongs to, or null if there is none.
+     */
+    private static File getFormFile(File formMediaDir) {
+        String mediaDirName = formMediaDir.getName();
+        if (!mediaDirName.endsWith(MEDIA_SUFFIX)) {
+            return null;
+        }
+
+        String formName = mediaDirName.substring(0, mediaDirName.length() - MEDIA_SUFFIX.length());
+        for (String extension : new String[] {".xml", ".xhtml"}) {
+            File formFile = new File(formMediaDir.getParentFile(), formName + extension);
+            if (formFile.exists()) {
+                return formFile;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Remembers the results of pulldata() and search() lookups for one form session, and keeps the
+ * statements compiled for them, so that recomputing a form does not re-run identical queries.
+ *
+ * Results are grouped by data set and dropped as soon as the importer reports, through
+ * {@link #invalidate(File)}, that it has rewritten the data set's database.
+ */
+public class ExternalDataQueryCache {
+
+    static final int MAX_ENTRIES_PER_DATA_SET = 500;
+
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    /** The generation of each database written since the app started, by path. */
+    private static final Map<String, Long> GENERATIONS = new HashMap<>();
+    private static long lastGeneration;
+
+    private final File mediaFolder;
+    private final Map<String, DataSetCache> dataSets = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long queries;
+    private long queryNanos;
+
+    public ExternalDataQueryCache(File mediaFolder) {
+        this.mediaFolder = mediaFolder;
+    }
+
+    /**
+     * Drops what every cache has remembered about the given database. Must be called whenever
+     * the database has been written, after the changes are committed.
+     */
+    public static void invalidate(File dbFile) {
+        synchronized (GENERATIONS) {
+            GENERATIONS.put(dbFile.getAbsolutePath(), ++lastGeneration);
+        }
+    }
+
+    private static long getGeneration(String dbPath) {
+        synchronized (GENERATIONS) {
+            Long generation = GENERATIONS.get(dbPath);
+            return generation != null ? generation : 0;
+        }
+    }
+
+    /**
+     * Builds a cache key out of the handler name and all of the arguments of a lookup.
+     */
+    public static String key(String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append(part).append(KEY_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached result of a lookup, or null if there is none for the current version of
+     * the data set.
+     */
+    public synchronized Object get(String dataSetName, String key) {
+        Object result = getDataSetCache(dataSetName).results.get(key);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    public synchronized void put(String dataSetName, String key, Object result) {
+        getDataSetCache(dataSetName).results.put(key, result);
+    }
+
+    /**
+     * Returns a statement compiled for the given SQL on the data set's database, compiling it
+     * the first time it is asked for. The statement must only be used while holding this cache's
+     * lock, e.g. from a method synchronized on it.
+     */
+    public synchronized SQLiteStatement getStatement(String dataSetName, SQLiteDatabase db, String sql) {
+        Map<String, SQLiteStatement> statements = getDataSetCache(dataSetName).statements;
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    public synchronized void recordQuery(long nanos) {
+        queries++;
+        queryNanos += nanos;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Returns the share of lookups answered from the cache, between 0 and 1. */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /** Returns the average time spent in the database per lookup that missed the cache. */
+    public synchronized double getAverageQueryMillis() {
+        return queries == 0 ? 0 : queryNanos / 1e6 / queries;
+    }
+
+    /**
+     * Closes all compiled statements and logs the counters. Must be called before the databases
+     * are closed.
+     */
+    public synchronized void close() {
+        for (DataSetCache cache : dataSets.values()) {
+            cache.closeStatements();
+        }
+        dataSets.clear();
+
+        if (hits + misses > 0) {
+            Timber.i("External data lookups: %d hits, %d misses (%.1f%% hit rate), %.2f ms per query",
+                    hits, misses, getHitRate() * 100, getAverageQueryMillis());
+        }
+    }
+
+    private DataSetCache getDataSetCache(String dataSetName) {
+        DataSetCache cache = dataSets.get(dataSetName);
+        if (cache != null && cache.generation != getGeneration(cache.dbPath)) {
+            Timber.i("%s changed, dropping its cached lookups", dataSetName);
+            cache.closeStatements();
+            cache = new DataSetCache(cache.dbPath);
+            dataSets.put(dataSetName, cache);
+        }
+        if (cache == null) {
+            cache = new DataSetCache(new File(mediaFolder, dataSetName + ".db").getAbsolutePath());
+            dataSets.put(dataSetName, cache);
+        }
+        return cache;
+    }
+
+    private static class DataSetCache {
+        final String dbPath;
+        final long generation;
+        final LruCache<String, Object> results = new LruCache<>(MAX_ENTRIES_PER_DATA_SET);
+        final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+        DataSetCache(String dbPath) {
+            this.dbPath = dbPath;
+            generation = getGeneration(dbPath);
+        }
+
+        void closeStatements() {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        }
+    }
+}
@@ -18,10 +18,8 @@
 
 package org.odk.collect.android.external;
 
-import android.database.sqlite.SQLiteDatabase;
-
 import org.apache.commons.io.FileUtils;
-import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.listeners.ExternalDataLoadingListener;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,10 +34,10 @@ import timber.log.Timber;
  */
 public class ExternalDataReaderImpl implements ExternalDataReader {
 
-    private final FormLoaderTask formLoaderTask;
+    private final ExternalDataLoadingListener loadingListener;
 
-    public ExternalDataReaderImpl(FormLoaderTask formLoaderTask) {
-        this.formLoaderTask = formLoaderTask;
+    public ExternalDataReaderImpl(ExternalDataLoadingListener loadingListener) {
+        this.loadingListener = loadingListener;
     }
 
     @Override
@@ -51,7 +49,18 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
                 File dbFile = new File(dataSetFile.getParentFile().getAbsolutePath(),
                         dataSetName + ".db");
                 if (dbFile.exists()) {
-                    // this means the someone updated the csv file, so we need to reload it
+                    // this means the someone updated the csv file, so first try to apply only
+                    // what changed and otherwise reload it
+                    ExternalDataBulkImporter importer = new ExternalDataBulkImporter(dataSetFile, loadingListener);
+                    if (importer.updateInto(dbFile)) {
+                        archiveImportedFile(dataSetFile);
+                        continue;
+                    }
+                    if (loadingListener.isCancelled()) {
+                        // the update was rolled back, so the previous data is still usable
+                        return;
+                    }
+
                     boolean deleted = dbFile.delete();
                     if (!deleted) {
                         Timber.e("%s has changed but we could not delete the previous DB at %s",
@@ -61,9 +70,9 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
                 }
                 ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(
                         dbFile);
-                externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, formLoaderTask);
+                externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, loadingListener);
 
-                if (formLoaderTask.isCancelled()) {
+                if (loadingListener.isCancelled()) {
                     Timber.w(
                             "The import was cancelled, so we need to rollback.");
 
@@ -73,12 +82,12 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
                     Timber.w("Closing database to be deleted %s", dbFile.toString());
 
                     // then close the database
-                    SQLiteDatabase db = externalSQLiteOpenHelper.getReadableDatabase();
-                    db.close();
+                    externalSQLiteOpenHelper.close();
 
                     // the physically delete the db.
                     try {
                         FileUtils.forceDelete(dbFile);
+                        ExternalDataQueryCache.invalidate(dbFile);
                         Timber.w("Deleted %s", dbFile.getName());
                     } catch (IOException e) {
                         Timber.e(e);
@@ -88,20 +97,25 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
                     return;
 
                 } else {
-                    // rename the dataSetFile into "dataSetFile.csv.imported" in order not to be
-                    // loaded again
-                    File importedFile = new File(dataSetFile.getParentFile(),
-                            dataSetFile.getName() + ".imported");
-                    boolean renamed = dataSetFile.renameTo(importedFile);
-                    if (!renamed) {
-                        Timber.e("%s could not be renamed to be archived. It will be re-imported "
-                                + "again! :(", dataSetFile.getName());
-                    } else {
-                        Timber.e("%s was renamed to %s", dataSetFile.getName(), importedFile.getName());
-                    }
+                    archiveImportedFile(dataSetFile);
                 }
             }
         }
     }
 
+    /**
+     * Renames the dataSetFile into "dataSetFile.csv.imported" in order not to be loaded again.
+     */
+    private void archiveImportedFile(File dataSetFile) {
+        File importedFile = new File(dataSetFile.getParentFile(),
+                dataSetFile.getName() + ".imported");
+        boolean renamed = dataSetFile.renameTo(importedFile);
+        if (!renamed) {
+            Timber.e("%s could not be renamed to be archived. It will be re-imported "
+                    + "again! :(", dataSetFile.getName());
+        } else {
+            Timber.e("%s was renamed to %s", dataSetFile.getName(), importedFile.getName());
+        }
+    }
+
 }
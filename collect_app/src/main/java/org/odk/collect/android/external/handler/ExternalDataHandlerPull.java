@@ -18,9 +18,10 @@
 
 package org.odk.collect.android.external.handler;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 
 import com.google.android.gms.analytics.HitBuilders;
 
@@ -28,6 +29,7 @@ import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.ExternalDataQueryCache;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 
@@ -45,6 +47,8 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
     public static final String HANDLER_NAME = "pulldata";
 
+    private boolean eventSent;
+
     public ExternalDataHandlerPull(ExternalDataManager externalDataManager) {
         super(externalDataManager);
     }
@@ -71,12 +75,16 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
     @Override
     public Object eval(Object[] args, EvaluationContext ec) {
-        Collect.getInstance().getDefaultTracker()
-                .send(new HitBuilders.EventBuilder()
-                        .setCategory("ExternalData")
-                        .setAction("pulldata()")
-                        .setLabel(Collect.getCurrentFormIdentifierHash())
-                        .build());
+        if (!eventSent) {
+            // one event per form session is enough, and sending it is not free
+            eventSent = true;
+            Collect.getInstance().getDefaultTracker()
+                    .send(new HitBuilders.EventBuilder()
+                            .setCategory("ExternalData")
+                            .setAction("pulldata()")
+                            .setLabel(Collect.getCurrentFormIdentifierHash())
+                            .build());
+        }
 
         if (args.length != 4) {
             Timber.e("4 arguments are needed to evaluate the %s function", HANDLER_NAME);
@@ -91,36 +99,47 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
         // SCTO-545
         dataSetName = normalize(dataSetName);
 
-        Cursor c = null;
-        try {
-            ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
-                    dataSetName, false);
-            if (sqLiteOpenHelper == null) {
-                return "";
+        ExternalDataQueryCache queryCache = getExternalDataManager().getQueryCache();
+        String key = ExternalDataQueryCache.key(HANDLER_NAME, queriedColumn, referenceColumn, referenceValue);
+
+        synchronized (queryCache) {
+            String value = (String) queryCache.get(dataSetName, key);
+            if (value != null) {
+                return value;
             }
 
-            SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
-            String[] columns = {ExternalDataUtil.toSafeColumnName(queriedColumn)};
-            String selection = ExternalDataUtil.toSafeColumnName(referenceColumn) + "=?";
-            String[] selectionArgs = {referenceValue};
-
-            c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, columns, selection,
-                    selectionArgs, null, null, null);
-            if (c.getCount() > 0) {
-                c.moveToFirst();
-                return ExternalDataUtil.nullSafe(c.getString(0));
-            } else {
-                Timber.i("Could not find a value in %s where the column %s has the value %s",
-                        queriedColumn, referenceColumn, referenceValue);
+            try {
+                ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
+                        dataSetName, false);
+                if (sqLiteOpenHelper == null) {
+                    return "";
+                }
+
+                SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
+                String sql = "SELECT " + ExternalDataUtil.toSafeColumnName(queriedColumn)
+                        + " FROM " + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME
+                        + " WHERE " + ExternalDataUtil.toSafeColumnName(referenceColumn) + "=? LIMIT 1";
+
+                long start = System.nanoTime();
+                SQLiteStatement statement = queryCache.getStatement(dataSetName, db, sql);
+                statement.bindString(1, referenceValue);
+                try {
+                    value = ExternalDataUtil.nullSafe(statement.simpleQueryForString());
+                } catch (SQLiteDoneException e) {
+                    Timber.i("Could not find a value in %s where the column %s has the value %s",
+                            queriedColumn, referenceColumn, referenceValue);
+                    value = "";
+                } finally {
+                    statement.clearBindings();
+                    queryCache.recordQuery(System.nanoTime() - start);
+                }
+
+                queryCache.put(dataSetName, key, value);
+                return value;
+            } catch (SQLiteException e) {
+                Timber.i(e);
                 return "";
             }
-        } catch (SQLiteException e) {
-            Timber.i(e);
-            return "";
-        } finally {
-            if (c != null) {
-                c.close();
-            }
         }
     }
 }
@@ -20,6 +20,7 @@ package org.odk.collect.android.external.handler;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 
 import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.condition.EvaluationContext;
@@ -28,12 +29,15 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.R.string;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.exception.ExternalDataException;
+import org.odk.collect.android.external.ExternalDataFullTextIndex;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.ExternalDataQueryCache;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 import org.odk.collect.android.external.ExternalSelectChoice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -136,6 +140,32 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         // SCTO-545
         String dataSetName = normalize(XPathFuncExpr.toString(args[0]));
 
+        ExternalDataQueryCache queryCache = getExternalDataManager().getQueryCache();
+        String key = ExternalDataQueryCache.key(HANDLER_NAME, getValueColumn(), getDisplayColumns(),
+                getImageColumn(), externalDataSearchType.name(), queriedColumnsParam, queriedValue,
+                filterColumn, filterValue);
+
+        synchronized (queryCache) {
+            @SuppressWarnings("unchecked")
+            List<SelectChoice> cachedChoices = (List<SelectChoice>) queryCache.get(dataSetName, key);
+            if (cachedChoices != null) {
+                // callers may add to the returned list
+                return new ArrayList<>(cachedChoices);
+            }
+
+            long start = System.nanoTime();
+            ArrayList<SelectChoice> selectChoices = query(dataSetName, queriedColumns, queriedValue,
+                    externalDataSearchType, searchRows, useFilter, filterColumn, filterValue);
+            queryCache.recordQuery(System.nanoTime() - start);
+
+            queryCache.put(dataSetName, key, selectChoices);
+            return new ArrayList<>(selectChoices);
+        }
+    }
+
+    private ArrayList<SelectChoice> query(String dataSetName, List<String> queriedColumns,
+            String queriedValue, ExternalDataSearchType externalDataSearchType, boolean searchRows,
+            boolean useFilter, String filterColumn, String filterValue) {
         Cursor c = null;
         try {
             ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
@@ -178,6 +208,36 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
                 selectionArgs = null;
             }
 
+            String matchExpression = searchRows
+                    ? externalDataSearchType.getFullTextMatchExpression(queriedValue)
+                    : null;
+            if (matchExpression != null) {
+                try {
+                    if (sqLiteOpenHelper.getFullTextColumns().containsAll(queriedColumns)) {
+                        String fullTextSelection = ExternalDataFullTextIndex.getSelection(
+                                ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, queriedColumns);
+                        String[] fullTextArgs = new String[queriedColumns.size() + (useFilter ? 1 : 0)];
+                        Arrays.fill(fullTextArgs, 0, queriedColumns.size(), matchExpression);
+                        if (useFilter) {
+                            fullTextSelection += " AND " + ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
+                            fullTextArgs[fullTextArgs.length - 1] = filterValue;
+                        }
+
+                        c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns,
+                                fullTextSelection, fullTextArgs, null, null,
+                                ExternalDataUtil.SORT_COLUMN_NAME);
+                        return createDynamicSelectChoices(c, selectColumnMap, safeImageColumn);
+                    }
+                    Timber.w("%s is not indexed for words searches, searching with LIKE", queriedColumns);
+                } catch (SQLiteException e) {
+                    Timber.w(e, "Full-text search of %s failed, falling back to LIKE", dataSetName);
+                    if (c != null) {
+                        c.close();
+                        c = null;
+                    }
+                }
+            }
+
             try {
                 c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, sqlColumns, selection,
                         selectionArgs, null, null, ExternalDataUtil.SORT_COLUMN_NAME);
@@ -18,6 +18,8 @@
 
 package org.odk.collect.android.external.handler;
 
+import org.odk.collect.android.external.ExternalDataFullTextIndex;
+
 /**
  * Author: Meletis Margaritis
  * Date: 20/05/13
@@ -51,6 +53,23 @@ enum ExternalDataSearchType {
         protected String getSingleLikeArgument(String queriedValue) {
             return '%' + queriedValue;
         }
+    },
+
+    /**
+     * Finds the rows where every word of the value starts a word of the column, in any order,
+     * through the {@link ExternalDataFullTextIndex}. Falls back to contains on columns that are
+     * not indexed.
+     */
+    WORDS("words") {
+        @Override
+        protected String getSingleLikeArgument(String queriedValue) {
+            return '%' + queriedValue + '%';
+        }
+
+        @Override
+        public String getFullTextMatchExpression(String queriedValue) {
+            return ExternalDataFullTextIndex.toMatchExpression(queriedValue);
+        }
     };
 
     private final String keyword;
@@ -85,5 +104,13 @@ enum ExternalDataSearchType {
         return args;
     }
 
+    /**
+     * Returns the expression to look the value up with in an {@link ExternalDataFullTextIndex},
+     * or null if this kind of search uses LIKE.
+     */
+    public String getFullTextMatchExpression(String queriedValue) {
+        return null;
+    }
+
     protected abstract String getSingleLikeArgument(String queriedValue);
 }
@@ -22,6 +22,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.CursorLoader;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -184,9 +185,10 @@ public class DataManagerList extends InstanceListFragment
     }
 
     @Override
-    public void progressUpdate(int progress, int total) {
+    public void progressUpdate(int progress, int total, long bytesFreed) {
         String message = String.format(getResources().getString(R.string.deleting_form_dialog_update_message), progress, total);
-        progressDialog.setMessage(message);
+        progressDialog.setMessage(getString(R.string.bytes_freed, message,
+                Formatter.formatShortFileSize(getContext(), bytesFreed)));
     }
 
     /**
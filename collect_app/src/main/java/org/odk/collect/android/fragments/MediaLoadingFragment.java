@@ -8,8 +8,11 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 
 import org.odk.collect.android.activities.FormEntryActivity;
+import org.odk.collect.android.tasks.ImageCaptureTask;
 import org.odk.collect.android.tasks.MediaLoadingTask;
 
+import java.io.File;
+
 public class MediaLoadingFragment extends Fragment {
 
     private MediaLoadingTask mediaLoadingTask;
@@ -20,6 +23,11 @@ public class MediaLoadingFragment extends Fragment {
         mediaLoadingTask.execute(uri);
     }
 
+    public void beginImageCaptureTask(File imageFile) {
+        mediaLoadingTask = new ImageCaptureTask(formEntryActivity);
+        mediaLoadingTask.execute(Uri.fromFile(imageFile));
+    }
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -84,6 +84,26 @@ public class CollectServerClient {
      */
     public @NonNull
     HttpGetResult getHttpInputStream(@NonNull String downloadUrl, @Nullable final String contentType) throws Exception {
+        URI uri = toUri(downloadUrl);
+        return httpInterface.get(uri, contentType, webCredentialsUtils.getCredentials(uri));
+    }
+
+    /**
+     * Creates a Http connection and input stream for a download that can be resumed later on
+     *
+     * @param downloadUrl uri of the stream
+     * @param offset number of bytes that were already downloaded
+     * @param validator ETag or Last-Modified value returned when the download was started
+     * @return HttpGetResult - status 206 if the server continues from the offset, 200 if it starts over
+     * @throws Exception - Can throw a multitude of Exceptions, such as MalformedURLException or IOException
+     */
+    public @NonNull
+    HttpGetResult getHttpRangeInputStream(@NonNull String downloadUrl, long offset, @Nullable String validator) throws Exception {
+        URI uri = toUri(downloadUrl);
+        return httpInterface.getRange(uri, offset, validator, webCredentialsUtils.getCredentials(uri));
+    }
+
+    private static URI toUri(String downloadUrl) throws Exception {
         URI uri;
         try {
             // assume the downloadUrl is escaped properly
@@ -99,7 +119,7 @@ public class CollectServerClient {
             throw new Exception("Invalid server URL (no hostname): " + downloadUrl);
         }
 
-        return httpInterface.get(uri, contentType, webCredentialsUtils.getCredentials(uri));
+        return uri;
     }
 
     public static String getPlainTextMimeType() {
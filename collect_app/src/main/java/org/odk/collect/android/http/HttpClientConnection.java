@@ -45,11 +45,11 @@ import org.opendatakit.httpclientandroidlib.client.HttpClient;
 import org.opendatakit.httpclientandroidlib.client.config.AuthSchemes;
 import org.opendatakit.httpclientandroidlib.client.config.CookieSpecs;
 import org.opendatakit.httpclientandroidlib.client.config.RequestConfig;
+import org.opendatakit.httpclientandroidlib.client.entity.GzipCompressingEntity;
 import org.opendatakit.httpclientandroidlib.client.methods.HttpGet;
 import org.opendatakit.httpclientandroidlib.client.methods.HttpHead;
 import org.opendatakit.httpclientandroidlib.client.methods.HttpPost;
 import org.opendatakit.httpclientandroidlib.client.protocol.HttpClientContext;
-import org.opendatakit.httpclientandroidlib.config.SocketConfig;
 import org.opendatakit.httpclientandroidlib.conn.ConnectTimeoutException;
 import org.opendatakit.httpclientandroidlib.conn.HttpHostConnectException;
 import org.opendatakit.httpclientandroidlib.entity.ContentType;
@@ -59,7 +59,6 @@ import org.opendatakit.httpclientandroidlib.entity.mime.content.StringBody;
 import org.opendatakit.httpclientandroidlib.impl.auth.BasicScheme;
 import org.opendatakit.httpclientandroidlib.impl.client.BasicAuthCache;
 import org.opendatakit.httpclientandroidlib.impl.client.BasicCookieStore;
-import org.opendatakit.httpclientandroidlib.impl.client.HttpClientBuilder;
 import org.opendatakit.httpclientandroidlib.protocol.BasicHttpContext;
 import org.opendatakit.httpclientandroidlib.protocol.HttpContext;
 import org.opendatakit.httpclientandroidlib.util.EntityUtils;
@@ -94,21 +93,31 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     private static final String DATE_HEADER = "Date";
     private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
     private static final String GZIP_CONTENT_ENCODING = "gzip";
+    private static final String IDENTITY_CONTENT_ENCODING = "identity";
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_RANGE_HEADER = "If-Range";
+
+    private static final long DEFAULT_MAX_CONTENT_LENGTH = 10000000L;
+    private static final int MAX_FILES_PER_REQUEST = 100;
 
     private static final int CONNECTION_TIMEOUT = 30000;
     private static final int UPLOAD_CONNECTION_TIMEOUT = 60000; // it can take up to 27 seconds to spin up an Aggregate
     private static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
 
-    // Retain authentication and cookies between requests. Gets mutated on each call to
-    // HttpClient.execute).
-    private HttpContext httpContext;
-
-    public HttpClientConnection() {
-        httpContext = new BasicHttpContext();
-
-        httpContext.setAttribute(HttpClientContext.COOKIE_STORE, new BasicCookieStore());
-        httpContext.setAttribute(HttpClientContext.CREDS_PROVIDER, new AgingCredentialsProvider(7 * 60 * 1000));
-    }
+    // Retain authentication and cookies between requests. Cookies and credentials are shared by
+    // all threads, while the context itself gets mutated on each call to HttpClient.execute and
+    // is therefore kept per thread so that requests can be issued concurrently.
+    private final CookieStore cookieStore = new BasicCookieStore();
+    private final CredentialsProvider credentialsProvider = new AgingCredentialsProvider(7 * 60 * 1000);
+    private final ThreadLocal<HttpContext> httpContext = new ThreadLocal<HttpContext>() {
+        @Override
+        protected HttpContext initialValue() {
+            HttpContext context = new BasicHttpContext();
+            context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
+            context.setAttribute(HttpClientContext.CREDS_PROVIDER, credentialsProvider);
+            return context;
+        }
+    };
 
     private enum ContentTypeMapping {
         XML("xml",  ContentType.TEXT_XML),
@@ -151,10 +160,26 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     @Override
     public @NonNull
     HttpGetResult get(@NonNull URI uri, @Nullable final String contentType, @Nullable HttpCredentialsInterface credentials) throws Exception {
+        return executeGet(uri, contentType, credentials, false, 0, null);
+    }
+
+    @Override
+    public @NonNull
+    HttpGetResult getRange(@NonNull URI uri, long offset, @Nullable String validator,
+                           @Nullable HttpCredentialsInterface credentials) throws Exception {
+        return executeGet(uri, null, credentials, true, offset, validator);
+    }
+
+    /**
+     * @param resumable whether the body has to be fetched without content encoding, so that
+     *                  byte ranges of it can be requested later on
+     */
+    private HttpGetResult executeGet(@NonNull URI uri, @Nullable final String contentType,
+                                     @Nullable HttpCredentialsInterface credentials,
+                                     boolean resumable, long offset, @Nullable String validator) throws Exception {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(CONNECTION_TIMEOUT);
+        HttpClient httpclient = HttpConnectionPool.getHttpClient();
 
         // if https then enable preemptive basic auth...
         if (uri.getScheme().equals("https")) {
@@ -163,14 +188,30 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
 
         // set up request...
         HttpGet req = createOpenRosaHttpGet(uri);
-        req.addHeader(ACCEPT_ENCODING_HEADER, GZIP_CONTENT_ENCODING);
+        if (resumable) {
+            req.setConfig(RequestConfig.copy(createRequestConfig(CONNECTION_TIMEOUT))
+                    .setContentCompressionEnabled(false)
+                    .build());
+            req.addHeader(ACCEPT_ENCODING_HEADER, IDENTITY_CONTENT_ENCODING);
+            if (offset > 0) {
+                req.addHeader(RANGE_HEADER, "bytes=" + offset + "-");
+                if (validator != null) {
+                    req.addHeader(IF_RANGE_HEADER, validator);
+                }
+            }
+        } else {
+            req.setConfig(createRequestConfig(CONNECTION_TIMEOUT));
+            req.addHeader(ACCEPT_ENCODING_HEADER, GZIP_CONTENT_ENCODING);
+        }
 
         HttpResponse response;
 
-        response = httpclient.execute(req, httpContext);
+        HttpConnectionPool.onRequest();
+        response = httpclient.execute(req, httpContext.get());
         int statusCode = response.getStatusLine().getStatusCode();
 
-        if (statusCode != HttpStatus.SC_OK) {
+        if (statusCode != HttpStatus.SC_OK
+                && !(offset > 0 && statusCode == HttpStatus.SC_PARTIAL_CONTENT)) {
             discardEntityBytes(response);
             if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
                 // clear the cookies -- should not be necessary?
@@ -235,10 +276,10 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     @Override
     public @NonNull HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(CONNECTION_TIMEOUT);
+        HttpClient httpclient = HttpConnectionPool.getHttpClient();
         HttpHead httpHead = createOpenRosaHttpHead(uri);
+        httpHead.setConfig(createRequestConfig(CONNECTION_TIMEOUT));
         Map<String, String> responseHeaders = new HashMap<>();
 
         // if https then enable preemptive basic auth...
@@ -252,7 +293,8 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         try {
             Timber.i("Issuing HEAD request to: %s", uri.toString());
 
-            response = httpclient.execute(httpHead, httpContext);
+            HttpConnectionPool.onRequest();
+            response = httpclient.execute(httpHead, httpContext.get());
             statusCode = response.getStatusLine().getStatusCode();
             if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
                 clearCookieStore();
@@ -297,11 +339,17 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     public @NonNull ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList,
                                                       @NonNull File submissionFile,
                                                       @NonNull URI uri,
-                                                      @Nullable HttpCredentialsInterface credentials) throws IOException {
+                                                      @Nullable HttpCredentialsInterface credentials,
+                                                      long maxContentLength,
+                                                      boolean gzipSupported,
+                                                      @Nullable UploadProgressListener progressListener) throws IOException {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(UPLOAD_CONNECTION_TIMEOUT);
+        if (maxContentLength <= 0) {
+            maxContentLength = DEFAULT_MAX_CONTENT_LENGTH;
+        }
+
+        HttpClient httpclient = HttpConnectionPool.getHttpClient();
 
         // if https then enable preemptive basic auth...
         if (uri.getScheme().equals("https")) {
@@ -352,9 +400,9 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
 
                 // we've added at least one attachment to the request...
                 if (fileIndex + 1 < fileList.size()) {
-                    if ((fileIndex - lastFileIndex + 1 > 100) || (byteCount + fileList.get(fileIndex + 1).length()
-                            > 10000000L)) {
-                        // the next file would exceed the 10MB threshold...
+                    if ((fileIndex - lastFileIndex + 1 > MAX_FILES_PER_REQUEST) || (byteCount + fileList.get(fileIndex + 1).length()
+                            > maxContentLength)) {
+                        // the next file would exceed the size the server accepts...
                         Timber.i("Extremely long post is being split into multiple posts");
                         try {
                             StringBody sb = new StringBody("yes",
@@ -369,18 +417,32 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
                 }
             }
 
+            // the submission on its own is text and worth compressing, attachments rarely are
+            HttpEntity entity = builder.build();
+            if (gzipSupported && fileIndex == lastFileIndex) {
+                entity = new GzipCompressingEntity(entity);
+            }
+            ProgressReportingEntity progressReportingEntity = new ProgressReportingEntity(entity, progressListener);
+
             HttpPost httppost = createOpenRosaHttpPost(uri);
-            httppost.setEntity(builder.build());
+            httppost.setConfig(createRequestConfig(UPLOAD_CONNECTION_TIMEOUT));
+            httppost.setEntity(progressReportingEntity);
 
             // prepare response and return uploaded
             HttpResponse response;
 
             try {
                 Timber.i("Issuing POST request to: %s", uri.toString());
-                response = httpclient.execute(httppost, httpContext);
+                final long start = System.currentTimeMillis();
+                HttpConnectionPool.onRequest();
+                response = httpclient.execute(httppost, httpContext.get());
                 int responseCode = response.getStatusLine().getStatusCode();
                 HttpEntity httpEntity = response.getEntity();
                 Timber.i("Response code:%d", responseCode);
+                Timber.i("Sent %d bytes for %d bytes of files%s in %.3f seconds.",
+                        progressReportingEntity.getBytesWritten(), byteCount,
+                        entity instanceof GzipCompressingEntity ? " (gzip)" : "",
+                        (System.currentTimeMillis() - start) / 1000F);
 
                 messageParser = new ResponseMessageParser(
                         EntityUtils.toString(httpEntity),
@@ -417,32 +479,42 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         return messageParser;
     }
 
+    /**
+     * Sets the credentials to use for the host. The session cookies are only dropped when the
+     * credentials actually change, so that a server session survives consecutive requests.
+     */
     private void addCredentialsForHost(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) {
-        if (credentials != null) {
+        if (credentials != null && !hasCredentials(credentials.getUsername(), credentials.getPassword(), uri.getHost())) {
             addCredentials(credentials.getUsername(), credentials.getPassword(), uri.getHost());
+            clearCookieStore();
         }
     }
 
+    private boolean hasCredentials(String username, String password, String host) {
+        Credentials current = getCredentialsProvider().getCredentials(buildAuthScopes(host).get(0));
+        if (current == null || current.getUserPrincipal() == null) {
+            return username == null || username.trim().length() == 0;
+        }
+        return current.getUserPrincipal().getName().equals(username)
+                && current.getPassword() != null && current.getPassword().equals(password);
+    }
+
     /**
-     * Create an httpClient with connection timeouts and other parameters set.
-     * Save and reuse the connection manager across invocations (this is what
-     * requires synchronized access).
+     * Create the configuration of a request with connection timeouts and other parameters set.
+     * Requests are all executed by the client of the {@link HttpConnectionPool}, which is why the
+     * socket timeout is set here rather than on the connections.
      *
-     * @return HttpClient properly configured.
+     * @return RequestConfig properly configured.
      */
-    private synchronized HttpClient createHttpClient(int timeout) {
-        // configure connection
-        SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(
-                2 * timeout)
-                .build();
-
+    private static RequestConfig createRequestConfig(int timeout) {
         // if possible, bias toward digest auth (may not be in 4.0 beta 2)
         List<String> targetPreferredAuthSchemes = new ArrayList<>();
         targetPreferredAuthSchemes.add(AuthSchemes.DIGEST);
         targetPreferredAuthSchemes.add(AuthSchemes.BASIC);
 
-        RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT)
+        return RequestConfig.copy(RequestConfig.DEFAULT)
                 .setConnectTimeout(timeout)
+                .setSocketTimeout(2 * timeout)
                 // support authenticating
                 .setAuthenticationEnabled(true)
                 // support redirecting to handle http: => https: transition
@@ -452,20 +524,15 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
                 .setTargetPreferredAuthSchemes(targetPreferredAuthSchemes)
                 .setCookieSpec(CookieSpecs.DEFAULT)
                 .build();
-
-        return HttpClientBuilder.create()
-                .setDefaultSocketConfig(socketConfig)
-                .setDefaultRequestConfig(requestConfig)
-                .build();
-
     }
 
     private void enablePreemptiveBasicAuth(String host) {
-        AuthCache ac = (AuthCache) httpContext.getAttribute(HttpClientContext.AUTH_CACHE);
+        HttpContext context = httpContext.get();
+        AuthCache ac = (AuthCache) context.getAttribute(HttpClientContext.AUTH_CACHE);
         HttpHost h = new HttpHost(host);
         if (ac == null) {
             ac = new BasicAuthCache();
-            httpContext.setAttribute(HttpClientContext.AUTH_CACHE, ac);
+            context.setAttribute(HttpClientContext.AUTH_CACHE, ac);
         }
         List<AuthScope> asList = buildAuthScopes(host);
         for (AuthScope authScope : asList) {
@@ -488,11 +555,11 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     }
 
     private void clearCookieStore() {
-        ((CookieStore) httpContext.getAttribute(HttpClientContext.COOKIE_STORE)).clear();
+        cookieStore.clear();
     }
 
     private CredentialsProvider getCredentialsProvider() {
-        return (CredentialsProvider) httpContext.getAttribute(HttpClientContext.CREDS_PROVIDER);
+        return credentialsProvider;
     }
 
     public void clearHostCredentials(String host) {
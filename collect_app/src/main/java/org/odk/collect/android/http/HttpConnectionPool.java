@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.http;
+
+import org.opendatakit.httpclientandroidlib.HttpHost;
+import org.opendatakit.httpclientandroidlib.client.HttpClient;
+import org.opendatakit.httpclientandroidlib.config.RegistryBuilder;
+import org.opendatakit.httpclientandroidlib.conn.socket.ConnectionSocketFactory;
+import org.opendatakit.httpclientandroidlib.conn.socket.PlainConnectionSocketFactory;
+import org.opendatakit.httpclientandroidlib.conn.ssl.SSLConnectionSocketFactory;
+import org.opendatakit.httpclientandroidlib.impl.client.HttpClientBuilder;
+import org.opendatakit.httpclientandroidlib.impl.client.IdleConnectionEvictor;
+import org.opendatakit.httpclientandroidlib.impl.conn.PoolingHttpClientConnectionManager;
+import org.opendatakit.httpclientandroidlib.pool.PoolStats;
+import org.opendatakit.httpclientandroidlib.protocol.HttpContext;
+import org.opendatakit.httpclientandroidlib.ssl.SSLContexts;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The single {@link HttpClient} used by every {@link HttpClientConnection}, backed by a pool of
+ * keep-alive connections so that consecutive requests to a server (a form, its manifest and all
+ * of its media files, or a series of submissions) do not each pay for a new TCP and TLS
+ * handshake. All TLS connections are made with one SSL context, so that new connections to a
+ * server can resume its TLS session.
+ *
+ * Connections that have been idle for {@link #IDLE_TIMEOUT_SECONDS} are closed in the background.
+ */
+public final class HttpConnectionPool {
+
+    public static final int DEFAULT_MAX_TOTAL = 10;
+    public static final int DEFAULT_MAX_PER_ROUTE = 4;
+
+    static final long IDLE_TIMEOUT_SECONDS = 30;
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static HttpClient httpClient;
+
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong CONNECTIONS = new AtomicLong();
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * Returns the shared client, creating the pool the first time.
+     */
+    static synchronized HttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingHttpClientConnectionManager(
+                    RegistryBuilder.<ConnectionSocketFactory>create()
+                            .register("http", new CountingPlainSocketFactory())
+                            .register("https", new CountingSSLSocketFactory())
+                            .build());
+            connectionManager.setMaxTotal(DEFAULT_MAX_TOTAL);
+            connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+            connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+            new IdleConnectionEvictor(connectionManager, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS).start();
+
+            httpClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setConnectionManagerShared(true)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    static void onRequest() {
+        REQUESTS.incrementAndGet();
+    }
+
+    /** Returns the number of requests issued through the pool. */
+    public static long getRequestCount() {
+        return REQUESTS.get();
+    }
+
+    /** Returns the number of connections the pool had to open. */
+    public static long getConnectionCount() {
+        return CONNECTIONS.get();
+    }
+
+    /** Returns the share of requests that were sent on an already open connection. */
+    public static double getReuseRate() {
+        long requests = REQUESTS.get();
+        return requests == 0 ? 0 : Math.max(0, 1 - (double) CONNECTIONS.get() / requests);
+    }
+
+    /** Returns a one line summary of the pool's state and counters for logging. */
+    public static synchronized String getStatistics() {
+        PoolStats stats = connectionManager != null ? connectionManager.getTotalStats() : null;
+        return String.format(Locale.US, "%d requests on %d connections (%.0f%% reused), pool: %s",
+                getRequestCount(), getConnectionCount(), getReuseRate() * 100, stats);
+    }
+
+    private static class CountingPlainSocketFactory extends PlainConnectionSocketFactory {
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+                                    InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                    HttpContext context) throws IOException {
+            CONNECTIONS.incrementAndGet();
+            return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        }
+    }
+
+    private static class CountingSSLSocketFactory extends SSLConnectionSocketFactory {
+        CountingSSLSocketFactory() {
+            super(SSLContexts.createDefault(), getDefaultHostnameVerifier());
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+                                    InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                    HttpContext context) throws IOException {
+            CONNECTIONS.incrementAndGet();
+            return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        }
+    }
+}
@@ -81,4 +81,17 @@ public class HttpGetResult {
     public int getStatusCode() {
         return statusCode;
     }
+
+    /**
+     * Returns the value of the response header with the given name, ignoring case, or null if
+     * there is no such header.
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
 }
@@ -39,6 +39,22 @@ public interface OpenRosaHttpInterface {
     @NonNull
     HttpGetResult get(@NonNull URI uri, @Nullable String contentType, @Nullable HttpCredentialsInterface credentials) throws Exception;
 
+    /**
+     * Creates a http connection for a download that can be resumed, and sets up an input stream
+     * of the body from the given offset on. The body is requested without content encoding.
+     *
+     * @param uri of the stream
+     * @param offset number of bytes already downloaded, 0 to start from the beginning
+     * @param validator ETag or Last-Modified value of the partial download, sent as If-Range so
+     *                  that the server sends the whole body again if it has changed
+     * @return HttpGetResult - with status 206 if the server continues from the offset, or 200 if
+     * it sends the whole body
+     * @throws Exception a multitude of Exceptions such as IOException can be thrown
+     */
+    @NonNull
+    HttpGetResult getRange(@NonNull URI uri, long offset, @Nullable String validator,
+                           @Nullable HttpCredentialsInterface credentials) throws Exception;
+
     /**
      * Performs a Http Head request.
      *
@@ -50,11 +66,17 @@ public interface OpenRosaHttpInterface {
     HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception;
 
     /**
-     * Uploads files to a Server.
+     * Uploads files to a Server. The files are split over several requests when they add up to
+     * more than the server accepts in one.
      *
      * @param fileList List of Files to be uploaded
      * @param submissionFile The main file to be uploaded (Form file)
      * @param uri where to send the submissionFile and fileList
+     * @param maxContentLength the largest request the server accepts, as advertised in
+     *                         X-OpenRosa-Accept-Content-Length, or 0 to use the default
+     * @param gzipSupported whether the server accepts gzip compressed requests. Only requests
+     *                      made of the submission file alone are compressed.
+     * @param progressListener notified of the bytes sent as the files are streamed
      * @return ResponseMessageParser object that contains the response XML
      * @throws IOException can be thrown if files do not exist
      */
@@ -62,6 +84,9 @@ public interface OpenRosaHttpInterface {
     ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList,
                                                @NonNull File submissionFile,
                                                @NonNull URI uri,
-                                               @Nullable HttpCredentialsInterface credentials) throws IOException;
+                                               @Nullable HttpCredentialsInterface credentials,
+                                               long maxContentLength,
+                                               boolean gzipSupported,
+                                               @Nullable UploadProgressListener progressListener) throws IOException;
 
 }
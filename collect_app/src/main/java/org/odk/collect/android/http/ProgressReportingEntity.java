@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.http;
+
+import org.opendatakit.httpclientandroidlib.HttpEntity;
+import org.opendatakit.httpclientandroidlib.entity.HttpEntityWrapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams the wrapped entity to the connection, reporting the bytes written as it goes. A body
+ * that gets sent again, for instance after an authentication challenge, is reported again.
+ */
+class ProgressReportingEntity extends HttpEntityWrapper {
+
+    private final UploadProgressListener listener;
+    private long bytesWritten;
+
+    ProgressReportingEntity(HttpEntity wrappedEntity, UploadProgressListener listener) {
+        super(wrappedEntity);
+        this.listener = listener;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        wrappedEntity.writeTo(new FilterOutputStream(outStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                onBytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                onBytesWritten(len);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of bytes written so far, over all the times the body was sent.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void onBytesWritten(int byteCount) {
+        bytesWritten += byteCount;
+        if (listener != null) {
+            listener.onBytesSent(byteCount);
+        }
+    }
+}
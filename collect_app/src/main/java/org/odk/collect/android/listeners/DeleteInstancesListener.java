@@ -23,5 +23,5 @@ package org.odk.collect.android.listeners;
 public interface DeleteInstancesListener {
     void deleteComplete(int deletedInstances);
 
-    void progressUpdate(int progress, int total);
+    void progressUpdate(int progress, int total, long bytesFreed);
 }
@@ -26,5 +26,10 @@ public interface InstanceUploaderListener {
 
     void progressUpdate(int progress, int total);
 
+    /**
+     * Reports the share of the bytes to upload that has been sent so far, in percent.
+     */
+    void bytesSentUpdate(int percentSent);
+
     void authRequest(Uri url, HashMap<String, String> doneSoFar);
 }
@@ -62,6 +62,7 @@ public class OsmMapFragment extends Fragment implements MapFragment,
     public static final GeoPoint INITIAL_CENTER = new GeoPoint(0.0, -30.0);
     public static final int INITIAL_ZOOM = 2;
     public static final int POINT_ZOOM = 16;
+    static final long VIEWPORT_REFRESH_DELAY_MILLIS = 150;
 
     protected MapView map;
     protected ReadyListener readyListener;
@@ -75,6 +76,7 @@ public class OsmMapFragment extends Fragment implements MapFragment,
     protected AlertDialog gpsErrorDialog;
     protected boolean gpsLocationEnabled;
     protected IGeoPoint lastMapCenter;
+    protected final Runnable viewportRefresher = this::refreshViewport;
 
     @Override public void addTo(@NonNull FragmentActivity activity, int containerId, @Nullable ReadyListener listener) {
         readyListener = listener;
@@ -309,11 +311,13 @@ public class OsmMapFragment extends Fragment implements MapFragment,
         map.setMapListener(new MapListener() {
             @Override public boolean onScroll(ScrollEvent event) {
                 lastMapCenter = map.getMapCenter();
+                onViewportChanged();
                 return false;
             }
 
             @Override public boolean onZoom(ZoomEvent event) {
                 lastMapCenter = map.getMapCenter();
+                onViewportChanged();
                 return false;
             }
         });
@@ -322,6 +326,21 @@ public class OsmMapFragment extends Fragment implements MapFragment,
             map.getController().setCenter(lastMapCenter));
     }
 
+    /**
+     * Scroll and zoom events arrive for every frame of a gesture, so the features
+     * are only told about the new viewport once the map has settled.
+     */
+    protected void onViewportChanged() {
+        map.removeCallbacks(viewportRefresher);
+        map.postDelayed(viewportRefresher, VIEWPORT_REFRESH_DELAY_MILLIS);
+    }
+
+    protected void refreshViewport() {
+        for (MapFeature feature : features.values()) {
+            feature.onViewportChanged();
+        }
+    }
+
     protected static @Nullable MapPoint fromLocation(@NonNull MyLocationNewOverlay overlay) {
         GeoPoint geoPoint = overlay.getMyLocation();
         if (geoPoint == null) {
@@ -356,95 +375,296 @@ public class OsmMapFragment extends Fragment implements MapFragment,
         /** Updates the feature's geometry after any UI handles have moved. */
         void update();
 
+        /** Adjusts the feature's presentation after the map has been panned or zoomed. */
+        void onViewportChanged();
+
         /** Removes the feature from the map, leaving it no longer usable. */
         void dispose();
     }
 
-    /** A polyline or polygon that can be manipulated by dragging markers at its vertices. */
+    /**
+     * A polyline or polygon that can be manipulated by dragging markers at its vertices.
+     *
+     * Traces recorded in automatic mode can have many thousands of vertices, so the line
+     * is drawn as a series of polylines of at most CHUNK_SIZE segments each, and appending
+     * a vertex only redraws the last of them.  Markers are only added for the vertices in
+     * view, or only for the selected (last appended or dragged) vertex when there are more
+     * than MAX_VISIBLE_MARKERS of those.  Complete chunks are drawn simplified to about one
+     * pixel at the current zoom level; the vertices themselves are never changed.
+     */
     protected static class DraggablePoly implements MapFeature, Marker.OnMarkerClickListener, Marker.OnMarkerDragListener {
+        public static final int STROKE_WIDTH = 5;
+        static final int CHUNK_SIZE = 256;
+        static final int MAX_VISIBLE_MARKERS = 200;
+        static final double METERS_PER_DEGREE = 111320;
+
         final MapView map;
-        final List<Marker> markers = new ArrayList<>();
-        final Polyline polyline;
         final boolean closedPolygon;
-        public static final int STROKE_WIDTH = 5;
+        final List<MapPoint> points = new ArrayList<>();
+        final List<Polyline> chunks = new ArrayList<>();
+        final Map<Integer, Marker> markers = new HashMap<>();
+        final Map<Marker, Integer> markerIndexes = new HashMap<>();
+        Polyline closingLine;
+        int selectedIndex = -1;
+        int visibleCount;
+        boolean showAllMarkersInView = true;
+        double toleranceMeters;
+        BoundingBox viewport;
 
         public DraggablePoly(MapView map, Iterable<MapPoint> points, boolean closedPolygon) {
             this.map = map;
             this.closedPolygon = closedPolygon;
-            polyline = new Polyline();
-            polyline.setColor(Color.RED);
-            Paint paint = polyline.getPaint();
-            paint.setStrokeWidth(STROKE_WIDTH);
-            map.getOverlays().add(polyline);
             for (MapPoint point : points) {
-                addMarker(point);
+                this.points.add(point);
+            }
+            selectedIndex = this.points.size() - 1;
+            if (closedPolygon) {
+                closingLine = createPolyline();
+                map.getOverlays().add(closingLine);
             }
+            readViewport();
             update();
         }
 
         public void update() {
-            List<GeoPoint> geoPoints = new ArrayList<>();
-            for (Marker marker : markers) {
-                geoPoints.add(marker.getPosition());
+            int chunkCount = getChunkCount(points.size());
+            while (chunks.size() < chunkCount) {
+                addChunk();
             }
-            if (closedPolygon && !geoPoints.isEmpty()) {
-                geoPoints.add(geoPoints.get(0));
+            while (chunks.size() > chunkCount) {
+                map.getOverlays().remove(chunks.remove(chunks.size() - 1));
             }
-            polyline.setPoints(geoPoints);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                drawChunk(chunk);
+            }
+            drawClosingLine();
+            updateMarkers();
+            map.invalidate();
+        }
+
+        public void onViewportChanged() {
+            readViewport();
+            updateMarkers();
             map.invalidate();
         }
 
         public void dispose() {
-            for (Marker marker : markers) {
+            for (Polyline chunk : chunks) {
+                map.getOverlays().remove(chunk);
+            }
+            chunks.clear();
+            if (closingLine != null) {
+                map.getOverlays().remove(closingLine);
+                closingLine = null;
+            }
+            for (Marker marker : markers.values()) {
                 map.getOverlays().remove(marker);
             }
             markers.clear();
-            update();
+            markerIndexes.clear();
+            points.clear();
+            map.invalidate();
         }
 
         public List<MapPoint> getPoints() {
-            List<MapPoint> points = new ArrayList<>();
-            for (Marker marker : markers) {
-                points.add(fromGeoPoint(
-                    marker.getPosition(), Double.valueOf(marker.getSubDescription())));
-            }
-            return points;
+            return new ArrayList<>(points);
         }
 
         public void addPoint(MapPoint point) {
-            addMarker(point);
-            update();
+            points.add(point);
+            int index = points.size() - 1;
+            int chunk = getChunkCount(points.size()) - 1;
+            if (chunk == chunks.size()) {
+                addChunk();
+            }
+            drawChunk(chunk);
+            drawClosingLine();
+
+            int previous = selectedIndex;
+            selectedIndex = index;
+            if (showAllMarkersInView && isInView(point) && ++visibleCount > MAX_VISIBLE_MARKERS) {
+                // Too many vertices in view to drag them individually; keep only the selected one.
+                updateMarkers();
+            } else {
+                addMarker(index);
+                if (previous >= 0 && !shouldHaveMarker(previous)) {
+                    removeMarker(previous);
+                }
+            }
+            map.invalidate();
+        }
+
+        /** Chunk i draws vertices i * CHUNK_SIZE through (i + 1) * CHUNK_SIZE, inclusive. */
+        static int getChunkCount(int vertexCount) {
+            return vertexCount <= 1 ? 1 : (vertexCount - 2) / CHUNK_SIZE + 1;
         }
 
-        protected void addMarker(MapPoint point) {
-            // A Marker's position is a GeoPoint with latitude, longitude, and
-            // altitude fields.  We need to store the standard deviation value
-            // somewhere, so it goes in the marker's sub-description field.
+        protected Polyline createPolyline() {
+            Polyline polyline = new Polyline();
+            polyline.setColor(Color.RED);
+            Paint paint = polyline.getPaint();
+            paint.setStrokeWidth(STROKE_WIDTH);
+            return polyline;
+        }
+
+        protected void addChunk() {
+            Polyline polyline = createPolyline();
+            // Keep the lines below the markers, which were added after the previous chunk.
+            int position = chunks.isEmpty() ? -1 : map.getOverlays().indexOf(chunks.get(chunks.size() - 1));
+            if (position >= 0) {
+                map.getOverlays().add(position + 1, polyline);
+            } else {
+                map.getOverlays().add(polyline);
+            }
+            chunks.add(polyline);
+        }
+
+        protected void drawChunk(int chunk) {
+            int start = chunk * CHUNK_SIZE;
+            int end = Math.min(start + CHUNK_SIZE, points.size() - 1);
+            boolean[] keep = null;
+            if (end - start == CHUNK_SIZE && toleranceMeters > 0) {
+                keep = PolylineSimplifier.simplify(points, start, end, toleranceMeters);
+            }
+
+            List<GeoPoint> geoPoints = new ArrayList<>();
+            for (int i = start; i <= end; i++) {
+                if (keep == null || keep[i - start]) {
+                    geoPoints.add(toGeoPoint(points.get(i)));
+                }
+            }
+            chunks.get(chunk).setPoints(geoPoints);
+        }
+
+        protected void drawClosingLine() {
+            if (closingLine != null) {
+                List<GeoPoint> geoPoints = new ArrayList<>();
+                if (points.size() > 1) {
+                    geoPoints.add(toGeoPoint(points.get(points.size() - 1)));
+                    geoPoints.add(toGeoPoint(points.get(0)));
+                }
+                closingLine.setPoints(geoPoints);
+            }
+        }
+
+        /** Redraws the chunks that contain the given vertex, e.g. after it was dragged. */
+        protected void redrawVertex(int index) {
+            int last = chunks.size() - 1;
+            int before = Math.min(Math.max(index - 1, 0) / CHUNK_SIZE, last);
+            int after = Math.min(index / CHUNK_SIZE, last);
+            drawChunk(before);
+            if (after != before) {
+                drawChunk(after);
+            }
+            drawClosingLine();
+            map.invalidate();
+        }
+
+        /**
+         * Reads the visible area of the map.  Complete chunks are redrawn when the
+         * zoom level has changed enough for the simplification tolerance to matter.
+         */
+        protected void readViewport() {
+            if (map.getWidth() <= 0 || map.getHeight() <= 0) {
+                viewport = null;
+                return;
+            }
+            viewport = map.getBoundingBox();
+
+            double tolerance = (viewport.getLatNorth() - viewport.getLatSouth()) * METERS_PER_DEGREE / map.getHeight();
+            if (tolerance > toleranceMeters * 1.5 || tolerance < toleranceMeters / 1.5) {
+                toleranceMeters = tolerance;
+                for (int chunk = 0; chunk < chunks.size(); chunk++) {
+                    drawChunk(chunk);
+                }
+            }
+        }
+
+        protected boolean isInView(MapPoint point) {
+            if (viewport == null) {
+                return true;
+            }
+            if (point.lat > viewport.getLatNorth() || point.lat < viewport.getLatSouth()) {
+                return false;
+            }
+            if (viewport.getLonWest() <= viewport.getLonEast()) {
+                return point.lon >= viewport.getLonWest() && point.lon <= viewport.getLonEast();
+            }
+            // The viewport crosses the antimeridian.
+            return point.lon >= viewport.getLonWest() || point.lon <= viewport.getLonEast();
+        }
+
+        protected boolean shouldHaveMarker(int index) {
+            return index == selectedIndex || (showAllMarkersInView && isInView(points.get(index)));
+        }
+
+        /** Adds and removes markers so that only the vertices that should have one do. */
+        protected void updateMarkers() {
+            visibleCount = 0;
+            for (MapPoint point : points) {
+                if (isInView(point)) {
+                    visibleCount++;
+                }
+            }
+            showAllMarkersInView = visibleCount <= MAX_VISIBLE_MARKERS;
+
+            for (Integer index : new ArrayList<>(markers.keySet())) {
+                if (index >= points.size() || !shouldHaveMarker(index)) {
+                    removeMarker(index);
+                }
+            }
+            if (showAllMarkersInView) {
+                for (int i = 0; i < points.size(); i++) {
+                    if (!markers.containsKey(i) && isInView(points.get(i))) {
+                        addMarker(i);
+                    }
+                }
+            }
+            if (selectedIndex >= 0 && selectedIndex < points.size() && !markers.containsKey(selectedIndex)) {
+                addMarker(selectedIndex);
+            }
+        }
+
+        protected void addMarker(int index) {
             Marker marker = new Marker(map);
-            marker.setPosition(toGeoPoint(point));
-            marker.setSubDescription(Double.toString(point.sd));
+            marker.setPosition(toGeoPoint(points.get(index)));
             marker.setDraggable(true);
             marker.setIcon(ContextCompat.getDrawable(map.getContext(), R.drawable.ic_place_black));
             marker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
             marker.setOnMarkerClickListener(this);
             marker.setOnMarkerDragListener(this);
             map.getOverlays().add(marker);
-            markers.add(marker);
+            markers.put(index, marker);
+            markerIndexes.put(marker, index);
+        }
+
+        protected void removeMarker(int index) {
+            Marker marker = markers.remove(index);
+            if (marker != null) {
+                markerIndexes.remove(marker);
+                map.getOverlays().remove(marker);
+            }
         }
 
         @Override public void onMarkerDragStart(Marker marker) {
         }
 
         @Override public void onMarkerDragEnd(Marker marker) {
-            update();
+            onMarkerDrag(marker);
+            updateMarkers();
         }
 
         @Override public void onMarkerDrag(Marker marker) {
+            Integer index = markerIndexes.get(marker);
+            if (index == null) {
+                return;
+            }
             // When a marker is manually dragged, the position is no longer
             // obtained from a GPS reading, so the standard deviation field
             // is no longer meaningful; reset it to zero.
-            marker.setSubDescription("0");
-            update();
+            points.set(index, fromGeoPoint(marker.getPosition(), 0));
+            selectedIndex = index;
+            redrawVertex(index);
         }
 
         @Override public boolean onMarkerClick(Marker marker, MapView map) {
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.odk.collect.android.map;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Simplifies polylines with the Douglas-Peucker algorithm.  Distances are
+ * measured in meters on a local equirectangular projection, which is accurate
+ * enough at the scale of a single trace.  The work is done with an explicit
+ * stack so that long traces can't overflow the call stack.
+ */
+public final class PolylineSimplifier {
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private PolylineSimplifier() {
+    }
+
+    /**
+     * Returns which vertices of points[start..end] (inclusive) to keep so that
+     * no dropped vertex is farther than toleranceMeters from the simplified
+     * line.  The first and last vertices are always kept.  The result is
+     * indexed from start, i.e. keep[0] corresponds to points.get(start).
+     */
+    public static boolean[] simplify(List<MapPoint> points, int start, int end, double toleranceMeters) {
+        boolean[] keep = new boolean[end - start + 1];
+        keep[0] = true;
+        keep[keep.length - 1] = true;
+        if (end - start < 2) {
+            return keep;
+        }
+
+        // Project to meters around the first vertex.
+        double lat0 = points.get(start).lat;
+        double lon0 = points.get(start).lon;
+        double lonScale = Math.cos(Math.toRadians(lat0)) * METERS_PER_DEGREE;
+        double[] x = new double[keep.length];
+        double[] y = new double[keep.length];
+        for (int i = 0; i < keep.length; i++) {
+            MapPoint point = points.get(start + i);
+            x[i] = (point.lon - lon0) * lonScale;
+            y[i] = (point.lat - lat0) * METERS_PER_DEGREE;
+        }
+
+        double toleranceSquared = toleranceMeters * toleranceMeters;
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] {0, keep.length - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int first = range[0];
+            int last = range[1];
+
+            int farthest = -1;
+            double maxDistanceSquared = toleranceSquared;
+            for (int i = first + 1; i < last; i++) {
+                double distanceSquared = getSegmentDistanceSquared(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (distanceSquared > maxDistanceSquared) {
+                    maxDistanceSquared = distanceSquared;
+                    farthest = i;
+                }
+            }
+
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                if (farthest - first > 1) {
+                    ranges.push(new int[] {first, farthest});
+                }
+                if (last - farthest > 1) {
+                    ranges.push(new int[] {farthest, last});
+                }
+            }
+        }
+        return keep;
+    }
+
+    /** Gets the squared distance from (px, py) to the segment from (ax, ay) to (bx, by). */
+    static double getSegmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+}
@@ -32,12 +32,15 @@ import org.odk.collect.android.database.ItemsetDbAdapter;
 import org.odk.collect.android.database.helpers.FormsDatabaseHelper;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.MediaUtils;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -205,6 +208,7 @@ public class FormsProvider extends ContentProvider {
             }
             String md5 = FileUtils.getMd5Hash(form);
             values.put(FormsColumns.MD5_HASH, md5);
+            putFileSignature(values, form);
 
             if (!values.containsKey(FormsColumns.JRCACHE_FILE_PATH)) {
                 String cachePath = Collect.CACHE_PATH + File.separator + md5
@@ -252,6 +256,14 @@ public class FormsProvider extends ContentProvider {
         throw new SQLException("Failed to insert row into " + uri);
     }
 
+    /**
+     * Records the size and last modified date of the form file along with its hash.
+     */
+    private static void putFileSignature(ContentValues values, File formFile) {
+        values.put(FormsColumns.FORM_FILE_SIZE, formFile.length());
+        values.put(FormsColumns.FORM_FILE_LAST_MODIFIED, formFile.lastModified());
+    }
+
     private void deleteFileOrDir(String fileName) {
         File file = new File(fileName);
         if (file.exists()) {
@@ -283,6 +295,51 @@ public class FormsProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Deletes the cached FormDef of a form along with the key file that maps the form file to it.
+     */
+    private void deleteCacheFiles(String cacheFilePath, String formFilePath) {
+        deleteFileOrDir(cacheFilePath);
+        if (formFilePath != null) {
+            FormDefCache.deleteKey(new File(formFilePath));
+        }
+    }
+
+    /**
+     * Deletes the files of the forms matching the selection and then the forms themselves. The
+     * media provider entries of all the media directories are removed at once and the directories
+     * are deleted in parallel.
+     */
+    private int deleteForms(SQLiteDatabase db, String where, String[] whereArgs) {
+        List<File> mediaDirs = new ArrayList<>();
+        Cursor del = db.query(FORMS_TABLE_NAME, new String[] {FormsColumns.JRCACHE_FILE_PATH,
+                FormsColumns.FORM_FILE_PATH, FormsColumns.FORM_MEDIA_PATH}, where, whereArgs, null, null, null);
+        try {
+            while (del.moveToNext()) {
+                deleteCacheFiles(del.getString(0), del.getString(1));
+                deleteFileOrDir(del.getString(1));
+
+                File formMediaDir = new File(del.getString(2));
+                if (formMediaDir.isDirectory()) {
+                    mediaDirs.add(formMediaDir);
+                } else {
+                    deleteFileOrDir(formMediaDir.getAbsolutePath());
+                }
+            }
+        } finally {
+            del.close();
+        }
+
+        int media = MediaUtils.deleteMediaInFoldersFromMediaProvider(mediaDirs);
+        long bytesFreed = FileUtils.deleteDirectoriesInParallel(mediaDirs);
+
+        int count = db.delete(FORMS_TABLE_NAME, where, whereArgs);
+        Timber.i("Deleted %d forms: removed %d media files from content providers and freed %d bytes"
+                + " of media.", count, media, bytesFreed);
+
+        return count;
+    }
+
     /**
      * This method removes the entry from the content provider, and also removes
      * any associated files. files: form.xml, [formmd5].formdef, formname-media
@@ -300,28 +357,7 @@ public class FormsProvider extends ContentProvider {
 
             switch (URI_MATCHER.match(uri)) {
                 case FORMS:
-                    Cursor del = null;
-                    try {
-                        del = this.query(uri, null, where, whereArgs, null);
-                        if (del != null && del.getCount() > 0) {
-                            del.moveToFirst();
-                            do {
-                                deleteFileOrDir(del
-                                        .getString(del
-                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
-                                String formFilePath = del.getString(del
-                                        .getColumnIndex(FormsColumns.FORM_FILE_PATH));
-                                deleteFileOrDir(formFilePath);
-                                deleteFileOrDir(del.getString(del
-                                        .getColumnIndex(FormsColumns.FORM_MEDIA_PATH)));
-                            } while (del.moveToNext());
-                        }
-                    } finally {
-                        if (del != null) {
-                            del.close();
-                        }
-                    }
-                    count = db.delete(FORMS_TABLE_NAME, where, whereArgs);
+                    count = deleteForms(db, where, whereArgs);
                     break;
 
                 case FORM_ID:
@@ -334,10 +370,10 @@ public class FormsProvider extends ContentProvider {
                         if (c != null && c.getCount() > 0) {
                             c.moveToFirst();
                             do {
-                                deleteFileOrDir(c.getString(c
-                                        .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
                                 String formFilePath = c.getString(c
                                         .getColumnIndex(FormsColumns.FORM_FILE_PATH));
+                                deleteCacheFiles(c.getString(c
+                                        .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)), formFilePath);
                                 deleteFileOrDir(formFilePath);
                                 deleteFileOrDir(c.getString(c
                                         .getColumnIndex(FormsColumns.FORM_MEDIA_PATH)));
@@ -407,6 +443,7 @@ public class FormsProvider extends ContentProvider {
                                 .getAsString(FormsColumns.FORM_FILE_PATH);
                         values.put(FormsColumns.MD5_HASH,
                                 FileUtils.getMd5Hash(new File(formFile)));
+                        putFileSignature(values, new File(formFile));
                     }
 
                     Cursor c = null;
@@ -429,9 +466,9 @@ public class FormsProvider extends ContentProvider {
 
                                     // either way, delete the old cache because we'll
                                     // calculate a new one.
-                                    deleteFileOrDir(c
+                                    deleteCacheFiles(c
                                             .getString(c
-                                                    .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+                                                    .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)), delFile);
                                 }
                             }
                         }
@@ -475,9 +512,11 @@ public class FormsProvider extends ContentProvider {
                             // because we update the jrcache file if there's a new form
                             // file
                             if (values.containsKey(FormsColumns.JRCACHE_FILE_PATH)) {
-                                deleteFileOrDir(update
+                                deleteCacheFiles(update
                                         .getString(update
-                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)),
+                                        update.getString(update
+                                                .getColumnIndex(FormsColumns.FORM_FILE_PATH)));
                             }
 
                             if (values.containsKey(FormsColumns.FORM_FILE_PATH)) {
@@ -492,12 +531,13 @@ public class FormsProvider extends ContentProvider {
 
                                 // we're updating our file, so update the md5
                                 // and get rid of the cache (doesn't harm anything)
-                                deleteFileOrDir(update
+                                deleteCacheFiles(update
                                         .getString(update
-                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)), oldFile);
                                 String newMd5 = FileUtils
                                         .getMd5Hash(new File(formFile));
                                 values.put(FormsColumns.MD5_HASH, newMd5);
+                                putFileSignature(values, new File(formFile));
                                 values.put(FormsColumns.JRCACHE_FILE_PATH,
                                         Collect.CACHE_PATH + File.separator + newMd5
                                                 + ".formdef");
@@ -579,5 +619,7 @@ public class FormsProvider extends ContentProvider {
         sFormsProjectionMap.put(FormsColumns.AUTO_DELETE, FormsColumns.AUTO_DELETE);
         sFormsProjectionMap.put(FormsColumns.AUTO_SEND, FormsColumns.AUTO_SEND);
         sFormsProjectionMap.put(FormsColumns.LAST_DETECTED_FORM_VERSION_HASH, FormsColumns.LAST_DETECTED_FORM_VERSION_HASH);
+        sFormsProjectionMap.put(FormsColumns.FORM_FILE_SIZE, FormsColumns.FORM_FILE_SIZE);
+        sFormsProjectionMap.put(FormsColumns.FORM_FILE_LAST_MODIFIED, FormsColumns.FORM_FILE_LAST_MODIFIED);
     }
 }
@@ -73,6 +73,10 @@ public final class FormsProviderAPI {
         public static final String DATE = "date";
         public static final String JRCACHE_FILE_PATH = "jrcacheFilePath";
         public static final String FORM_MEDIA_PATH = "formMediaPath";
+        // size and last modified date of the form file when MD5_HASH was computed, so that the
+        // file only gets hashed again once they change
+        public static final String FORM_FILE_SIZE = "formFileSize";
+        public static final String FORM_FILE_LAST_MODIFIED = "formFileLastModified";
 
         // this is null on create, and can only be set on an update.
         public static final String LANGUAGE = "language";
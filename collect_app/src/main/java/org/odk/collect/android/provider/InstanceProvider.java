@@ -23,6 +23,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
@@ -30,24 +31,31 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.helpers.InstancesDatabaseHelper;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.provider.InstanceProviderAPI.OutboxColumns;
+import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.MediaUtils;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import timber.log.Timber;
 
 import static org.odk.collect.android.database.helpers.InstancesDatabaseHelper.INSTANCES_TABLE_NAME;
+import static org.odk.collect.android.database.helpers.InstancesDatabaseHelper.OUTBOX_TABLE_NAME;
 import static org.odk.collect.android.utilities.PermissionUtils.areStoragePermissionsGranted;
 
 public class InstanceProvider extends ContentProvider {
     private static HashMap<String, String> sInstancesProjectionMap;
+    private static HashMap<String, String> sOutboxProjectionMap;
 
     private static final int INSTANCES = 1;
     private static final int INSTANCE_ID = 2;
+    private static final int OUTBOX = 3;
 
     private static final UriMatcher URI_MATCHER;
 
@@ -101,6 +109,12 @@ public class InstanceProvider extends ContentProvider {
                 qb.appendWhere(InstanceColumns._ID + "=" + uri.getPathSegments().get(1));
                 break;
 
+            case OUTBOX:
+                qb.setTables(OUTBOX_TABLE_NAME + " INNER JOIN " + INSTANCES_TABLE_NAME + " ON "
+                        + OutboxColumns.INSTANCE_ID + " = " + INSTANCES_TABLE_NAME + "." + InstanceColumns._ID);
+                qb.setProjectionMap(sOutboxProjectionMap);
+                break;
+
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -126,6 +140,9 @@ public class InstanceProvider extends ContentProvider {
             case INSTANCE_ID:
                 return InstanceColumns.CONTENT_ITEM_TYPE;
 
+            case OUTBOX:
+                return OutboxColumns.CONTENT_TYPE;
+
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -134,7 +151,8 @@ public class InstanceProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues initialValues) {
         // Validate the requested uri
-        if (URI_MATCHER.match(uri) != INSTANCES) {
+        int match = URI_MATCHER.match(uri);
+        if (match != INSTANCES && match != OUTBOX) {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
@@ -142,37 +160,109 @@ public class InstanceProvider extends ContentProvider {
             return null;
         }
 
+        if (match == OUTBOX) {
+            return insertIntoOutbox(uri, initialValues);
+        }
+
         InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
         if (instancesDatabaseHelper != null) {
-            ContentValues values;
-            if (initialValues != null) {
-                values = new ContentValues(initialValues);
-            } else {
-                values = new ContentValues();
+            long rowId = instancesDatabaseHelper.getWritableDatabase().insert(INSTANCES_TABLE_NAME, null,
+                    getValuesToInsert(initialValues));
+            if (rowId > 0) {
+                Uri instanceUri = ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, rowId);
+                getContext().getContentResolver().notifyChange(instanceUri, null);
+                return instanceUri;
             }
+        }
 
-            Long now = System.currentTimeMillis();
+        throw new SQLException("Failed to insert row into " + uri);
+    }
 
-            // Make sure that the fields are all set
-            if (!values.containsKey(InstanceColumns.LAST_STATUS_CHANGE_DATE)) {
-                values.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, now);
+    /**
+     * Inserts all the instances in a single transaction and notifies observers once, rather than
+     * once per instance.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (URI_MATCHER.match(uri) != INSTANCES) {
+            return super.bulkInsert(uri, values);
+        }
+
+        if (!areStoragePermissionsGranted(getContext())) {
+            return 0;
+        }
+
+        int count = 0;
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (instancesDatabaseHelper != null) {
+            SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (ContentValues initialValues : values) {
+                    if (db.insert(INSTANCES_TABLE_NAME, null, getValuesToInsert(initialValues)) > 0) {
+                        count++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
 
-            if (!values.containsKey(InstanceColumns.DISPLAY_SUBTEXT)) {
-                Date today = new Date();
-                String text = getDisplaySubtext(InstanceProviderAPI.STATUS_INCOMPLETE, today);
-                values.put(InstanceColumns.DISPLAY_SUBTEXT, text);
+            if (count > 0) {
+                getContext().getContentResolver().notifyChange(uri, null);
             }
+        }
 
-            if (!values.containsKey(InstanceColumns.STATUS)) {
-                values.put(InstanceColumns.STATUS, InstanceProviderAPI.STATUS_INCOMPLETE);
+        return count;
+    }
+
+    /**
+     * Returns a copy of the given values with the fields that must be set filled in.
+     */
+    private ContentValues getValuesToInsert(ContentValues initialValues) {
+        ContentValues values;
+        if (initialValues != null) {
+            values = new ContentValues(initialValues);
+        } else {
+            values = new ContentValues();
+        }
+
+        Long now = System.currentTimeMillis();
+
+        // Make sure that the fields are all set
+        if (!values.containsKey(InstanceColumns.LAST_STATUS_CHANGE_DATE)) {
+            values.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, now);
+        }
+
+        if (!values.containsKey(InstanceColumns.DISPLAY_SUBTEXT)) {
+            Date today = new Date();
+            String text = getDisplaySubtext(InstanceProviderAPI.STATUS_INCOMPLETE, today);
+            values.put(InstanceColumns.DISPLAY_SUBTEXT, text);
+        }
+
+        if (!values.containsKey(InstanceColumns.STATUS)) {
+            values.put(InstanceColumns.STATUS, InstanceProviderAPI.STATUS_INCOMPLETE);
+        }
+
+        return values;
+    }
+
+    /**
+     * Queues an instance, replacing its previous entry and the state of its attempts if any.
+     */
+    private Uri insertIntoOutbox(Uri uri, ContentValues initialValues) {
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (instancesDatabaseHelper != null) {
+            ContentValues values = new ContentValues(initialValues);
+            if (!values.containsKey(OutboxColumns.ENQUEUED_DATE)) {
+                values.put(OutboxColumns.ENQUEUED_DATE, System.currentTimeMillis());
             }
 
-            long rowId = instancesDatabaseHelper.getWritableDatabase().insert(INSTANCES_TABLE_NAME, null, values);
+            long rowId = instancesDatabaseHelper.getWritableDatabase().insertWithOnConflict(
+                    OUTBOX_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
             if (rowId > 0) {
-                Uri instanceUri = ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, rowId);
-                getContext().getContentResolver().notifyChange(instanceUri, null);
-                return instanceUri;
+                getContext().getContentResolver().notifyChange(uri, null);
+                return ContentUris.withAppendedId(uri, rowId);
             }
         }
 
@@ -234,6 +324,91 @@ public class InstanceProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Deletes the files of the instances matching the selection and then the instances themselves
+     * in a single transaction, so that an interrupted deletion never leaves files behind without
+     * their rows. The media provider entries of all the instances are removed at once and the
+     * instance directories are deleted in parallel.
+     *
+     * @return the {@link InstanceProviderAPI#RESULT_DELETED_COUNT} and the
+     * {@link InstanceProviderAPI#RESULT_BYTES_FREED}
+     */
+    private Bundle deleteInstances(SQLiteDatabase db, String where, String[] whereArgs, boolean keepSubmitted) {
+        List<File> instanceDirs = new ArrayList<>();
+        Cursor c = db.query(INSTANCES_TABLE_NAME, new String[] {InstanceColumns.INSTANCE_FILE_PATH},
+                where, whereArgs, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                instanceDirs.add(new File(c.getString(0)).getParentFile());
+            }
+        } finally {
+            c.close();
+        }
+
+        List<File> dirsToEmpty = new ArrayList<>();
+        for (File instanceDir : instanceDirs) {
+            // do not delete the directory if it might be an
+            // ODK Tables instance data directory. Let ODK Tables
+            // manage the lifetimes of its filled-in form data
+            // media attachments.
+            if (instanceDir.isDirectory() && !Collect.isODKTablesInstanceDataDirectory(instanceDir)) {
+                dirsToEmpty.add(instanceDir);
+            } else {
+                instanceDir.delete();
+            }
+        }
+
+        int media = MediaUtils.deleteMediaInFoldersFromMediaProvider(dirsToEmpty);
+        long bytesFreed = FileUtils.deleteDirectoriesInParallel(dirsToEmpty);
+
+        int count;
+        db.beginTransaction();
+        try {
+            if (keepSubmitted) {
+                //We are going to update the status, if the form is submitted
+                //We will not delete the record in table but we will delete the file
+                ContentValues cv = new ContentValues();
+                Long now = System.currentTimeMillis();
+                cv.put(InstanceColumns.DELETED_DATE, now);
+                cv.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, now);
+
+                count = db.update(INSTANCES_TABLE_NAME, cv,
+                        withStatus(where, "=?"), withStatus(whereArgs));
+                count += db.delete(INSTANCES_TABLE_NAME,
+                        withStatus(where, " IS NOT ?"), withStatus(whereArgs));
+            } else {
+                count = db.delete(INSTANCES_TABLE_NAME, where, whereArgs);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Timber.i("Deleted %d instances: removed %d media files from content providers and freed %d bytes.",
+                count, media, bytesFreed);
+
+        Bundle result = new Bundle();
+        result.putInt(InstanceProviderAPI.RESULT_DELETED_COUNT, count);
+        result.putLong(InstanceProviderAPI.RESULT_BYTES_FREED, bytesFreed);
+        return result;
+    }
+
+    private static String withStatus(String where, String statusCondition) {
+        return InstanceColumns.STATUS + statusCondition
+                + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : "");
+    }
+
+    private static String[] withStatus(String[] whereArgs) {
+        if (whereArgs == null || whereArgs.length == 0) {
+            return new String[] {InstanceProviderAPI.STATUS_SUBMITTED};
+        }
+        String[] newWhereArgs = new String[whereArgs.length + 1];
+        newWhereArgs[0] = InstanceProviderAPI.STATUS_SUBMITTED;
+        System.arraycopy(whereArgs, 0, newWhereArgs, 1, whereArgs.length);
+        return newWhereArgs;
+    }
+
     /**
      * This method removes the entry from the content provider, and also removes any associated
      * files.
@@ -251,24 +426,9 @@ public class InstanceProvider extends ContentProvider {
 
             switch (URI_MATCHER.match(uri)) {
                 case INSTANCES:
-                    Cursor del = null;
-                    try {
-                        del = this.query(uri, null, where, whereArgs, null);
-                        if (del != null && del.getCount() > 0) {
-                            del.moveToFirst();
-                            do {
-                                String instanceFile = del.getString(
-                                        del.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                                File instanceDir = (new File(instanceFile)).getParentFile();
-                                deleteAllFilesInDirectory(instanceDir);
-                            } while (del.moveToNext());
-                        }
-                    } finally {
-                        if (del != null) {
-                            del.close();
-                        }
-                    }
-                    count = db.delete(INSTANCES_TABLE_NAME, where, whereArgs);
+                    count = deleteInstances(db, where, whereArgs,
+                            uri.getBooleanQueryParameter(InstanceProviderAPI.KEEP_SUBMITTED, false))
+                            .getInt(InstanceProviderAPI.RESULT_DELETED_COUNT);
                     break;
 
                 case INSTANCE_ID:
@@ -319,6 +479,10 @@ public class InstanceProvider extends ContentProvider {
                     }
                     break;
 
+                case OUTBOX:
+                    count = db.delete(OUTBOX_TABLE_NAME, where, whereArgs);
+                    break;
+
                 default:
                     throw new IllegalArgumentException("Unknown URI " + uri);
             }
@@ -329,6 +493,39 @@ public class InstanceProvider extends ContentProvider {
         return count;
     }
 
+    /**
+     * Handles {@link InstanceProviderAPI#DELETE_INSTANCES}, which reports the bytes freed along
+     * with the number of instances deleted.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (!InstanceProviderAPI.DELETE_INSTANCES.equals(method) || extras == null) {
+            return super.call(method, arg, extras);
+        }
+
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (!areStoragePermissionsGranted(getContext()) || instancesDatabaseHelper == null) {
+            return null;
+        }
+
+        long[] ids = extras.getLongArray(InstanceProviderAPI.EXTRA_INSTANCE_IDS);
+        if (ids == null || ids.length == 0) {
+            return null;
+        }
+        StringBuilder selection = new StringBuilder(InstanceColumns._ID + " IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = Long.toString(ids[i]);
+        }
+        selection.append(')');
+
+        Bundle result = deleteInstances(instancesDatabaseHelper.getWritableDatabase(),
+                selection.toString(), selectionArgs, true);
+        getContext().getContentResolver().notifyChange(InstanceColumns.CONTENT_URI, null);
+        return result;
+    }
+
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String where, String[] whereArgs) {
         if (!areStoragePermissionsGranted(getContext())) {
@@ -339,6 +536,12 @@ public class InstanceProvider extends ContentProvider {
         if (instancesDatabaseHelper != null) {
             SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
 
+            if (URI_MATCHER.match(uri) == OUTBOX) {
+                count = db.update(OUTBOX_TABLE_NAME, values, where, whereArgs);
+                getContext().getContentResolver().notifyChange(uri, null);
+                return count;
+            }
+
             Long now = System.currentTimeMillis();
 
             // Make sure that the fields are all set
@@ -407,6 +610,7 @@ public class InstanceProvider extends ContentProvider {
         URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
         URI_MATCHER.addURI(InstanceProviderAPI.AUTHORITY, "instances", INSTANCES);
         URI_MATCHER.addURI(InstanceProviderAPI.AUTHORITY, "instances/#", INSTANCE_ID);
+        URI_MATCHER.addURI(InstanceProviderAPI.AUTHORITY, "outbox", OUTBOX);
 
         sInstancesProjectionMap = new HashMap<>();
         sInstancesProjectionMap.put(InstanceColumns._ID, InstanceColumns._ID);
@@ -424,5 +628,15 @@ public class InstanceProvider extends ContentProvider {
         sInstancesProjectionMap.put(InstanceColumns.DISPLAY_SUBTEXT,
                 InstanceColumns.DISPLAY_SUBTEXT);
         sInstancesProjectionMap.put(InstanceColumns.DELETED_DATE, InstanceColumns.DELETED_DATE);
+
+        sOutboxProjectionMap = new HashMap<>(sInstancesProjectionMap);
+        sOutboxProjectionMap.put(InstanceColumns._ID, INSTANCES_TABLE_NAME + "." + InstanceColumns._ID
+                + " AS " + InstanceColumns._ID);
+        sOutboxProjectionMap.put(OutboxColumns.INSTANCE_ID, OutboxColumns.INSTANCE_ID);
+        sOutboxProjectionMap.put(OutboxColumns.PRIORITY, OutboxColumns.PRIORITY);
+        sOutboxProjectionMap.put(OutboxColumns.ATTEMPTS, OutboxColumns.ATTEMPTS);
+        sOutboxProjectionMap.put(OutboxColumns.NEXT_ATTEMPT_DATE, OutboxColumns.NEXT_ATTEMPT_DATE);
+        sOutboxProjectionMap.put(OutboxColumns.LAST_ERROR, OutboxColumns.LAST_ERROR);
+        sOutboxProjectionMap.put(OutboxColumns.ENQUEUED_DATE, OutboxColumns.ENQUEUED_DATE);
     }
 }
@@ -35,6 +35,22 @@ public final class InstanceProviderAPI {
     public static final String STATUS_SUBMITTED = "submitted";
     public static final String STATUS_SUBMISSION_FAILED = "submissionFailed";
 
+    /**
+     * Query parameter for deleting from {@link InstanceColumns#CONTENT_URI} the way deleting a
+     * single instance does: the records of submitted instances are kept and marked as deleted.
+     */
+    public static final String KEEP_SUBMITTED = "keepSubmitted";
+
+    /**
+     * Method of {@link android.content.ContentProvider#call} that deletes the instances whose ids
+     * are in {@link #EXTRA_INSTANCE_IDS} the way {@link #KEEP_SUBMITTED} does. The result holds
+     * the {@link #RESULT_DELETED_COUNT} and the {@link #RESULT_BYTES_FREED} by their files.
+     */
+    public static final String DELETE_INSTANCES = "deleteInstances";
+    public static final String EXTRA_INSTANCE_IDS = "instanceIds";
+    public static final String RESULT_DELETED_COUNT = "deletedCount";
+    public static final String RESULT_BYTES_FREED = "bytesFreed";
+
     /**
      * Notes table
      */
@@ -69,4 +85,24 @@ public final class InstanceProviderAPI {
         //        public static final String CREATED_DATE = "created";
         //        public static final String MODIFIED_DATE = "modified";
     }
+
+    /**
+     * Finalized instances waiting to be auto-sent, with the state of their previous attempts.
+     * Queries return the columns of the instances too.
+     */
+    public static final class OutboxColumns {
+        // This class cannot be instantiated
+        private OutboxColumns() {
+        }
+
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/outbox");
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.odk.outbox";
+
+        public static final String INSTANCE_ID = "instanceId";
+        public static final String PRIORITY = "priority";
+        public static final String ATTEMPTS = "attempts";
+        public static final String NEXT_ATTEMPT_DATE = "nextAttemptDate";
+        public static final String LAST_ERROR = "lastError";
+        public static final String ENQUEUED_DATE = "enqueuedDate";
+    }
 }
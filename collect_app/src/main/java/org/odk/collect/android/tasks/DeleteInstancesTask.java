@@ -15,21 +15,30 @@
 package org.odk.collect.android.tasks;
 
 import android.content.ContentResolver;
-import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Bundle;
 
 import org.odk.collect.android.listeners.DeleteInstancesListener;
+import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 
+import java.util.Arrays;
+
 import timber.log.Timber;
 
 /**
  * Task responsible for deleting selected instances.
  *
+ * The instances are deleted {@link #BATCH_SIZE} at a time, each batch with a single call that
+ * the provider runs in one transaction. Progress is reported as the number of instances deleted
+ * and the number of bytes the provider freed deleting their files.
+ *
  * @author norman86@gmail.com
  * @author mitchellsundt@gmail.com
  */
-public class DeleteInstancesTask extends AsyncTask<Long, Integer, Integer> {
+public class DeleteInstancesTask extends AsyncTask<Long, Long, Integer> {
+
+    private static final int BATCH_SIZE = 100;
 
     private ContentResolver contentResolver;
     private DeleteInstancesListener deleteInstancesListener;
@@ -47,34 +56,45 @@ public class DeleteInstancesTask extends AsyncTask<Long, Integer, Integer> {
 
         toDeleteCount = params.length;
 
-        // delete files from database and then from file system
-        for (Long param : params) {
-            if (isCancelled()) {
-                break;
+        final long start = System.currentTimeMillis();
+
+        // the provider deletes the files of the instances and then their rows
+        long bytesFreed = 0;
+        for (int from = 0; from < params.length && !isCancelled(); from += BATCH_SIZE) {
+            long[] ids = new long[Math.min(BATCH_SIZE, params.length - from)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = params[from + i];
             }
             try {
-                Uri deleteForm =
-                        Uri.withAppendedPath(InstanceColumns.CONTENT_URI, param.toString());
-
-                int wasDeleted = contentResolver.delete(deleteForm, null, null);
-                deleted += wasDeleted;
-
-                successCount++;
-                publishProgress(successCount, toDeleteCount);
-
+                Bundle extras = new Bundle();
+                extras.putLongArray(InstanceProviderAPI.EXTRA_INSTANCE_IDS, ids);
+                Bundle result = contentResolver.call(InstanceColumns.CONTENT_URI,
+                        InstanceProviderAPI.DELETE_INSTANCES, null, extras);
+                if (result != null) {
+                    deleted += result.getInt(InstanceProviderAPI.RESULT_DELETED_COUNT);
+                    bytesFreed += result.getLong(InstanceProviderAPI.RESULT_BYTES_FREED);
+                }
+
+                successCount = deleted;
+                publishProgress((long) successCount, (long) toDeleteCount, bytesFreed);
             } catch (Exception ex) {
-                Timber.e("Exception during delete of: %s exception: %s", param.toString(), ex.toString());
+                Timber.e("Exception during delete of: %s exception: %s", Arrays.toString(ids), ex.toString());
             }
         }
+
+        Timber.i("Deleted %d instances (%d bytes) in %.3f seconds.", deleted, bytesFreed,
+                (System.currentTimeMillis() - start) / 1000F);
+
         successCount = deleted;
         return deleted;
     }
 
     @Override
-    protected void onProgressUpdate(Integer... values) {
+    protected void onProgressUpdate(Long... values) {
         synchronized (this) {
             if (deleteInstancesListener != null) {
-                deleteInstancesListener.progressUpdate(values[0], values[1]);
+                deleteInstancesListener.progressUpdate(values[0].intValue(), values[1].intValue(),
+                        values[2]);
             }
         }
     }
@@ -23,17 +23,21 @@ import android.os.AsyncTask;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.external.ExternalDataPreparationWorker;
+import org.odk.collect.android.external.ExternalDataPreparer;
 import org.odk.collect.android.listeners.DiskSyncListener;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.Validator;
+import org.odk.collect.android.utilities.XmlMetadataParser;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -55,6 +59,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
         formsDao = new FormsDao();
         int instance = ++counter;
         Timber.i("[%d] doInBackground begins!", instance);
+        final long start = System.currentTimeMillis();
 
         List<String> idsToDelete = new ArrayList<>();
 
@@ -65,7 +70,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
             File formDir = new File(Collect.FORMS_PATH);
             if (formDir.exists() && formDir.isDirectory()) {
                 // Get all the files in the /odk/foms directory
-                List<File> formsToAdd = new LinkedList<File>();
+                Set<File> formsToAdd = new HashSet<>();
 
                 // Step 1: assemble the candidate form files
                 //         discard files beginning with "."
@@ -86,8 +91,11 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
 
                 // Step 2: quickly run through and figure out what files we need to
                 // parse and update; this is quick, as we only calculate the md5
-                // and see if it has changed.
+                // of the files whose size or last modified date changed and see if
+                // it has changed.
                 List<UriFile> uriToUpdate = new ArrayList<UriFile>();
+                int formCount = formsToAdd.size();
+                int hashedCount = 0;
                 Cursor cursor = null;
                 // open the cursor within a try-catch block so it can always be closed.
                 try {
@@ -112,14 +120,23 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                             // remove it from the list of forms (we only want forms
                             // we haven't added at the end)
                             formsToAdd.remove(sqlFile);
+                            prepareExternalDataIfChanged(sqlFile);
+                            if (isSignatureUnchanged(cursor, sqlFile)) {
+                                continue;
+                            }
+
+                            hashedCount++;
+                            String id = cursor.getString(
+                                    cursor.getColumnIndex(FormsColumns._ID));
+                            Uri updateUri = Uri.withAppendedPath(FormsColumns.CONTENT_URI, id);
                             String md5Computed = FileUtils.getMd5Hash(sqlFile);
                             if (md5Computed == null || md5 == null || !md5Computed.equals(md5)) {
                                 // Probably someone overwrite the file on the sdcard
                                 // So re-parse it and update it's information
-                                String id = cursor.getString(
-                                        cursor.getColumnIndex(FormsColumns._ID));
-                                Uri updateUri = Uri.withAppendedPath(FormsColumns.CONTENT_URI, id);
                                 uriToUpdate.add(new UriFile(updateUri, sqlFile));
+                            } else {
+                                // Only touched, remember it so that it isn't hashed again
+                                updateSignature(updateUri, sqlFile);
                             }
                         } else {
                             //File not found in sdcard but file path found in database
@@ -172,12 +189,16 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                 }
                 uriToUpdate.clear();
 
+                Timber.i("[%d] Checked %d forms, hashing %d of them, in %.3f seconds (%.1f ms per form).",
+                        instance, formCount, hashedCount, (System.currentTimeMillis() - start) / 1000F,
+                        formCount > 0 ? (System.currentTimeMillis() - start) / (float) formCount : 0F);
+
                 // Step 4: go through the newly-discovered files in xFormsToAdd and add them.
                 // This is slow because buildContentValues(...) is slow.
                 //
-                Collections.shuffle(formsToAdd); // Big win if multiple DiskSyncTasks running
-                while (!formsToAdd.isEmpty()) {
-                    File formDefFile = formsToAdd.remove(0);
+                List<File> newForms = new ArrayList<>(formsToAdd);
+                Collections.shuffle(newForms); // Big win if multiple DiskSyncTasks running
+                for (File formDefFile : newForms) {
 
                     // Since parsing is so slow, if there are multiple tasks,
                     // they may have already updated the database.
@@ -210,6 +231,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                     } catch (SQLException e) {
                         Timber.i("[%d] %s", instance, e.toString());
                     }
+                    prepareExternalDataIfChanged(formDefFile);
                 }
             }
             if (errors.length() != 0) {
@@ -219,10 +241,31 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
             }
             return statusMessage;
         } finally {
-            Timber.i("[%d] doInBackground ends!", instance);
+            Timber.i("[%d] doInBackground ends after %.3f seconds!", instance,
+                    (System.currentTimeMillis() - start) / 1000F);
         }
     }
 
+    /**
+     * Returns whether the file still has the size and last modified date it had when its hash
+     * was recorded, in which case its content is taken to be unchanged.
+     */
+    private static boolean isSignatureUnchanged(Cursor cursor, File formFile) {
+        int sizeColumnIndex = cursor.getColumnIndex(FormsColumns.FORM_FILE_SIZE);
+        int lastModifiedColumnIndex = cursor.getColumnIndex(FormsColumns.FORM_FILE_LAST_MODIFIED);
+        return sizeColumnIndex != -1 && lastModifiedColumnIndex != -1
+                && !cursor.isNull(sizeColumnIndex) && !cursor.isNull(lastModifiedColumnIndex)
+                && cursor.getLong(sizeColumnIndex) == formFile.length()
+                && cursor.getLong(lastModifiedColumnIndex) == formFile.lastModified();
+    }
+
+    private static void updateSignature(Uri formUri, File formFile) {
+        ContentValues values = new ContentValues();
+        values.put(FormsColumns.FORM_FILE_SIZE, formFile.length());
+        values.put(FormsColumns.FORM_FILE_LAST_MODIFIED, formFile.lastModified());
+        Collect.getInstance().getContentResolver().update(formUri, values, null, null);
+    }
+
     private boolean isAlreadyDefined(File formDefFile) {
         // first try to see if a record with this filename already exists...
         Cursor c = null;
@@ -236,13 +279,24 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
         }
     }
 
+    /**
+     * Schedules the import of the form's external data if its media folder changed since the
+     * data was last prepared.
+     */
+    private void prepareExternalDataIfChanged(File formDefFile) {
+        File mediaDir = new File(FileUtils.constructMediaPath(formDefFile.getAbsolutePath()));
+        if (ExternalDataPreparer.mayNeedPreparation(mediaDir)) {
+            ExternalDataPreparationWorker.enqueue(mediaDir);
+        }
+    }
+
     public String getStatusMessage() {
         return statusMessage;
     }
 
     /**
      * Attempts to parse the formDefFile as an XForm.
-     * This is slow because FileUtils.parseXML is slow
+     * Only the head of the form is read, see {@link XmlMetadataParser}.
      *
      * @return key-value list to update or insert into the content provider
      * @throws IllegalArgumentException if the file failed to parse or was missing fields
@@ -254,7 +308,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
 
         HashMap<String, String> fields = null;
         try {
-            fields = FileUtils.parseXML(formDefFile);
+            fields = XmlMetadataParser.parseFormMetadata(formDefFile);
         } catch (RuntimeException e) {
             throw new IllegalArgumentException(formDefFile.getName() + " :: " + e.toString());
         }
@@ -15,7 +15,6 @@
 package org.odk.collect.android.tasks;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.AsyncTask;
 
 import org.apache.commons.io.IOUtils;
@@ -34,31 +33,22 @@ import org.javarosa.xform.util.XFormUtils;
 import org.javarosa.xpath.XPathTypeMismatchException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
-import org.odk.collect.android.database.ItemsetDbAdapter;
 import org.odk.collect.android.external.ExternalAnswerResolver;
 import org.odk.collect.android.external.ExternalDataHandler;
 import org.odk.collect.android.external.ExternalDataManager;
 import org.odk.collect.android.external.ExternalDataManagerImpl;
-import org.odk.collect.android.external.ExternalDataReader;
-import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataPreparer;
 import org.odk.collect.android.external.handler.ExternalDataHandlerPull;
+import org.odk.collect.android.listeners.ExternalDataLoadingListener;
 import org.odk.collect.android.listeners.FormLoaderListener;
 import org.odk.collect.android.logic.FileReferenceFactory;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.FormDefCache;
-import org.odk.collect.android.utilities.ZipUtils;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
 
-import au.com.bytecode.opencsv.CSVReader;
 import timber.log.Timber;
 
 /**
@@ -67,8 +57,8 @@ import timber.log.Timber;
  * @author Carl Hartung (carlhartung@gmail.com)
  * @author Yaw Anokwa (yanokwa@gmail.com)
  */
-public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper> {
-    private static final String ITEMSETS_CSV = "itemsets.csv";
+public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper>
+        implements ExternalDataLoadingListener {
 
     private FormLoaderListener stateListener;
     private String errorMsg;
@@ -141,7 +131,10 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         formDef.getEvaluationContext().addFunctionHandler(externalDataHandlerPull);
 
         try {
-            loadExternalData(formMediaDir);
+            // usually already done in the background once the form's media was downloaded
+            if (!ExternalDataPreparer.isPrepared(formMediaDir)) {
+                ExternalDataPreparer.prepare(formMediaDir, this);
+            }
         } catch (Exception e) {
             Timber.e(e, "Exception thrown while loading external data");
             errorMsg = e.getMessage();
@@ -184,8 +177,6 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         // Remove previous forms
         ReferenceManager.instance().clearSession();
 
-        processItemSets(formMediaDir);
-
         // This should get moved to the Application Class
         if (ReferenceManager.instance().getFactories().length == 0) {
             // this is /sdcard/odk
@@ -254,45 +245,6 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         return null;
     }
 
-    private void processItemSets(File formMediaDir) {
-        // for itemsets.csv, we only check to see if the itemset file has been
-        // updated
-        final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ITEMSETS_CSV);
-        String csvmd5 = null;
-        if (csv.exists()) {
-            csvmd5 = FileUtils.getMd5Hash(csv);
-            boolean readFile = false;
-            final ItemsetDbAdapter ida = new ItemsetDbAdapter();
-            ida.open();
-            // get the database entry (if exists) for this itemsets.csv, based
-            // on the path
-            final Cursor c = ida.getItemsets(csv.getAbsolutePath());
-            if (c != null) {
-                if (c.getCount() == 1) {
-                    c.moveToFirst(); // should be only one, ever, if any
-                    final String oldmd5 = c.getString(c.getColumnIndex("hash"));
-                    if (oldmd5.equals(csvmd5)) {
-                        // they're equal, do nothing
-                    } else {
-                        // the csv has been updated, delete the old entries
-                        ida.dropTable(ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()),
-                                csv.getAbsolutePath());
-                        // and read the new
-                        readFile = true;
-                    }
-                } else {
-                    // new csv, add it
-                    readFile = true;
-                }
-                c.close();
-            }
-            ida.close();
-            if (readFile) {
-                readCSV(csv, csvmd5, ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()));
-            }
-        }
-    }
-
     private boolean initializeForm(FormDef formDef, FormEntryController fec) {
         final InstanceInitializationFactory instanceInit = new InstanceInitializationFactory();
         boolean usedSavepoint = false;
@@ -339,56 +291,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         return usedSavepoint;
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadExternalData(File mediaFolder) {
-        // SCTO-594
-        File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                return file.getName().toLowerCase(Locale.US).endsWith(".zip");
-            }
-        });
-
-        if (zipFiles != null) {
-            ZipUtils.unzip(zipFiles);
-            for (File zipFile : zipFiles) {
-                boolean deleted = zipFile.delete();
-                if (!deleted) {
-                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
-                }
-            }
-        }
-
-        File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                String lowerCaseName = file.getName().toLowerCase(Locale.US);
-                return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(
-                        ITEMSETS_CSV);
-            }
-        });
-
-        Map<String, File> externalDataMap = new HashMap<String, File>();
-
-        if (csvFiles != null) {
-
-            for (File csvFile : csvFiles) {
-                String dataSetName = csvFile.getName().substring(0,
-                        csvFile.getName().lastIndexOf("."));
-                externalDataMap.put(dataSetName, csvFile);
-            }
-
-            if (!externalDataMap.isEmpty()) {
-
-                publishProgress(Collect.getInstance()
-                        .getString(R.string.survey_loading_reading_csv_message));
-
-                ExternalDataReader externalDataReader = new ExternalDataReaderImpl(this);
-                externalDataReader.doImport(externalDataMap);
-            }
-        }
-    }
-
+    @Override
     public void publishExternalDataLoadingProgress(String message) {
         publishProgress(message);
     }
@@ -516,49 +419,6 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         this.intent = intent;
     }
 
-    private void readCSV(File csv, String formHash, String pathHash) {
-
-        CSVReader reader;
-        ItemsetDbAdapter ida = new ItemsetDbAdapter();
-        ida.open();
-        boolean withinTransaction = false;
-
-        try {
-            reader = new CSVReader(new FileReader(csv));
-
-            String[] nextLine;
-            String[] columnHeaders = null;
-            int lineNumber = 0;
-            while ((nextLine = reader.readNext()) != null) {
-                lineNumber++;
-                if (lineNumber == 1) {
-                    // first line of csv is column headers
-                    columnHeaders = nextLine;
-                    ida.createTable(formHash, pathHash, columnHeaders,
-                            csv.getAbsolutePath());
-                    continue;
-                }
-                // add the rest of the lines to the specified database
-                // nextLine[] is an array of values from the line
-                // System.out.println(nextLine[4] + "etc...");
-                if (lineNumber == 2) {
-                    // start a transaction for the inserts
-                    withinTransaction = true;
-                    ida.beginTransaction();
-                }
-                ida.addRow(pathHash, columnHeaders, nextLine);
-
-            }
-        } catch (IOException e) {
-            Timber.e(e, "Exception thrown while reading csv file");
-        } finally {
-            if (withinTransaction) {
-                ida.commit();
-            }
-            ida.close();
-        }
-    }
-
     public FormDef getFormDef() {
         return formDef;
     }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.tasks;
+
+import android.net.Uri;
+
+import org.odk.collect.android.activities.FormEntryActivity;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.logic.FormController;
+import org.odk.collect.android.utilities.ImageConverter;
+import org.odk.collect.android.widgets.QuestionWidget;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * Converts an image that was captured, drawn or annotated into a temp file and moves it into
+ * the instance folder. Decoding and re-encoding a camera image takes a while, so this runs in the
+ * background and the result is handed to the waiting widget just like a chosen file.
+ */
+public class ImageCaptureTask extends MediaLoadingTask {
+
+    public ImageCaptureTask(FormEntryActivity formEntryActivity) {
+        super(formEntryActivity);
+    }
+
+    @Override
+    protected File doInBackground(Uri... uris) {
+        FormController formController = Collect.getInstance().getFormController();
+        if (formController == null || formController.getInstanceFile() == null) {
+            return null;
+        }
+
+        FormEntryActivity activity = formEntryActivity != null ? formEntryActivity.get() : null;
+        QuestionWidget questionWidget = activity != null ? activity.getWidgetWaitingForBinaryData() : null;
+
+        File fi = new File(uris[0].getPath());
+        ImageConverter.execute(fi.getPath(), questionWidget, Collect.getInstance());
+
+        String instanceFolder = formController.getInstanceFile().getParent();
+        File nf = new File(instanceFolder + File.separator + System.currentTimeMillis() + ".jpg");
+        if (!fi.renameTo(nf)) {
+            Timber.e("Failed to rename %s", fi.getAbsolutePath());
+        } else {
+            Timber.i("Renamed %s to %s", fi.getAbsolutePath(), nf.getAbsolutePath());
+        }
+        return nf;
+    }
+}
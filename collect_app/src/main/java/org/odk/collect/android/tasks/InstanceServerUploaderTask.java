@@ -22,12 +22,15 @@ import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.http.OpenRosaHttpInterface;
 import org.odk.collect.android.logic.PropertyManager;
 import org.odk.collect.android.upload.InstanceServerUploader;
+import org.odk.collect.android.upload.InstanceUploadPipeline;
 import org.odk.collect.android.upload.UploadAuthRequestedException;
 import org.odk.collect.android.upload.UploadException;
+import org.odk.collect.android.upload.UploadProgressTracker;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -55,44 +58,65 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
 
     @Override
     protected Outcome doInBackground(Long... instanceIdsToUpload) {
-        Outcome outcome = new Outcome();
+        final Outcome outcome = new Outcome();
 
-        InstanceServerUploader uploader = new InstanceServerUploader(httpInterface, webCredentialsUtils, new HashMap<>());
-        List<Instance> instancesToUpload = uploader.getInstancesFromIds(instanceIdsToUpload);
+        InstanceServerUploader uploader = new InstanceServerUploader(httpInterface, webCredentialsUtils,
+                new ConcurrentHashMap<>());
+        final List<Instance> instancesToUpload = uploader.getInstancesFromIds(instanceIdsToUpload);
 
         String deviceId = new PropertyManager(Collect.getInstance().getApplicationContext())
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
 
-        for (int i = 0; i < instancesToUpload.size(); i++) {
-            if (isCancelled()) {
-                return outcome;
-            }
-            Instance instance = instancesToUpload.get(i);
-
-            publishProgress(i + 1, instancesToUpload.size());
-
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
-                outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
-                Collect.getInstance()
-                        .getDefaultTracker()
-                        .send(new HitBuilders.EventBuilder()
-                                .setCategory("Submission")
-                                .setAction("HTTP")
-                                .build());
-            } catch (UploadAuthRequestedException e) {
-                outcome.authRequestingServer = e.getAuthRequestingServer();
-                // Don't add the instance that caused an auth request to the map because we want to
-                // retry. Items present in the map are considered already attempted and won't be
-                // retried.
-            } catch (UploadException e) {
-                outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        e.getDisplayMessage());
-            }
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger percentSent = new AtomicInteger();
+
+        long totalBytes = 0;
+        for (Instance instance : instancesToUpload) {
+            totalBytes += InstanceServerUploader.getSubmissionSize(instance);
         }
-        
+        uploader.setProgressListener(new UploadProgressTracker(totalBytes) {
+            @Override
+            protected void onPercentSent(int percent) {
+                percentSent.set(percent);
+                publishProgress(count.get(), instancesToUpload.size(), percent);
+            }
+        });
+
+        new InstanceUploadPipeline(uploader).upload(instancesToUpload, deviceId, completeDestinationUrl,
+                new InstanceUploadPipeline.Listener() {
+                    @Override
+                    public void onUploaded(Instance instance, String customMessage) {
+                        publishProgress(count.incrementAndGet(), instancesToUpload.size(), percentSent.get());
+                        outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
+                                customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
+                        Collect.getInstance()
+                                .getDefaultTracker()
+                                .send(new HitBuilders.EventBuilder()
+                                        .setCategory("Submission")
+                                        .setAction("HTTP")
+                                        .build());
+                    }
+
+                    @Override
+                    public void onFailed(Instance instance, UploadException e) {
+                        publishProgress(count.incrementAndGet(), instancesToUpload.size(), percentSent.get());
+                        if (e instanceof UploadAuthRequestedException) {
+                            outcome.authRequestingServer = ((UploadAuthRequestedException) e).getAuthRequestingServer();
+                            // Don't add the instance that caused an auth request to the map because we want to
+                            // retry. Items present in the map are considered already attempted and won't be
+                            // retried.
+                        } else {
+                            outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
+                                    e.getDisplayMessage());
+                        }
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return InstanceServerUploaderTask.this.isCancelled();
+                    }
+                });
+
         return outcome;
     }
 
@@ -33,20 +33,17 @@ import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.utilities.EncryptionUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import org.odk.collect.android.utilities.XmlMetadataParser;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -77,7 +74,7 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         Timber.i("[%d] doInBackground begins!", instance);
 
         try {
-            List<String> candidateInstances = new LinkedList<String>();
+            Set<String> candidateInstances = new HashSet<>();
             File instancesPath = new File(Collect.INSTANCES_PATH);
             if (instancesPath.exists() && instancesPath.isDirectory()) {
                 File[] instanceFolders = instancesPath.listFiles();
@@ -87,7 +84,9 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                     return currentStatus;
                 }
 
-                // Build the list of potential path that we need to add to the content provider
+                final long start = System.currentTimeMillis();
+
+                // Build the set of potential paths that we need to add to the content provider
                 for (File instanceDir : instanceFolders) {
                     File instanceFile = new File(instanceDir, instanceDir.getName() + ".xml");
                     if (!instanceFile.exists()) {
@@ -103,31 +102,29 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                         Timber.i("[%d] Ignoring: %s", instance, instanceDir.getAbsolutePath());
                     }
                 }
-                Collections.sort(candidateInstances);
 
                 List<String> filesToRemove = new ArrayList<>();
 
-                // Remove all the path that's already in the content provider
+                // Remove all the paths that are already in the content provider
                 Cursor instanceCursor = null;
                 InstancesDao instancesDao = new InstancesDao();
                 try {
-                    String sortOrder = InstanceColumns.INSTANCE_FILE_PATH + " ASC ";
-                    instanceCursor = instancesDao.getSavedInstancesCursor(sortOrder);
+                    instanceCursor = instancesDao.getSavedInstancesCursor(null);
                     if (instanceCursor == null) {
                         Timber.e("[%d] Instance content provider returned null", instance);
                         return currentStatus;
                     }
 
+                    int filePathColumn = instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH);
+                    int statusColumn = instanceCursor.getColumnIndex(InstanceColumns.STATUS);
+
                     instanceCursor.moveToPosition(-1);
 
                     while (instanceCursor.moveToNext()) {
-                        String instanceFilename = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                        String instanceStatus = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.STATUS));
-                        if (candidateInstances.contains(instanceFilename) || instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
-                            candidateInstances.remove(instanceFilename);
-                        } else {
+                        String instanceFilename = instanceCursor.getString(filePathColumn);
+                        String instanceStatus = instanceCursor.getString(statusColumn);
+                        if (!candidateInstances.remove(instanceFilename)
+                                && !instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
                             filesToRemove.add(instanceFilename);
                         }
                     }
@@ -144,55 +141,63 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                         Collect.getInstance().getApplicationContext()).getBoolean(
                         GeneralKeys.KEY_INSTANCE_SYNC, true);
 
-                int counter = 0;
+                List<String> newInstances = new ArrayList<>(candidateInstances);
+                Collections.sort(newInstances);
+
+                // The form definitions looked up so far, null for the ones that aren't available
+                Map<String, FormDefinition> formDefinitions = new HashMap<>();
+                List<ContentValues> instancesToSave = new ArrayList<>();
+                List<ContentValues> instancesToEncrypt = new ArrayList<>();
+
                 // Begin parsing and add them to the content provider
-                for (String candidateInstance : candidateInstances) {
+                for (String candidateInstance : newInstances) {
                     String instanceFormId = getFormIdFromInstance(candidateInstance);
                     // only process if we can find the id from the instance file
-                    if (instanceFormId != null) {
-                        Cursor formCursor = null;
-                        try {
-                            String selection = FormsColumns.JR_FORM_ID + " = ? ";
-                            String[] selectionArgs = new String[]{instanceFormId};
-                            // retrieve the form definition
-                            formCursor = new FormsDao().getFormsCursor(selection, selectionArgs);
-                            // TODO: optimize this by caching the previously found form definition
-                            // TODO: optimize this by caching unavailable form definition to skip
-                            if (formCursor != null && formCursor.moveToFirst()) {
-                                String submissionUri = null;
-                                if (!formCursor.isNull(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI))) {
-                                    submissionUri = formCursor.getString(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI));
-                                }
-                                String jrFormId = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_FORM_ID));
-                                String jrVersion = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_VERSION));
-                                String formName = formCursor.getString(formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME));
-
-                                // add missing fields into content values
-                                ContentValues values = new ContentValues();
-                                values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
-                                values.put(InstanceColumns.SUBMISSION_URI, submissionUri);
-                                values.put(InstanceColumns.DISPLAY_NAME, formName);
-                                values.put(InstanceColumns.JR_FORM_ID, jrFormId);
-                                values.put(InstanceColumns.JR_VERSION, jrVersion);
-                                values.put(InstanceColumns.STATUS, instanceSyncFlag
-                                        ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
-                                values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
-                                // save the new instance object
-
-                                instancesDao.saveInstance(values);
-                                counter++;
-
-                                encryptInstanceIfNeeded(formCursor, candidateInstance, values, instancesDao);
-                            }
-                        } catch (IOException | EncryptionException e) {
-                            Timber.w(e);
-                        } finally {
-                            if (formCursor != null) {
-                                formCursor.close();
-                            }
+                    if (instanceFormId == null) {
+                        continue;
+                    }
+
+                    FormDefinition formDefinition;
+                    if (formDefinitions.containsKey(instanceFormId)) {
+                        formDefinition = formDefinitions.get(instanceFormId);
+                    } else {
+                        formDefinition = getFormDefinition(instanceFormId);
+                        formDefinitions.put(instanceFormId, formDefinition);
+                    }
+
+                    if (formDefinition != null) {
+                        // add missing fields into content values
+                        ContentValues values = new ContentValues();
+                        values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
+                        values.put(InstanceColumns.SUBMISSION_URI, formDefinition.submissionUri);
+                        values.put(InstanceColumns.DISPLAY_NAME, formDefinition.formName);
+                        values.put(InstanceColumns.JR_FORM_ID, formDefinition.jrFormId);
+                        values.put(InstanceColumns.JR_VERSION, formDefinition.jrVersion);
+                        values.put(InstanceColumns.STATUS, instanceSyncFlag
+                                ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
+                        values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
+
+                        instancesToSave.add(values);
+                        if (formDefinition.isEncrypted()) {
+                            instancesToEncrypt.add(values);
                         }
                     }
                 }
+
+                // save the new instance objects
+                int counter = instancesDao.saveInstances(instancesToSave.toArray(new ContentValues[instancesToSave.size()]));
+
+                for (ContentValues values : instancesToEncrypt) {
+                    try {
+                        encryptInstance(values.getAsString(InstanceColumns.INSTANCE_FILE_PATH), values, instancesDao);
+                    } catch (IOException | EncryptionException e) {
+                        Timber.w(e);
+                    }
+                }
+
+                Timber.i("[%d] Synced %d instance folders in %.3f seconds.", instance, instanceFolders.length,
+                        (System.currentTimeMillis() - start) / 1000F);
+
                 if (counter > 0) {
                     currentStatus += String.format(
                             Collect.getInstance().getString(R.string.instance_scan_count),
@@ -206,77 +211,82 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
     }
 
     private String getFormIdFromInstance(final String instancePath) {
-        String instanceFormId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceFormId = element.getAttribute("id");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            Timber.w("Unable to read form id from %s", instancePath);
-        }
-        return instanceFormId;
+        return XmlMetadataParser.getRootAttribute(new File(instancePath), "id");
     }
 
     private String getInstanceIdFromInstance(final String instancePath) {
-        String instanceId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceId = element.getAttribute("instanceID");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            Timber.w("Unable to read form instanceID from %s", instancePath);
-        }
-        return instanceId;
+        return XmlMetadataParser.getRootAttribute(new File(instancePath), "instanceID");
     }
 
-    private void encryptInstanceIfNeeded(Cursor formCursor, String candidateInstance,
-                                         ContentValues values, InstancesDao instancesDao)
-            throws EncryptionException, IOException {
+    /**
+     * Returns the definition of a form with the given id, or null if there is none.
+     */
+    private FormDefinition getFormDefinition(String formId) {
+        Cursor formCursor = null;
+        try {
+            String selection = FormsColumns.JR_FORM_ID + " = ? ";
+            String[] selectionArgs = new String[]{formId};
+            formCursor = new FormsDao().getFormsCursor(selection, selectionArgs);
+            if (formCursor == null || !formCursor.moveToFirst()) {
+                return null;
+            }
 
-        Cursor instanceCursor = new InstancesDao().getInstancesCursorForFilePath(candidateInstance);
-        if (instanceCursor != null && instanceCursor.moveToFirst()) {
-            if (shouldInstanceBeEncrypted(formCursor)) {
-                encryptInstance(instanceCursor, candidateInstance, values, instancesDao);
+            FormDefinition formDefinition = new FormDefinition();
+            if (!formCursor.isNull(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI))) {
+                formDefinition.submissionUri = formCursor.getString(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI));
+            }
+            formDefinition.jrFormId = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_FORM_ID));
+            formDefinition.jrVersion = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_VERSION));
+            formDefinition.formName = formCursor.getString(formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME));
+            formDefinition.base64RsaPublicKey = formCursor.getString(formCursor.getColumnIndex(FormsColumns.BASE64_RSA_PUBLIC_KEY));
+            return formDefinition;
+        } finally {
+            if (formCursor != null) {
+                formCursor.close();
             }
         }
     }
 
-    private void encryptInstance(Cursor instanceCursor, String candidateInstance,
-                                 ContentValues values, InstancesDao instancesDao)
+    private void encryptInstance(String candidateInstance, ContentValues values, InstancesDao instancesDao)
             throws EncryptionException, IOException {
 
         File instanceXml = new File(candidateInstance);
-        if (!new File(instanceXml.getParentFile(), "submission.xml.enc").exists()) {
-            Uri uri = Uri.parse(InstanceColumns.CONTENT_URI + "/" + instanceCursor.getInt(instanceCursor.getColumnIndex(BaseColumns._ID)));
-            FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(getInstanceIdFromInstance(candidateInstance), null, false);
-            EncryptionUtils.EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri, instanceMetadata);
+        if (new File(instanceXml.getParentFile(), "submission.xml.enc").exists()) {
+            return;
+        }
 
-            if (formInfo != null) {
-                File submissionXml = new File(instanceXml.getParentFile(), "submission.xml");
-                FileUtils.copyFile(instanceXml, submissionXml);
+        Uri uri;
+        Cursor instanceCursor = instancesDao.getInstancesCursorForFilePath(candidateInstance);
+        try {
+            if (instanceCursor == null || !instanceCursor.moveToFirst()) {
+                return;
+            }
+            uri = Uri.parse(InstanceColumns.CONTENT_URI + "/" + instanceCursor.getInt(instanceCursor.getColumnIndex(BaseColumns._ID)));
+        } finally {
+            if (instanceCursor != null) {
+                instanceCursor.close();
+            }
+        }
 
-                EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+        FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(getInstanceIdFromInstance(candidateInstance), null, false);
+        EncryptionUtils.EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri, instanceMetadata);
 
-                values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(false));
-                instancesDao.updateInstance(values, InstanceColumns.INSTANCE_FILE_PATH + "=?", new String[]{candidateInstance});
+        if (formInfo != null) {
+            File submissionXml = new File(instanceXml.getParentFile(), "submission.xml");
+            FileUtils.copyFile(instanceXml, submissionXml);
 
-                SaveToDiskTask.manageFilesAfterSavingEncryptedForm(instanceXml, submissionXml);
-                if (!EncryptionUtils.deletePlaintextFiles(instanceXml)) {
-                    Timber.e("Error deleting plaintext files for %s", instanceXml.getAbsolutePath());
-                }
+            EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+
+            values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(false));
+            instancesDao.updateInstance(values, InstanceColumns.INSTANCE_FILE_PATH + "=?", new String[]{candidateInstance});
+
+            SaveToDiskTask.manageFilesAfterSavingEncryptedForm(instanceXml, submissionXml);
+            if (!EncryptionUtils.deletePlaintextFiles(instanceXml)) {
+                Timber.e("Error deleting plaintext files for %s", instanceXml.getAbsolutePath());
             }
         }
     }
 
-    private boolean shouldInstanceBeEncrypted(Cursor formCursor) {
-        String base64RSAPublicKey = formCursor.getString(formCursor.getColumnIndex(FormsColumns.BASE64_RSA_PUBLIC_KEY));
-        return base64RSAPublicKey != null && !base64RSAPublicKey.isEmpty();
-    }
-
     @Override
     protected void onPostExecute(String result) {
         super.onPostExecute(result);
@@ -284,4 +294,19 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
             diskSyncListener.syncComplete(result);
         }
     }
+
+    /**
+     * The fields of a form definition that instances found on disk are saved with.
+     */
+    private static class FormDefinition {
+        String submissionUri;
+        String jrFormId;
+        String jrVersion;
+        String formName;
+        String base64RsaPublicKey;
+
+        boolean isEncrypted() {
+            return base64RsaPublicKey != null && !base64RsaPublicKey.isEmpty();
+        }
+    }
 }
@@ -126,6 +126,9 @@ public abstract class InstanceUploaderTask extends AsyncTask<Long, Integer, Inst
         synchronized (this) {
             if (stateListener != null) {
                 stateListener.progressUpdate(values[0], values[1]);
+                if (values.length > 2) {
+                    stateListener.bytesSentUpdate(values[2]);
+                }
             }
         }
     }
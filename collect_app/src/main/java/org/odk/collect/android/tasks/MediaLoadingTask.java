@@ -29,7 +29,7 @@ import timber.log.Timber;
 
 public class MediaLoadingTask extends AsyncTask<Uri, Void, File> {
 
-    private WeakReference<FormEntryActivity> formEntryActivity;
+    WeakReference<FormEntryActivity> formEntryActivity;
 
     public MediaLoadingTask(FormEntryActivity formEntryActivity) {
         onAttach(formEntryActivity);
@@ -24,6 +24,7 @@ import org.javarosa.form.api.FormEntryController;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.InstancesDao;
+import org.odk.collect.android.dao.OutboxDao;
 import org.odk.collect.android.exception.EncryptionException;
 import org.odk.collect.android.listeners.FormSavedListener;
 import org.odk.collect.android.logic.FormController;
@@ -350,6 +351,9 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
                     Timber.e("Error deleting plaintext files for %s", instanceXml.getAbsolutePath());
                 }
             }
+
+            // queue the instance for auto-send
+            new OutboxDao().enqueue(instancePath, OutboxDao.DEFAULT_PRIORITY);
         }
     }
 
@@ -32,7 +32,7 @@ import org.odk.collect.android.activities.NotificationActivity;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
 import org.odk.collect.android.dao.InstancesDao;
-import org.odk.collect.android.dto.Form;
+import org.odk.collect.android.dao.OutboxDao;
 import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.exception.MultipleFoldersFoundException;
 import org.odk.collect.android.http.HttpClientConnection;
@@ -50,15 +50,25 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 import timber.log.Timber;
 
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.AUTO_SEND;
+import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.JR_FORM_ID;
 import static org.odk.collect.android.utilities.ApplicationConstants.RequestCodes.FORMS_UPLOADED_NOTIFICATION;
 
 public class AutoSendWorker extends Worker {
@@ -88,8 +98,13 @@ public class AutoSendWorker extends Worker {
                 Context.CONNECTIVITY_SERVICE);
         NetworkInfo currentNetworkInfo = manager.getActiveNetworkInfo();
 
-        if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)
-                || !(networkTypeMatchesAutoSendSetting(currentNetworkInfo) || atLeastOneFormSpecifiesAutoSend())) {
+        // The forms database lives on external storage so it is only read once it is mounted
+        boolean mounted = Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED);
+        Map<String, String> formLevelAutoSend = mounted
+                ? getFormLevelAutoSend() : new HashMap<String, String>();
+
+        if (!mounted || !(networkTypeMatchesAutoSendSetting(currentNetworkInfo)
+                || atLeastOneFormSpecifiesAutoSend(formLevelAutoSend))) {
             if (!networkTypeMatchesAutoSendSetting(currentNetworkInfo)) {
                 return Result.RETRY;
             }
@@ -97,9 +112,10 @@ public class AutoSendWorker extends Worker {
             return Result.FAILURE;
         }
 
-        List<Instance> toUpload = getInstancesToAutoSend(GeneralSharedPreferences.isAutoSendEnabled());
+        List<Instance> toUpload = getInstancesToAutoSend(GeneralSharedPreferences.isAutoSendEnabled(), formLevelAutoSend);
 
         if (toUpload.isEmpty()) {
+            scheduleNextAttempt();
             return Result.SUCCESS;
         }
 
@@ -135,48 +151,170 @@ public class AutoSendWorker extends Worker {
             }
         } else {
             uploader = new InstanceServerUploader(new HttpClientConnection(),
-                    new WebCredentialsUtils(), new HashMap<>());
+                    new WebCredentialsUtils(), new ConcurrentHashMap<>());
+            showUploadProgressNotifications((InstanceServerUploader) uploader, toUpload);
             deviceId = new PropertyManager(Collect.getInstance().getApplicationContext())
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
         }
 
+        if (uploader instanceof InstanceGoogleSheetsUploader) {
+            anyFailure = uploadInBatches((InstanceGoogleSheetsUploader) uploader, toUpload,
+                    resultMessagesByInstanceId);
+        } else {
+            anyFailure = uploadConcurrently(uploader, toUpload, deviceId, resultMessagesByInstanceId);
+        }
+
+        String message = formatOverallResultMessage(resultMessagesByInstanceId);
+        showUploadStatusNotification(anyFailure, message);
+
+        scheduleNextAttempt();
+        return Result.SUCCESS;
+    }
+
+    /**
+     * Schedules a run for when the first instance that is held back by its backoff becomes due so
+     * that it does not have to wait for the next change in connectivity.
+     */
+    private void scheduleNextAttempt() {
+        long now = System.currentTimeMillis();
+        Long nextAttemptDate = new OutboxDao().getNextAttemptDate(now);
+        if (nextAttemptDate == null) {
+            return;
+        }
+
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest retryWork = new OneTimeWorkRequest.Builder(AutoSendWorker.class)
+                .addTag(AutoSendWorker.class.getName())
+                .setConstraints(constraints)
+                .setInitialDelay(nextAttemptDate - now, TimeUnit.MILLISECONDS)
+                .build();
+        // a separate unique name since this worker is itself still running under the main one
+        WorkManager.getInstance().beginUniqueWork(AutoSendWorker.class.getName() + ":retry",
+                ExistingWorkPolicy.REPLACE, retryWork).enqueue();
+    }
+
+    /**
+     * Uploads the instances to Google Sheets, several instances going to the same spreadsheet at
+     * a time.
+     *
+     * @return true if any of the instances failed to upload
+     */
+    private boolean uploadInBatches(InstanceGoogleSheetsUploader uploader, List<Instance> toUpload,
+                                    Map<String, String> resultMessagesByInstanceId) {
+        Map<String, List<Instance>> instancesByUrl = new LinkedHashMap<>();
         for (Instance instance : toUpload) {
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, null);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
-                resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
-
-                // If the submission was successful, delete the instance if either the app-level
-                // delete preference is set or the form definition requests auto-deletion.
-                // TODO: this could take some time so might be better to do in a separate process,
-                // perhaps another worker. It also feels like this could fail and if so should be
-                // communicated to the user. Maybe successful delete should also be communicated?
-                if (InstanceUploader.formShouldBeAutoDeleted(instance.getJrFormId(),
-                        (boolean) GeneralSharedPreferences.getInstance().get(GeneralKeys.KEY_DELETE_AFTER_SEND))) {
-                    Uri deleteForm = Uri.withAppendedPath(InstanceColumns.CONTENT_URI, instance.getDatabaseId().toString());
-                    Collect.getInstance().getContentResolver().delete(deleteForm, null, null);
+            String destinationUrl = uploader.getUrlToSubmitTo(instance, null, null);
+            List<Instance> instances = instancesByUrl.get(destinationUrl);
+            if (instances == null) {
+                instances = new ArrayList<>();
+                instancesByUrl.put(destinationUrl, instances);
+            }
+            instances.add(instance);
+        }
+
+        boolean anyFailure = false;
+        for (Map.Entry<String, List<Instance>> entry : instancesByUrl.entrySet()) {
+            List<Instance> instances = entry.getValue();
+            for (int i = 0; i < instances.size(); i += InstanceGoogleSheetsUploader.MAX_INSTANCES_PER_BATCH) {
+                List<Instance> batch = instances.subList(i,
+                        Math.min(i + InstanceGoogleSheetsUploader.MAX_INSTANCES_PER_BATCH, instances.size()));
+                Map<Instance, UploadException> failures = uploader.uploadSubmissions(batch, entry.getKey());
+
+                for (Instance instance : batch) {
+                    UploadException e = failures.get(instance);
+                    if (e == null) {
+                        onInstanceUploaded(instance, null, "HTTP-Sheets auto", resultMessagesByInstanceId);
+                    } else {
+                        anyFailure = true;
+                        onInstanceFailed(instance, e, resultMessagesByInstanceId);
+                    }
                 }
+            }
+        }
+        return anyFailure;
+    }
 
-                Collect.getInstance()
-                        .getDefaultTracker()
-                        .send(new HitBuilders.EventBuilder()
-                                .setCategory("Submission")
-                                .setAction(protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets)) ?
-                                        "HTTP-Sheets auto" : "HTTP auto")
-                                .build());
-            } catch (UploadException e) {
-                Timber.d(e);
-                anyFailure = true;
-                resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        e.getDisplayMessage());
+    /**
+     * Uploads the instances to the server, several at a time.
+     *
+     * @return true if any of the instances failed to upload
+     */
+    private boolean uploadConcurrently(InstanceUploader uploader, List<Instance> toUpload, String deviceId,
+                                       final Map<String, String> resultMessagesByInstanceId) {
+        final AtomicBoolean anyFailure = new AtomicBoolean();
+        new InstanceUploadPipeline(uploader).upload(toUpload, deviceId, null, new InstanceUploadPipeline.Listener() {
+            @Override
+            public void onUploaded(Instance instance, String customMessage) {
+                onInstanceUploaded(instance, customMessage, "HTTP auto", resultMessagesByInstanceId);
             }
+
+            @Override
+            public void onFailed(Instance instance, UploadException e) {
+                anyFailure.set(true);
+                onInstanceFailed(instance, e, resultMessagesByInstanceId);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        return anyFailure.get();
+    }
+
+    /**
+     * Shows how much of the instances has been sent until the upload results replace it.
+     */
+    private void showUploadProgressNotifications(InstanceServerUploader uploader, List<Instance> toUpload) {
+        long totalBytes = 0;
+        for (Instance instance : toUpload) {
+            totalBytes += InstanceServerUploader.getSubmissionSize(instance);
         }
+        uploader.setProgressListener(new UploadProgressTracker(totalBytes) {
+            @Override
+            protected void onPercentSent(int percentSent) {
+                NotificationUtils.showProgressNotification(AUTO_SEND_RESULT_NOTIFICATION_ID,
+                        R.string.uploading_data, percentSent);
+            }
+        });
+    }
 
-        String message = formatOverallResultMessage(resultMessagesByInstanceId);
-        showUploadStatusNotification(anyFailure, message);
+    private void onInstanceUploaded(Instance instance, String customMessage, String analyticsAction,
+                                    Map<String, String> resultMessagesByInstanceId) {
+        resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
+                customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
+
+        // If the submission was successful, delete the instance if either the app-level
+        // delete preference is set or the form definition requests auto-deletion.
+        // TODO: this could take some time so might be better to do in a separate process,
+        // perhaps another worker. It also feels like this could fail and if so should be
+        // communicated to the user. Maybe successful delete should also be communicated?
+        if (InstanceUploader.formShouldBeAutoDeleted(instance.getJrFormId(),
+                (boolean) GeneralSharedPreferences.getInstance().get(GeneralKeys.KEY_DELETE_AFTER_SEND))) {
+            Uri deleteForm = Uri.withAppendedPath(InstanceColumns.CONTENT_URI, instance.getDatabaseId().toString());
+            Collect.getInstance().getContentResolver().delete(deleteForm, null, null);
+        }
 
-        return Result.SUCCESS;
+        Collect.getInstance()
+                .getDefaultTracker()
+                .send(new HitBuilders.EventBuilder()
+                        .setCategory("Submission")
+                        .setAction(analyticsAction)
+                        .build());
+    }
+
+    /**
+     * Records the failure so that the instance is only retried after a while.
+     */
+    private void onInstanceFailed(Instance instance, UploadException e,
+                                  Map<String, String> resultMessagesByInstanceId) {
+        Timber.d(e);
+        resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
+                e.getDisplayMessage());
+        new OutboxDao().recordFailure(instance.getDatabaseId(), e.getDisplayMessage(),
+                System.currentTimeMillis());
     }
 
     /**
@@ -205,17 +343,20 @@ public class AutoSendWorker extends Worker {
     }
 
     /**
-     * Returns instances that need to be auto-sent.
+     * Returns the instances in the outbox that are due to be sent and need to be auto-sent.
+     *
+     * @param formLevelAutoSend the auto-send setting of the forms that have one, by form id
      */
     @NonNull
-    private List<Instance> getInstancesToAutoSend(boolean isAutoSendAppSettingEnabled) {
-        InstancesDao dao = new InstancesDao();
-        Cursor c = dao.getFinalizedInstancesCursor();
-        List<Instance> allFinalized = dao.getInstancesFromCursor(c);
+    private List<Instance> getInstancesToAutoSend(boolean isAutoSendAppSettingEnabled,
+                                                  Map<String, String> formLevelAutoSend) {
+        Cursor c = new OutboxDao().getEligibleInstancesCursor(System.currentTimeMillis());
+        List<Instance> eligible = new InstancesDao().getInstancesFromCursor(c);
 
         List<Instance> toUpload = new ArrayList<>();
-        for (Instance instance : allFinalized) {
-            if (formShouldBeAutoSent(instance.getJrFormId(), isAutoSendAppSettingEnabled)) {
+        for (Instance instance : eligible) {
+            String autoSend = formLevelAutoSend.get(instance.getJrFormId());
+            if (autoSend == null ? isAutoSendAppSettingEnabled : Boolean.valueOf(autoSend)) {
                 toUpload.add(instance);
             }
         }
@@ -223,6 +364,28 @@ public class AutoSendWorker extends Worker {
         return toUpload;
     }
 
+    /**
+     * Returns the auto-send setting of every form that specifies one, by form id, read with a
+     * single query.
+     */
+    @NonNull
+    private Map<String, String> getFormLevelAutoSend() {
+        Map<String, String> formLevelAutoSend = new HashMap<>();
+        try (Cursor cursor = new FormsDao().getFormsWithAutoSendCursor()) {
+            if (cursor != null) {
+                int formIdColumnIndex = cursor.getColumnIndex(JR_FORM_ID);
+                int autoSendColumnIndex = cursor.getColumnIndex(AUTO_SEND);
+                while (cursor.moveToNext()) {
+                    String formId = cursor.getString(formIdColumnIndex);
+                    if (!formLevelAutoSend.containsKey(formId)) {
+                        formLevelAutoSend.put(formId, cursor.getString(autoSendColumnIndex));
+                    }
+                }
+            }
+        }
+        return formLevelAutoSend;
+    }
+
     /**
      * Returns whether a form with the specified form_id should be auto-sent given the current
      * app-level auto-send settings. Returns false if there is no form with the specified form_id.
@@ -254,15 +417,10 @@ public class AutoSendWorker extends Worker {
      *
      * TODO: figure out where this should live
      */
-    private boolean atLeastOneFormSpecifiesAutoSend() {
-        FormsDao dao = new FormsDao();
-
-        try (Cursor cursor = dao.getFormsCursor()) {
-            List<Form> forms = dao.getFormsFromCursor(cursor);
-            for (Form form : forms) {
-                if (Boolean.valueOf(form.getAutoSend())) {
-                    return true;
-                }
+    private boolean atLeastOneFormSpecifiesAutoSend(Map<String, String> formLevelAutoSend) {
+        for (String autoSend : formLevelAutoSend.values()) {
+            if (Boolean.valueOf(autoSend)) {
+                return true;
             }
         }
         return false;
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.upload;
+
+import android.util.LruCache;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.xform.util.XFormUtils;
+import org.odk.collect.android.dto.Form;
+import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.utilities.FormDefCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import timber.log.Timber;
+
+/**
+ * Rebuilds filled-in instances on top of their blank form for the uploaders that need the data
+ * model, such as the Google Sheets one.
+ *
+ * Each form (id and version) is loaded once per upload session, from the FormDef cache when it
+ * is there, and kept as a template. Every instance is then imported into a copy of the
+ * template's blank data model instead of a freshly parsed form. Templates are dropped least
+ * recently used first once their forms add up to {@link #MAX_TEMPLATE_BYTES}, measured by the
+ * size of their XML files.
+ */
+class FormTemplateProvider {
+
+    private static final int MAX_TEMPLATE_BYTES = 4 * 1024 * 1024;
+
+    private final LruCache<String, Template> templates =
+            new LruCache<String, Template>(getTemplateCacheSize()) {
+                @Override
+                protected int sizeOf(String key, Template template) {
+                    return template.size;
+                }
+            };
+
+    /**
+     * Imports the instance file into the form and returns the root of the filled-in data model.
+     * The returned tree stays valid until the next instance of the same form is rebuilt.
+     */
+    TreeElement getInstanceElement(Form form, File instanceFile) throws UploadException {
+        final long start = System.currentTimeMillis();
+        Template template = getTemplate(form);
+
+        FormDef formDef = template.formDef;
+        // importData fills in a deep copy of the root it finds, so the blank root is never changed
+        // and this is the only copy made per instance
+        formDef.getMainInstance().setRoot(template.blankRoot);
+        FormLoaderTask.importData(instanceFile, new FormEntryController(new FormEntryModel(formDef)));
+
+        Timber.i("Rebuilt %s in %.3f seconds.", instanceFile.getName(),
+                (System.currentTimeMillis() - start) / 1000F);
+        return formDef.getMainInstance().getRoot();
+    }
+
+    private Template getTemplate(Form form) throws UploadException {
+        String key = form.getJrFormId() + " " + form.getJrVersion();
+        Template template = templates.get(key);
+        if (template == null) {
+            File formXml = new File(form.getFormFilePath());
+            template = new Template(loadFormDef(formXml), (int) Math.min(formXml.length(), Integer.MAX_VALUE));
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    private static FormDef loadFormDef(File formXml) throws UploadException {
+        FormDef formDef = FormDefCache.readCache(formXml);
+        if (formDef != null) {
+            return formDef;
+        }
+
+        final long start = System.currentTimeMillis();
+        try (InputStream is = new FileInputStream(formXml)) {
+            formDef = XFormUtils.getFormFromInputStream(is);
+        } catch (IOException e) {
+            throw new UploadException(e);
+        }
+        if (formDef == null) {
+            throw new UploadException("Error reading XForm file " + formXml.getName());
+        }
+        Timber.i("Loaded %s in %.3f seconds.", formXml.getName(),
+                (System.currentTimeMillis() - start) / 1000F);
+
+        try {
+            FormDefCache.writeCache(formDef, formXml.getAbsolutePath());
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+        return formDef;
+    }
+
+    private static int getTemplateCacheSize() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_TEMPLATE_BYTES);
+    }
+
+    private static class Template {
+        final FormDef formDef;
+        final TreeElement blankRoot;
+        final int size;
+
+        Template(FormDef formDef, int size) {
+            this.formDef = formDef;
+            this.blankRoot = formDef.getMainInstance().getRoot().deepCopy(true);
+            this.size = Math.max(size, 1);
+        }
+    }
+}
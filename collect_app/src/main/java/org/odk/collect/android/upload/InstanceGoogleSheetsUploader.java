@@ -25,14 +25,10 @@ import com.google.api.services.sheets.v4.model.Sheet;
 import com.google.api.services.sheets.v4.model.Spreadsheet;
 import com.google.api.services.sheets.v4.model.ValueRange;
 
-import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.util.PropertyUtils;
-import org.javarosa.form.api.FormEntryController;
-import org.javarosa.form.api.FormEntryModel;
-import org.javarosa.xform.util.XFormUtils;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
@@ -42,20 +38,18 @@ import org.odk.collect.android.exception.BadUrlException;
 import org.odk.collect.android.exception.MultipleFoldersFoundException;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.GeneralKeys;
-import org.odk.collect.android.tasks.FormLoaderTask;
 import org.odk.collect.android.utilities.UrlUtils;
 import org.odk.collect.android.utilities.gdrive.DriveHelper;
 import org.odk.collect.android.utilities.gdrive.GoogleAccountsManager;
 import org.odk.collect.android.utilities.gdrive.SheetsHelper;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,12 +68,25 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
     private static final String ALTITUDE_TITLE_POSTFIX = "-altitude";
     private static final String ACCURACY_TITLE_POSTFIX = "-accuracy";
 
+    /**
+     * The most instances {@link #uploadSubmissions(List, String)} should be given at once. Their
+     * rows are sent in one request per sheet, so a failure means all of them have to be resent.
+     */
+    public static final int MAX_INSTANCES_PER_BATCH = 10;
+
     private final GoogleAccountsManager accountsManager;
     private final DriveHelper driveHelper;
     private final SheetsHelper sheetsHelper;
+    private final FormTemplateProvider formTemplateProvider = new FormTemplateProvider();
 
     private Spreadsheet spreadsheet;
 
+    /**
+     * The header row of each sheet this uploader has written to, so that it only has to be read
+     * from the spreadsheet once per upload session.
+     */
+    private final Map<String, List<Object>> sheetHeaders = new HashMap<>();
+
     public InstanceGoogleSheetsUploader(GoogleAccountsManager accountsManager) {
         this.accountsManager = accountsManager;
         driveHelper = accountsManager.getDriveHelper();
@@ -118,30 +125,10 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
 
     @Override
     public String uploadOneSubmission(Instance instance, String spreadsheetUrl) throws UploadException {
-        File instanceFile = new File(instance.getInstanceFilePath());
-
-        // Get corresponding blank form and verify there is exactly 1
-        FormsDao dao = new FormsDao();
-        Cursor formCursor = dao.getFormsCursor(instance.getJrFormId(), instance.getJrVersion());
-        List<Form> forms = dao.getFormsFromCursor(formCursor);
-
+        Map<String, List<List<Object>>> rowsBySheet = new LinkedHashMap<>();
         try {
-            if (forms.size() != 1) {
-                throw new UploadException(Collect.getInstance().getString(R.string.not_exactly_one_blank_form_for_this_form_id));
-            }
-            Form form = forms.get(0);
-            String formFilePath = form.getFormFilePath();
-
-            TreeElement instanceElement = getInstanceElement(formFilePath, instanceFile);
-            setUpSpreadsheet(spreadsheetUrl);
-            if (hasRepeatableGroups(instanceElement)) {
-                createSheetsIfNeeded(instanceElement);
-            }
-            String key = getInstanceID(getChildElements(instanceElement));
-            if (key == null) {
-                key = PropertyUtils.genUUID();
-            }
-            insertRows(instance, instanceElement, null, key, instanceFile, spreadsheet.getSheets().get(0).getProperties().getTitle());
+            collectRows(instance, spreadsheetUrl, rowsBySheet);
+            appendRows(rowsBySheet);
         } catch (UploadException e) {
             saveFailedStatusToDatabase(instance);
             throw e;
@@ -152,6 +139,55 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         return null;
     }
 
+    /**
+     * Uploads several instances that go to the same spreadsheet, sending the rows of all of them
+     * in one append request per sheet.
+     *
+     * An instance whose rows can't be built fails on its own. If appending the rows fails, all
+     * instances that were part of the request fail.
+     *
+     * @return the exceptions of the instances that failed, the others were uploaded
+     */
+    public Map<Instance, UploadException> uploadSubmissions(List<Instance> instances, String spreadsheetUrl) {
+        Map<Instance, UploadException> failures = new HashMap<>();
+        List<Instance> batched = new ArrayList<>();
+        Map<String, List<List<Object>>> rowsBySheet = new LinkedHashMap<>();
+
+        for (Instance instance : instances) {
+            Map<String, List<List<Object>>> instanceRows = new LinkedHashMap<>();
+            try {
+                collectRows(instance, spreadsheetUrl, instanceRows);
+            } catch (UploadException e) {
+                saveFailedStatusToDatabase(instance);
+                failures.put(instance, e);
+                continue;
+            }
+
+            for (Map.Entry<String, List<List<Object>>> entry : instanceRows.entrySet()) {
+                List<List<Object>> rows = rowsBySheet.get(entry.getKey());
+                if (rows == null) {
+                    rowsBySheet.put(entry.getKey(), entry.getValue());
+                } else {
+                    rows.addAll(entry.getValue());
+                }
+            }
+            batched.add(instance);
+        }
+
+        try {
+            appendRows(rowsBySheet);
+            for (Instance instance : batched) {
+                saveSuccessStatusToDatabase(instance);
+            }
+        } catch (UploadException e) {
+            for (Instance instance : batched) {
+                saveFailedStatusToDatabase(instance);
+                failures.put(instance, e);
+            }
+        }
+        return failures;
+    }
+
     @Override
     @NonNull
     public String getUrlToSubmitTo(Instance instance, String deviceId, String overrideURL) {
@@ -163,15 +199,55 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 : urlString;
     }
 
-    private void insertRows(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle)
+    /**
+     * Builds the rows of the instance, for its main sheet and the sheets of its repeats, and adds
+     * them to rowsBySheet. Column headers are written to sheets that don't have them yet.
+     */
+    private void collectRows(Instance instance, String spreadsheetUrl, Map<String, List<List<Object>>> rowsBySheet)
             throws UploadException {
-        insertRow(instance, element, parentKey, key, instanceFile, sheetTitle);
+        File instanceFile = new File(instance.getInstanceFilePath());
+
+        // Get corresponding blank form and verify there is exactly 1
+        FormsDao dao = new FormsDao();
+        Cursor formCursor = dao.getFormsCursor(instance.getJrFormId(), instance.getJrVersion());
+        List<Form> forms = dao.getFormsFromCursor(formCursor);
+
+        if (forms.size() != 1) {
+            throw new UploadException(Collect.getInstance().getString(R.string.not_exactly_one_blank_form_for_this_form_id));
+        }
+        Form form = forms.get(0);
+
+        TreeElement instanceElement = formTemplateProvider.getInstanceElement(form, instanceFile);
+        setUpSpreadsheet(spreadsheetUrl);
+        if (hasRepeatableGroups(instanceElement)) {
+            createSheetsIfNeeded(instanceElement);
+        }
+        String key = getInstanceID(getChildElements(instanceElement));
+        if (key == null) {
+            key = PropertyUtils.genUUID();
+        }
+        collectRows(instance, instanceElement, null, key, instanceFile,
+                spreadsheet.getSheets().get(0).getProperties().getTitle(), rowsBySheet);
+    }
+
+    private void collectRows(Instance instance, TreeElement element, String parentKey, String key, File instanceFile,
+                             String sheetTitle, Map<String, List<List<Object>>> rowsBySheet) throws UploadException {
+        List<Object> row = getRow(instance, element, parentKey, key, instanceFile, sheetTitle);
+        if (row != null) {
+            List<List<Object>> rows = rowsBySheet.get(sheetTitle);
+            if (rows == null) {
+                rows = new ArrayList<>();
+                rowsBySheet.put(sheetTitle, rows);
+            }
+            rows.add(row);
+        }
 
         int repeatIndex = 0;
         for (int i = 0; i < element.getNumChildren(); i++) {
             TreeElement child = element.getChildAt(i);
             if (child.isRepeatable() && child.getMultiplicity() != TreeReference.INDEX_TEMPLATE) {
-                insertRows(instance, child, key, getKeyBasedOnParentKey(key, child.getName(), repeatIndex++), instanceFile, getElementTitle(child));
+                collectRows(instance, child, key, getKeyBasedOnParentKey(key, child.getName(), repeatIndex++),
+                        instanceFile, getElementTitle(child), rowsBySheet);
             }
             if (child.getMultiplicity() == TreeReference.INDEX_TEMPLATE) {
                 repeatIndex = 0;
@@ -186,23 +262,27 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 + "[" + (repeatIndex + 1) + "]";
     }
 
-    private void insertRow(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle)
+    /**
+     * Returns the row of the element's answers in the order of the sheet's columns, or null if it
+     * should not be inserted.
+     */
+    private List<Object> getRow(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle)
             throws UploadException {
         try {
-            List<List<Object>> sheetCells = getSheetCells(sheetTitle);
-            boolean newSheet = sheetCells == null || sheetCells.isEmpty();
+            List<Object> headers = getHeaders(sheetTitle);
+            boolean newSheet = headers.isEmpty();
             List<Object> columnTitles = getColumnTitles(element, newSheet);
             ensureNumberOfColumnsIsValid(columnTitles.size());
 
             if (!newSheet) { // we are editing an existed sheet
-                if (isAnyColumnHeaderEmpty(sheetCells.get(0))) {
+                if (isAnyColumnHeaderEmpty(headers)) {
                     // Insert a header row again to fill empty headers
                     sheetsHelper.updateRow(spreadsheet.getSpreadsheetId(), sheetTitle + "!A1",
                             new ValueRange().setValues(Collections.singletonList(columnTitles)));
-                    sheetCells = getSheetCells(sheetTitle); // read sheet cells again to update
+                    headers = readHeaders(sheetTitle); // read headers again to update
                 }
-                disallowMissingColumns(sheetCells.get(0), columnTitles);
-                addAltitudeAndAccuracyTitles(sheetCells.get(0), columnTitles);
+                disallowMissingColumns(headers, columnTitles);
+                addAltitudeAndAccuracyTitles(headers, columnTitles);
                 ensureNumberOfColumnsIsValid(columnTitles.size());  // Call again to ensure valid number of columns
 
             } else { // new sheet
@@ -210,16 +290,24 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 if (sheetId != null) {
                     sheetsHelper.resizeSpreadSheet(spreadsheet.getSpreadsheetId(), sheetId, columnTitles.size());
                 }
-                sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), sheetTitle,
+                sheetsHelper.updateRow(spreadsheet.getSpreadsheetId(), sheetTitle + "!A1",
                         new ValueRange().setValues(Collections.singletonList(columnTitles)));
-                sheetCells = getSheetCells(sheetTitle); // read sheet cells again to update
+                headers = readHeaders(sheetTitle); // read headers again to update
             }
 
             HashMap<String, String> answers = getAnswers(instance, element, columnTitles, instanceFile, parentKey, key);
 
-            if (shouldRowBeInserted(answers)) {
-                sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), sheetTitle,
-                        new ValueRange().setValues(Collections.singletonList(prepareListOfValues(sheetCells.get(0), columnTitles, answers))));
+            return shouldRowBeInserted(answers) ? prepareListOfValues(headers, columnTitles, answers) : null;
+        } catch (IOException e) {
+            throw new UploadException(e);
+        }
+    }
+
+    private void appendRows(Map<String, List<List<Object>>> rowsBySheet) throws UploadException {
+        try {
+            for (Map.Entry<String, List<List<Object>>> entry : rowsBySheet.entrySet()) {
+                sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), entry.getKey(),
+                        new ValueRange().setValues(entry.getValue()));
             }
         } catch (IOException e) {
             throw new UploadException(e);
@@ -292,17 +380,6 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         return UPLOADED_MEDIA_URL + uploadedFileId;
     }
 
-    private TreeElement getInstanceElement(String formFilePath, File instanceFile) throws UploadException {
-        FormDef formDef;
-        try {
-            formDef = XFormUtils.getFormFromInputStream(new FileInputStream(new File(formFilePath)));
-        } catch (FileNotFoundException e) {
-            throw new UploadException(e);
-        }
-        FormLoaderTask.importData(instanceFile, new FormEntryController(new FormEntryModel(formDef)));
-        return formDef.getMainInstance().getRoot();
-    }
-
     private boolean hasRepeatableGroups(TreeElement element) {
         for (int i = 0; i < element.getNumChildren(); i++) {
             TreeElement childElement = element.getChildAt(i);
@@ -317,12 +394,19 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         Set<String> sheetTitles = getSheetTitles(element);
 
         try {
+            boolean sheetAdded = false;
             for (String sheetTitle : sheetTitles) {
                 if (!doesSheetExist(sheetTitle)) {
                     sheetsHelper.addSheet(spreadsheet.getSpreadsheetId(), sheetTitle);
+                    sheetAdded = true;
                 }
             }
-            spreadsheet = sheetsHelper.getSpreadsheet(spreadsheet.getSpreadsheetId());
+            if (sheetAdded) {
+                // fetch the ids of the new sheets
+                String spreadsheetUrl = spreadsheet.getSpreadsheetUrl();
+                spreadsheet = sheetsHelper.getSpreadsheet(spreadsheet.getSpreadsheetId());
+                spreadsheet.setSpreadsheetUrl(spreadsheetUrl);
+            }
         } catch (IOException e) {
             throw new UploadException(e);
         }
@@ -527,8 +611,17 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         return list;
     }
 
-    private List<List<Object>> getSheetCells(String sheetTitle) throws IOException {
-        return sheetsHelper.getSheetCells(spreadsheet.getSpreadsheetId(), sheetTitle);
+    private List<Object> getHeaders(String sheetTitle) throws IOException {
+        List<Object> headers = sheetHeaders.get(sheetTitle);
+        return headers != null ? headers : readHeaders(sheetTitle);
+    }
+
+    private List<Object> readHeaders(String sheetTitle) throws IOException {
+        List<Object> headers = sheetsHelper.getHeaderRow(spreadsheet.getSpreadsheetId(), sheetTitle);
+        if (!headers.isEmpty()) {
+            sheetHeaders.put(sheetTitle, headers);
+        }
+        return headers;
     }
 
     private boolean isAnyColumnHeaderEmpty(List<Object> columnHeaders) {
@@ -545,6 +638,7 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
             try {
                 spreadsheet = sheetsHelper.getSpreadsheet(UrlUtils.getSpreadsheetID(urlString));
                 spreadsheet.setSpreadsheetUrl(urlString);
+                sheetHeaders.clear();
             } catch (GoogleJsonResponseException e) {
                 String message = e.getMessage();
                 if (e.getDetails() != null && e.getDetails().getCode() == 403) {
@@ -24,6 +24,7 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.http.HttpHeadResult;
 import org.odk.collect.android.http.OpenRosaHttpInterface;
+import org.odk.collect.android.http.UploadProgressListener;
 import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.ResponseMessageParser;
@@ -37,7 +38,9 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -46,10 +49,16 @@ import timber.log.Timber;
 public class InstanceServerUploader extends InstanceUploader {
     private static final String URL_PATH_SEP = "/";
     private static final String FAIL = "Error: ";
+    private static final String ACCEPT_CONTENT_LENGTH_HEADER = "X-OpenRosa-Accept-Content-Length";
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
 
     private final OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
     private final Map<Uri, Uri> uriRemap;
+    // Headers of the HEAD responses, by remapped uri, for what they say about the server
+    private final Map<Uri, Map<String, String>> serverHeaders = new ConcurrentHashMap<>();
+
+    private UploadProgressListener progressListener;
 
     public InstanceServerUploader(OpenRosaHttpInterface httpInterface,
                                   WebCredentialsUtils webCredentialsUtils,
@@ -124,6 +133,7 @@ public class InstanceServerUploader extends InstanceUploader {
                                         .encodedQuery(submissionUri.getEncodedQuery())
                                         .build();
                             }
+                            serverHeaders.put(newURI, responseHeaders);
                             uriRemap.put(submissionUri, newURI);
                             submissionUri = newURI;
                         } else {
@@ -180,8 +190,10 @@ public class InstanceServerUploader extends InstanceUploader {
         try {
             URI uri = URI.create(submissionUri.toString());
 
+            Map<String, String> headers = serverHeaders.get(submissionUri);
             messageParser = httpInterface.uploadSubmissionFile(files, submissionFile, uri,
-                    webCredentialsUtils.getCredentials(uri));
+                    webCredentialsUtils.getCredentials(uri), getMaxContentLength(headers),
+                    isGzipSupported(headers), progressListener);
 
             int responseCode = messageParser.getResponseCode();
 
@@ -220,6 +232,53 @@ public class InstanceServerUploader extends InstanceUploader {
         return null;
     }
 
+    /**
+     * Sets the listener to report the bytes sent to. It is called from the threads uploading.
+     */
+    public void setProgressListener(UploadProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the total size of the files of the instance, which is roughly what uploading it
+     * sends.
+     */
+    public static long getSubmissionSize(Instance instance) {
+        long size = 0;
+        File[] files = new File(instance.getInstanceFilePath()).getParentFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().startsWith(".")) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the largest request the server accepts, or 0 if it didn't say.
+     */
+    private static long getMaxContentLength(Map<String, String> headers) {
+        if (headers != null && headers.containsKey(ACCEPT_CONTENT_LENGTH_HEADER)) {
+            try {
+                return Long.parseLong(headers.get(ACCEPT_CONTENT_LENGTH_HEADER).trim());
+            } catch (NumberFormatException e) {
+                Timber.w("Invalid %s: %s", ACCEPT_CONTENT_LENGTH_HEADER, headers.get(ACCEPT_CONTENT_LENGTH_HEADER));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns whether the server advertised that it accepts gzip compressed requests, as
+     * described in RFC 7694.
+     */
+    private static boolean isGzipSupported(Map<String, String> headers) {
+        return headers != null && headers.containsKey(ACCEPT_ENCODING_HEADER)
+                && headers.get(ACCEPT_ENCODING_HEADER).toLowerCase(Locale.US).contains("gzip");
+    }
+
     private List<File> getFilesInParentDirectory(File instanceFile, File submissionFile, boolean openRosaServer) {
         List<File> files = new ArrayList<>();
 
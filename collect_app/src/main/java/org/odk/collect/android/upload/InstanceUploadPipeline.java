@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.upload;
+
+import org.odk.collect.android.dto.Instance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Uploads a list of instances with several submissions in flight at once.
+ *
+ * The first instance going to each destination is uploaded on its own, so that the HEAD request
+ * that finds out where and how to submit is only made once per destination. The
+ * {@link InstanceServerUploader} remembers its outcome, so the uploader has to be given a
+ * thread-safe uri remap map. The remaining instances are then uploaded by up to
+ * maxConcurrentUploads threads. If a destination requests authentication, its remaining instances
+ * are not attempted so that they can be retried once credentials have been entered.
+ *
+ * The uploader still saves the status of every instance to the database.
+ */
+public class InstanceUploadPipeline {
+
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 3;
+
+    public enum Ordering {
+        /** Instances may be submitted in any order. */
+        NONE,
+        /** Instances of the same form are submitted one after another, in the order given. */
+        PER_FORM
+    }
+
+    /**
+     * Receives the outcome of each upload. Calls are made from the upload threads but never at the
+     * same time.
+     */
+    public interface Listener {
+        void onUploaded(Instance instance, String customMessage);
+
+        void onFailed(Instance instance, UploadException e);
+
+        /** Checked before each upload starts, no more uploads are started once it returns true. */
+        boolean isCancelled();
+    }
+
+    private final InstanceUploader uploader;
+    private final int maxConcurrentUploads;
+    private final Ordering ordering;
+
+    private final Object listenerLock = new Object();
+
+    /**
+     * Creates a pipeline that uploads instances in any order, even several instances of the same
+     * form at a time, since the server does not rely on the order submissions arrive in.
+     */
+    public InstanceUploadPipeline(InstanceUploader uploader) {
+        this(uploader, DEFAULT_MAX_CONCURRENT_UPLOADS, Ordering.NONE);
+    }
+
+    public InstanceUploadPipeline(InstanceUploader uploader, int maxConcurrentUploads, Ordering ordering) {
+        this.uploader = uploader;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.ordering = ordering;
+    }
+
+    /**
+     * Uploads the instances and returns once all of them have been attempted or the listener
+     * reports that the upload is cancelled.
+     */
+    public void upload(List<Instance> instances, String deviceId, String overrideUrl, final Listener listener) {
+        final long start = System.currentTimeMillis();
+
+        final Map<Instance, String> destinationUrls = new HashMap<>();
+        Map<String, Instance> firstInstances = new LinkedHashMap<>();
+        for (Instance instance : instances) {
+            String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, overrideUrl);
+            destinationUrls.put(instance, destinationUrl);
+            if (!firstInstances.containsKey(destinationUrl)) {
+                firstInstances.put(destinationUrl, instance);
+            }
+        }
+
+        List<String> authRequestingUrls = new ArrayList<>();
+        for (Map.Entry<String, Instance> entry : firstInstances.entrySet()) {
+            if (listener.isCancelled()) {
+                return;
+            }
+            if (!upload(entry.getValue(), entry.getKey(), listener)) {
+                authRequestingUrls.add(entry.getKey());
+            }
+        }
+
+        Map<String, List<Instance>> lanes = new LinkedHashMap<>();
+        for (Instance instance : instances) {
+            String destinationUrl = destinationUrls.get(instance);
+            if (firstInstances.get(destinationUrl) == instance || authRequestingUrls.contains(destinationUrl)) {
+                continue;
+            }
+
+            String laneKey = ordering == Ordering.PER_FORM
+                    ? instance.getJrFormId()
+                    : String.valueOf(instance.getDatabaseId());
+            List<Instance> lane = lanes.get(laneKey);
+            if (lane == null) {
+                lane = new ArrayList<>();
+                lanes.put(laneKey, lane);
+            }
+            lane.add(instance);
+        }
+
+        if (!lanes.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(lanes.size(), maxConcurrentUploads)));
+            try {
+                List<Future<Void>> uploads = new ArrayList<>();
+                for (final List<Instance> lane : lanes.values()) {
+                    uploads.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            for (Instance instance : lane) {
+                                if (listener.isCancelled()) {
+                                    return null;
+                                }
+                                upload(instance, destinationUrls.get(instance), listener);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> upload : uploads) {
+                    upload.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        Timber.i("Uploaded %d instances in %.3f seconds.", instances.size(),
+                (System.currentTimeMillis() - start) / 1000F);
+    }
+
+    /**
+     * Uploads one instance and reports the outcome to the listener.
+     *
+     * @return false if the server requested authentication
+     */
+    private boolean upload(Instance instance, String destinationUrl, Listener listener) {
+        try {
+            String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
+            synchronized (listenerLock) {
+                listener.onUploaded(instance, customMessage);
+            }
+            return true;
+        } catch (UploadException e) {
+            synchronized (listenerLock) {
+                listener.onFailed(instance, e);
+            }
+            return !(e instanceof UploadAuthRequestedException);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.upload;
+
+import org.odk.collect.android.http.UploadProgressListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the bytes sent by all the uploads in flight and reports the share of the expected
+ * total that has been sent, each time it grows by a percent.
+ */
+public abstract class UploadProgressTracker implements UploadProgressListener {
+
+    private final long totalBytes;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger lastPercentSent = new AtomicInteger(-1);
+
+    public UploadProgressTracker(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    @Override
+    public void onBytesSent(long byteCount) {
+        if (totalBytes <= 0) {
+            return;
+        }
+
+        // Requests carry a bit more than the files and may get sent twice, hence the cap
+        int percentSent = (int) Math.min(100 * bytesSent.addAndGet(byteCount) / totalBytes, 100);
+        int lastPercent = lastPercentSent.get();
+        if (percentSent > lastPercent && lastPercentSent.compareAndSet(lastPercent, percentSent)) {
+            onPercentSent(percentSent);
+        }
+    }
+
+    /**
+     * Called from the upload threads when another percent of the bytes have been sent.
+     */
+    protected abstract void onPercentSent(int percentSent);
+}
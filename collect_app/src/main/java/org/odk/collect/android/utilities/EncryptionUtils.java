@@ -32,15 +32,19 @@ import org.odk.collect.android.logic.FormController.InstanceMetadata;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -53,10 +57,15 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -99,6 +108,10 @@ public class EncryptionUtils {
     private static final String NEW_LINE = "\n";
     private static final String ENCRYPTION_PROVIDER = "BC";
 
+    private static final int MAX_ENCRYPTION_THREADS = 3;
+    private static final int ENCRYPTION_BUFFER_SIZE = 64 * 1024;
+    private static final int ENCRYPTION_CANCEL_TIMEOUT_SECONDS = 10;
+
     private EncryptionUtils() {
     }
 
@@ -175,7 +188,10 @@ public class EncryptionUtils {
         }
 
         public void appendFileSignatureSource(File file) {
-            String md5Hash = FileUtils.getMd5Hash(file);
+            appendFileSignatureSource(file, FileUtils.getMd5Hash(file));
+        }
+
+        public void appendFileSignatureSource(File file, String md5Hash) {
             appendElementSignatureSource(file.getName() + "::" + md5Hash);
         }
 
@@ -378,52 +394,61 @@ public class EncryptionUtils {
         return new EncryptedFormInformation(formId, formVersion, instanceMetadata, pk);
     }
 
-    private static void encryptFile(File file, EncryptedFormInformation formInfo)
-            throws IOException, EncryptionException {
+    /**
+     * Streams the file through the cipher into a sibling file with an ".enc" suffix. Only one
+     * buffer of plaintext is held in memory, and the encrypted file is synced to disk once it is
+     * completely written.
+     *
+     * @return the md5 hash of the plaintext, computed while encrypting
+     */
+    private static String encryptFile(File file, Cipher cipher) throws EncryptionException {
         File encryptedFile = new File(file.getParentFile(), file.getName()
                 + ".enc");
 
-        if (encryptedFile.exists() && !encryptedFile.delete()) {
-            throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath()
-                    + ". Perhaps the file is locked?");
-        }
-
-        // add elementSignatureSource for this file...
-        formInfo.appendFileSignatureSource(file);
-
-        RandomAccessFile randomAccessFile = null;
-        CipherOutputStream cipherOutputStream = null;
+        final long start = System.currentTimeMillis();
+        FileOutputStream fileOutputStream = null;
         try {
-            Cipher c = formInfo.getCipher();
-
-            randomAccessFile = new RandomAccessFile(encryptedFile, "rws");
-            ByteArrayOutputStream encryptedData = new ByteArrayOutputStream();
-            cipherOutputStream = new CipherOutputStream(encryptedData, c);
-            InputStream fin = new FileInputStream(file);
-            byte[] buffer = new byte[2048];
-            int len = fin.read(buffer);
-            while (len != -1) {
-                cipherOutputStream.write(buffer, 0, len);
-                len = fin.read(buffer);
+            if (encryptedFile.exists() && !encryptedFile.delete()) {
+                throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath()
+                        + ". Perhaps the file is locked?");
+            }
+
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            fileOutputStream = new FileOutputStream(encryptedFile);
+            OutputStream out = new BufferedOutputStream(fileOutputStream, ENCRYPTION_BUFFER_SIZE);
+            try (InputStream in = new DigestInputStream(new FileInputStream(file), md)) {
+                byte[] buffer = new byte[ENCRYPTION_BUFFER_SIZE];
+                byte[] encrypted = new byte[cipher.getOutputSize(ENCRYPTION_BUFFER_SIZE) + cipher.getBlockSize()];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Encryption cancelled");
+                    }
+                    out.write(encrypted, 0, cipher.update(buffer, 0, len, encrypted));
+                }
+                out.write(cipher.doFinal());
             }
-            fin.close();
-            cipherOutputStream.flush();
-            cipherOutputStream.close();
+            out.flush();
+            fileOutputStream.getFD().sync();
 
-            randomAccessFile.write(encryptedData.toByteArray());
+            Timber.i("Encrypted %s -> %s in %.3f seconds (%.2f MB)", file.getName(), encryptedFile.getName(),
+                    (System.currentTimeMillis() - start) / 1000F, file.length() / (1024F * 1024F));
 
-            Timber.i("Encrpyted:%s -> %s", file.getName(), encryptedFile.getName());
+            StringBuilder md5 = new StringBuilder(new BigInteger(1, md.digest()).toString(16));
+            while (md5.length() < 32) {
+                md5.insert(0, "0");
+            }
+            return md5.toString();
         } catch (Exception e) {
             String msg = "Error encrypting: " + file.getName() + " -> "
                     + encryptedFile.getName();
             Timber.e(e, "%s due to %s ", msg, e.getMessage());
+            // don't leave a truncated file behind
+            IOUtils.closeQuietly(fileOutputStream);
+            encryptedFile.delete();
             throw new EncryptionException(msg, e);
         } finally {
-            IOUtils.closeQuietly(cipherOutputStream);
-
-            if (randomAccessFile != null) {
-                randomAccessFile.close();
-            }
+            IOUtils.closeQuietly(fileOutputStream);
         }
     }
 
@@ -482,15 +507,101 @@ public class EncryptionUtils {
                 filesToProcess.add(f);
             }
         }
-        // encrypt here...
-        for (File f : filesToProcess) {
-            encryptFile(f, formInfo);
+        // the submission.xml is encrypted as the last file
+        List<File> filesToEncrypt = new ArrayList<>(filesToProcess);
+        filesToEncrypt.add(submissionXml);
+        encryptFiles(filesToEncrypt, formInfo);
+
+        return filesToProcess;
+    }
+
+    /**
+     * Encrypts the files on up to {@link #MAX_ENCRYPTION_THREADS} threads. The ciphers are
+     * created up front and the file signatures appended afterwards, both in the order of the
+     * files, because the IV of each file and the manifest signature depend on that order.
+     * If any file fails, the others are cancelled and no encrypted file is left behind.
+     */
+    private static void encryptFiles(List<File> files, EncryptedFormInformation formInfo)
+            throws EncryptionException {
+        final long start = System.currentTimeMillis();
+        long totalLength = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(files.size(), MAX_ENCRYPTION_THREADS)));
+        List<Future<String>> md5Hashes = new ArrayList<>();
+        boolean encrypted = false;
+        try {
+            for (final File file : files) {
+                final Cipher cipher;
+                try {
+                    cipher = formInfo.getCipher();
+                } catch (GeneralSecurityException e) {
+                    throw new EncryptionException("Error encrypting: " + file.getName(), e);
+                }
+                totalLength += file.length();
+                md5Hashes.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws EncryptionException {
+                        return encryptFile(file, cipher);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                formInfo.appendFileSignatureSource(files.get(i), getEncryptionResult(md5Hashes.get(i)));
+            }
+            encrypted = true;
+        } finally {
+            if (!encrypted) {
+                cancelEncryption(files, md5Hashes, executor);
+            }
+            executor.shutdownNow();
+        }
+
+        float seconds = (System.currentTimeMillis() - start) / 1000F;
+        float megabytes = totalLength / (1024F * 1024F);
+        Timber.i("Encrypted %d files (%.2f MB) in %.3f seconds, %.3f seconds per MB",
+                files.size(), megabytes, seconds, megabytes > 0 ? seconds / megabytes : 0);
+    }
+
+    /**
+     * Interrupts the encryptions still running, waits for them to stop and deletes the encrypted
+     * files that were already written.
+     */
+    private static void cancelEncryption(List<File> files, List<Future<String>> md5Hashes,
+            ExecutorService executor) {
+        for (Future<String> md5Hash : md5Hashes) {
+            md5Hash.cancel(true);
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(ENCRYPTION_CANCEL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Timber.w("Encryption threads did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
-        // encrypt the submission.xml as the last file...
-        encryptFile(submissionXml, formInfo);
+        for (File file : files) {
+            File encryptedFile = new File(file.getParentFile(), file.getName() + ".enc");
+            if (encryptedFile.isFile() && !encryptedFile.delete()) {
+                Timber.w("Unable to delete %s", encryptedFile.getAbsolutePath());
+            }
+        }
+    }
 
-        return filesToProcess;
+    private static String getEncryptionResult(Future<String> future) throws EncryptionException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EncryptionException) {
+                throw (EncryptionException) e.getCause();
+            }
+            throw new EncryptionException("Error encrypting submission files", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncryptionException("Interrupted while encrypting submission files", e);
+        }
     }
 
     /**
@@ -24,10 +24,6 @@ import android.net.Uri;
 import android.os.Build;
 
 import org.apache.commons.io.IOUtils;
-import org.javarosa.xform.parse.XFormParser;
-import org.kxml2.kdom.Document;
-import org.kxml2.kdom.Element;
-import org.kxml2.kdom.Node;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 
@@ -37,17 +33,20 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.FileNameMap;
 import java.net.URLConnection;
 import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import timber.log.Timber;
 
@@ -67,6 +66,8 @@ public class FileUtils {
     public static final String BASE64_RSA_PUBLIC_KEY = "base64RsaPublicKey";
     public static final String AUTO_DELETE = "autoDelete";
     public static final String AUTO_SEND = "autoSend";
+
+    private static final int MAX_DELETION_THREADS = 4;
     static int bufSize = 16 * 1024; // May be set by unit test
 
     private FileUtils() {
@@ -195,8 +196,6 @@ public class FileUtils {
         if (upscaleEnabled) {
             // Load full size bitmap image
             options = new BitmapFactory.Options();
-            options.inInputShareable = true;
-            options.inPurgeable = true;
             bitmap = getBitmap(file.getAbsolutePath(), options);
 
             double heightScale = ((double) (options.outHeight)) / screenHeight;
@@ -217,8 +216,6 @@ public class FileUtils {
 
             // get bitmap with scale ( < 1 is the same as 1)
             options = new BitmapFactory.Options();
-            options.inInputShareable = true;
-            options.inPurgeable = true;
             options.inSampleSize = (int) scale;
             bitmap = getBitmap(file.getAbsolutePath(), options);
         }
@@ -281,123 +278,82 @@ public class FileUtils {
         }
     }
 
-    public static HashMap<String, String> parseXML(File xmlFile) {
-        final HashMap<String, String> fields = new HashMap<String, String>();
-        final InputStream is;
-        try {
-            is = new FileInputStream(xmlFile);
-        } catch (FileNotFoundException e1) {
-            Timber.d(e1);
-            throw new IllegalStateException(e1);
-        }
-
-        InputStreamReader isr;
-        try {
-            isr = new InputStreamReader(is, "UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            Timber.w(uee, "Trying default encoding as UTF 8 encoding unavailable");
-            isr = new InputStreamReader(is);
-        }
-
-        final Document doc;
-        try {
-            doc = XFormParser.getXMLDocument(isr);
-        } catch (IOException e) {
-            Timber.e(e, "Unable to parse XML document %s", xmlFile.getAbsolutePath());
-            throw new IllegalStateException("Unable to parse XML document", e);
-        } finally {
-            try {
-                isr.close();
-            } catch (IOException e) {
-                Timber.w("%s error closing from reader", xmlFile.getAbsolutePath());
+    public static void deleteAndReport(File file) {
+        if (file != null && file.exists()) {
+            // remove garbage
+            if (!file.delete()) {
+                Timber.w("%s will be deleted upon exit.", file.getAbsolutePath());
+                file.deleteOnExit();
+            } else {
+                Timber.w("%s has been deleted.", file.getAbsolutePath());
             }
         }
+    }
 
-        final String xforms = "http://www.w3.org/2002/xforms";
-        final String html = doc.getRootElement().getNamespace();
-
-        final Element head = doc.getRootElement().getElement(html, "head");
-        final Element title = head.getElement(html, "title");
-        if (title != null) {
-            fields.put(TITLE, XFormParser.getXMLText(title, true));
-        }
-
-        final Element model = getChildElement(head, "model");
-        Element cur = getChildElement(model, "instance");
-
-        final int idx = cur.getChildCount();
-        int i;
-        for (i = 0; i < idx; ++i) {
-            if (cur.isText(i)) {
-                continue;
-            }
-            if (cur.getType(i) == Node.ELEMENT) {
-                break;
+    /**
+     * Deletes the files directly in each of the directories and then the directories themselves,
+     * several directories at once.
+     *
+     * @return the number of bytes freed
+     */
+    public static long deleteDirectoriesInParallel(List<File> directories) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(directories.size(), MAX_DELETION_THREADS)));
+        try {
+            List<Future<Long>> deletions = new ArrayList<>();
+            for (final File directory : directories) {
+                deletions.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return deleteDirectory(directory);
+                    }
+                }));
             }
-        }
 
-        if (i < idx) {
-            cur = cur.getElement(i); // this is the first data element
-            final String id = cur.getAttributeValue(null, "id");
-
-            final String version = cur.getAttributeValue(null, "version");
-            final String uiVersion = cur.getAttributeValue(null, "uiVersion");
-            if (uiVersion != null) {
-                // pre-OpenRosa 1.0 variant of spec
-                Timber.e("Obsolete use of uiVersion -- IGNORED -- only using version: %s",
-                        version);
+            long bytesFreed = 0;
+            for (Future<Long> deletion : deletions) {
+                bytesFreed += deletion.get();
             }
-
-            fields.put(FORMID, (id == null) ? cur.getNamespace() : id);
-            fields.put(VERSION, (version == null) ? null : version);
-        } else {
-            throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
-        }
-        try {
-            final Element submission = model.getElement(xforms, "submission");
-            final String base64RsaPublicKey = submission.getAttributeValue(null, "base64RsaPublicKey");
-            final String autoDelete = submission.getAttributeValue(null, "auto-delete");
-            final String autoSend = submission.getAttributeValue(null, "auto-send");
-
-            fields.put(SUBMISSIONURI, submission.getAttributeValue(null, "action"));
-            fields.put(BASE64_RSA_PUBLIC_KEY,
-                    (base64RsaPublicKey == null || base64RsaPublicKey.trim().length() == 0)
-                            ? null : base64RsaPublicKey.trim());
-            fields.put(AUTO_DELETE, autoDelete);
-            fields.put(AUTO_SEND, autoSend);
-        } catch (Exception e) {
-            Timber.i("XML file %s does not have a submission element", xmlFile.getAbsolutePath());
-            // and that's totally fine.
+            return bytesFreed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-
-        return fields;
     }
 
-    // needed because element.getelement fails when there are attributes
-    private static Element getChildElement(Element parent, String childName) {
-        Element e = null;
-        int c = parent.getChildCount();
-        int i = 0;
-        for (i = 0; i < c; i++) {
-            if (parent.getType(i) == Node.ELEMENT) {
-                if (parent.getElement(i).getName().equalsIgnoreCase(childName)) {
-                    return parent.getElement(i);
+    private static long deleteDirectory(File directory) {
+        long bytesFreed = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // should make this recursive if we get worried about
+                // the media directory containing directories
+                long length = file.length();
+                if (file.delete()) {
+                    bytesFreed += length;
                 }
             }
         }
-        return e;
+        directory.delete();
+        return bytesFreed;
     }
 
-    public static void deleteAndReport(File file) {
-        if (file != null && file.exists()) {
-            // remove garbage
-            if (!file.delete()) {
-                Timber.w("%s will be deleted upon exit.", file.getAbsolutePath());
-                file.deleteOnExit();
-            } else {
-                Timber.w("%s has been deleted.", file.getAbsolutePath());
+    /**
+     * Returns the total size of the files directly in the directory.
+     */
+    public static long getDirectorySize(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
             }
         }
+        return size;
     }
 
     public static String constructMediaPath(String formFilePath) {
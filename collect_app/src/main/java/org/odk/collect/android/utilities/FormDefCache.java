@@ -1,9 +1,14 @@
 package org.odk.collect.android.utilities;
 
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.odk.collect.android.application.Collect;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -13,9 +18,37 @@ import java.io.IOException;
 
 import timber.log.Timber;
 
-/** Methods for reading from and writing to the FormDef cache */
+/**
+ * Methods for reading from and writing to the FormDef cache.
+ *
+ * Each cache file starts with a small versioned header holding the signature (path, size,
+ * last modified) and the MD5 of the form it was built from. A matching {@code .key} file per
+ * form path lets us find the cache file without re-hashing the XForm as long as its signature
+ * is unchanged.
+ *
+ * Recently used cache files are also kept in a size-bounded in-memory LRU. That LRU only saves
+ * reading the file again: the FormDef is still deserialized on every read, because callers
+ * initialize and fill in the FormDef they get and so each of them needs its own copy.
+ */
 public class FormDefCache {
 
+    /** Bump whenever the on-disk layout of the header or the serialized FormDef changes. */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x4f444b46; // "ODKF"
+    private static final String CACHE_EXTENSION = ".formdef";
+    private static final String KEY_EXTENSION = ".key";
+    private static final int MAX_IMAGE_CACHE_BYTES = 16 * 1024 * 1024;
+
+    /** The contents of recently used cache files, by form MD5. */
+    private static final LruCache<String, byte[]> IMAGES =
+            new LruCache<String, byte[]>(getImageCacheSize()) {
+                @Override
+                protected int sizeOf(String md5, byte[] image) {
+                    return image.length;
+                }
+            };
+
     private FormDefCache() {
         // Private constructor
     }
@@ -30,17 +63,26 @@ public class FormDefCache {
      */
     public static void writeCache(FormDef formDef, String formPath) throws IOException {
         final long formSaveStart = System.currentTimeMillis();
-        File cachedFormDefFile = FormDefCache.getCacheFile(new File(formPath));
+        final File formXml = new File(formPath);
+        final FormSignature signature = getSignature(formXml);
+        if (signature == null) {
+            Timber.w("Unable to compute the signature of %s, not caching it", formPath);
+            return;
+        }
+
+        File cachedFormDefFile = getCacheFile(signature.md5);
         final File tempCacheFile = File.createTempFile("cache", null,
                 new File(Collect.CACHE_PATH));
         Timber.i("Started saving %s to the cache via temp file %s",
                 formDef.getTitle(), tempCacheFile.getName());
 
         Exception caughtException = null;
+        byte[] image = null;
         try {
-            DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempCacheFile));
-            formDef.writeExternal(dos);
-            dos.close();
+            image = serialize(formDef, signature);
+            FileOutputStream fos = new FileOutputStream(tempCacheFile);
+            fos.write(image);
+            fos.close();
         } catch (IOException exception) {
             caughtException = exception;
         }
@@ -58,6 +100,7 @@ public class FormDefCache {
             if (tempCacheFile.renameTo(cachedFormDefFile)) {
                 Timber.i("Renamed %s to %s",
                         tempCacheFile.getName(), cachedFormDefFile.getName());
+                IMAGES.put(signature.md5, image);
                 Timber.i("Caching %s took %.3f seconds.", formDef.getTitle(),
                         (System.currentTimeMillis() - formSaveStart) / 1000F);
             } else {
@@ -73,23 +116,44 @@ public class FormDefCache {
 
     /**
      * If a form is present in the cache, deserializes and returns it as as FormDef.
+     * The returned FormDef is always a fresh copy that the caller is free to initialize.
      * @param formXml a File containing the XML version of the form
      * @return a FormDef, or null if the form is not present in the cache
      */
     public static FormDef readCache(File formXml) {
-        final File cachedForm = getCacheFile(formXml);
+        final FormSignature signature = getSignature(formXml);
+        if (signature == null) {
+            return null;
+        }
+
+        final long start = System.currentTimeMillis();
+        byte[] image = IMAGES.get(signature.md5);
+        if (image != null) {
+            FormDef formDef = deserializeFormDef(image, signature.md5);
+            if (formDef != null) {
+                Timber.i("Deserialized %s from the in-memory cache in %.3f seconds.",
+                        formXml.getName(), (System.currentTimeMillis() - start) / 1000F);
+                return formDef;
+            }
+            IMAGES.remove(signature.md5);
+        }
+
+        final File cachedForm = getCacheFile(signature.md5);
         if (cachedForm.exists()) {
             Timber.i("Attempting to load %s from cached file: %s.",
                     formXml.getName(), cachedForm.getName());
-            final long start = System.currentTimeMillis();
-            final FormDef deserializedFormDef = deserializeFormDef(cachedForm);
+            image = readImage(cachedForm);
+            final FormDef deserializedFormDef = image != null
+                    ? deserializeFormDef(image, signature.md5)
+                    : null;
             if (deserializedFormDef != null) {
+                IMAGES.put(signature.md5, image);
                 Timber.i("Loaded in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
                 return deserializedFormDef;
             }
 
-            // An error occurred with deserialization. Remove the file, and make a
-            // new .formdef from xml.
+            // An error occurred with deserialization or the file was written by an older
+            // version. Remove the file, and make a new .formdef from xml.
             Timber.w("Deserialization FAILED! Deleting cache file: %s",
                     cachedForm.getAbsolutePath());
             cachedForm.delete();
@@ -97,24 +161,139 @@ public class FormDefCache {
         return null;
     }
 
+    /**
+     * Drops all in-memory copies of cache files. The files on disk are left untouched.
+     */
+    public static void clearMemoryCache() {
+        IMAGES.evictAll();
+    }
+
     /**
      * Builds and returns a File object for the cached version of a form.
-     * @param formXml the File containing the XML form
+     * @param md5 the MD5 hash of the XML form
      * @return a File object
      */
-    private static File getCacheFile(File formXml) {
-        return new File(Collect.CACHE_PATH + File.separator +
-                FileUtils.getMd5Hash(formXml) + ".formdef");
+    private static File getCacheFile(String md5) {
+        return new File(Collect.CACHE_PATH + File.separator + md5 + CACHE_EXTENSION);
+    }
+
+    /**
+     * Deletes the key file of the given form, e.g. when the form is deleted or replaced.
+     */
+    public static void deleteKey(File formXml) {
+        File keyFile = getKeyFile(formXml);
+        if (keyFile.exists() && !keyFile.delete()) {
+            Timber.w("Unable to delete cache key %s", keyFile.getName());
+        }
+    }
+
+    @VisibleForTesting
+    static File getKeyFile(File formXml) {
+        return new File(Collect.CACHE_PATH + File.separator
+                + FileUtils.getMd5Hash(new ByteArrayInputStream(formXml.getAbsolutePath().getBytes()))
+                + CACHE_EXTENSION + KEY_EXTENSION);
+    }
+
+    /**
+     * Returns the signature of the given form. The MD5 is taken from the key file when the
+     * path, size and last modified time still match, and only recomputed otherwise.
+     */
+    static FormSignature getSignature(File formXml) {
+        if (!formXml.exists()) {
+            return null;
+        }
+
+        final String path = formXml.getAbsolutePath();
+        final long size = formXml.length();
+        final long lastModified = formXml.lastModified();
+
+        final File keyFile = getKeyFile(formXml);
+        if (keyFile.exists()) {
+            FormSignature stored = readKey(keyFile);
+            if (stored != null && stored.matches(path, size, lastModified)) {
+                return stored;
+            }
+        }
+
+        final String md5 = FileUtils.getMd5Hash(formXml);
+        if (md5 == null) {
+            return null;
+        }
+
+        FormSignature signature = new FormSignature(path, size, lastModified, md5);
+        writeKey(keyFile, signature);
+        return signature;
     }
 
-    private static FormDef deserializeFormDef(File serializedFormDef) {
-        FileInputStream fis;
+    private static FormSignature readKey(File keyFile) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(keyFile))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return FormSignature.read(dis);
+        } catch (IOException e) {
+            Timber.w(e, "Unable to read cache key %s", keyFile.getName());
+            return null;
+        }
+    }
+
+    private static void writeKey(File keyFile, FormSignature signature) {
+        try {
+            File tempKeyFile = File.createTempFile("key", null, new File(Collect.CACHE_PATH));
+            try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempKeyFile))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(FORMAT_VERSION);
+                signature.write(dos);
+            }
+            if (!tempKeyFile.renameTo(keyFile)) {
+                Timber.w("Unable to rename temporary key file to %s", keyFile.getName());
+                tempKeyFile.delete();
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Unable to write cache key %s", keyFile.getName());
+        }
+    }
+
+    private static byte[] serialize(FormDef formDef, FormSignature signature) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(MAGIC);
+        dos.writeInt(FORMAT_VERSION);
+        signature.write(dos);
+        formDef.writeExternal(dos);
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads a whole cache file with a single read into an array of its size.
+     */
+    private static byte[] readImage(File cachedForm) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(cachedForm))) {
+            byte[] image = new byte[(int) cachedForm.length()];
+            dis.readFully(image);
+            return image;
+        } catch (IOException e) {
+            Timber.e(e);
+            return null;
+        }
+    }
+
+    private static FormDef deserializeFormDef(byte[] image, String expectedMd5) {
         FormDef fd;
         try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(image));
+            if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION) {
+                Timber.w("Cache file has an unknown format");
+                return null;
+            }
+            if (!FormSignature.read(dis).md5.equals(expectedMd5)) {
+                Timber.w("Cache file does not match the form it is named after");
+                return null;
+            }
+
             // create new form def
             fd = new FormDef();
-            fis = new FileInputStream(serializedFormDef);
-            DataInputStream dis = new DataInputStream(fis);
 
             // read serialized formdef into new formdef
             fd.readExternal(dis, ExtUtil.defaultPrototypes());
@@ -126,4 +305,38 @@ public class FormDefCache {
 
         return fd;
     }
+
+    private static int getImageCacheSize() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_IMAGE_CACHE_BYTES);
+    }
+
+    /** The path, size, last modified time and MD5 of a form file. */
+    static class FormSignature {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String md5;
+
+        FormSignature(String path, long size, long lastModified, String md5) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.md5 = md5;
+        }
+
+        boolean matches(String path, long size, long lastModified) {
+            return this.path.equals(path) && this.size == size && this.lastModified == lastModified;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeUTF(path);
+            dos.writeLong(size);
+            dos.writeLong(lastModified);
+            dos.writeUTF(md5);
+        }
+
+        static FormSignature read(DataInputStream dis) throws IOException {
+            return new FormSignature(dis.readUTF(), dis.readLong(), dis.readLong(), dis.readUTF());
+        }
+    }
 }
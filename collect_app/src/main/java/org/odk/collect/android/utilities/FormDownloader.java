@@ -25,22 +25,35 @@ import org.kxml2.kdom.Element;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.external.ExternalDataPreparationWorker;
 import org.odk.collect.android.http.CollectServerClient;
+import org.odk.collect.android.http.HttpConnectionPool;
+import org.odk.collect.android.http.HttpGetResult;
 import org.odk.collect.android.listeners.FormDownloaderListener;
 import org.odk.collect.android.logic.FormDetails;
 import org.odk.collect.android.logic.MediaFile;
 import org.odk.collect.android.provider.FormsProviderAPI;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -50,6 +63,17 @@ public class FormDownloader {
 
     private static final String MD5_COLON_PREFIX = "md5:";
     private static final String TEMP_DOWNLOAD_EXTENSION = ".tempDownload";
+    private static final String VALIDATOR_EXTENSION = ".validator";
+    private static final long STALE_PARTIAL_DOWNLOAD_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 2;
+    private static final int MAX_ATTEMPT_COUNT = 10;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+    private static final long MEDIA_DOWNLOAD_SHUTDOWN_TIMEOUT_SECONDS = 30;
+    // as many as the connection pool keeps open to one server
+    private static final int MAX_CONCURRENT_MEDIA_DOWNLOADS = HttpConnectionPool.DEFAULT_MAX_PER_ROUTE;
 
     private FormDownloaderListener stateListener;
 
@@ -95,6 +119,8 @@ public class FormDownloader {
 
         final HashMap<FormDetails, String> result = new HashMap<>();
 
+        deleteStalePartialDownloads();
+
         for (FormDetails fd : toDownload) {
             try {
                 String message = processOneForm(total, count++, fd);
@@ -105,6 +131,7 @@ public class FormDownloader {
             }
         }
 
+        Timber.i("Downloaded %d forms: %s", result.size(), HttpConnectionPool.getStatistics());
         return result;
     }
 
@@ -168,7 +195,7 @@ public class FormDownloader {
             try {
                 final long start = System.currentTimeMillis();
                 Timber.w("Parsing document %s", fileResult.file.getAbsolutePath());
-                parsedFields = FileUtils.parseXML(fileResult.file);
+                parsedFields = XmlMetadataParser.parseFormMetadata(fileResult.file);
                 Timber.i("Parse finished in %.3f seconds.",
                         (System.currentTimeMillis() - start) / 1000F);
             } catch (RuntimeException e) {
@@ -208,6 +235,9 @@ public class FormDownloader {
             if (tempMediaPath != null) {
                 File formMediaPath = new File(uriResult.getMediaPath());
                 FileUtils.moveMediaFiles(tempMediaPath, formMediaPath);
+
+                // import external data now rather than when the form is first opened
+                ExternalDataPreparationWorker.enqueue(formMediaPath);
             }
         } catch (IOException e) {
             Timber.e(e);
@@ -370,88 +400,138 @@ public class FormDownloader {
      * <p>
      * SurveyCTO: The file is saved into a temp folder and is moved to the final place if everything
      * is okay, so that garbage is not left over on cancel.
+     * <p>
+     * The temp file is named after the url and kept, along with the ETag or Last-Modified value of
+     * the response, when a transfer fails. The next attempt, even after the app was restarted,
+     * then only asks the server for the rest of the file.
      *
      * @param file        the final file
      * @param downloadUrl the url to get the contents from.
      */
     private void downloadFile(File file, String downloadUrl)
             throws IOException, TaskCancelledException, URISyntaxException, Exception {
-        File tempFile = File.createTempFile(file.getName(), TEMP_DOWNLOAD_EXTENSION,
-                new File(Collect.CACHE_PATH));
+        File tempFile = getPartialDownloadFile(downloadUrl);
+        File validatorFile = new File(tempFile.getAbsolutePath() + VALIDATOR_EXTENSION);
 
         // WiFi network connections can be renegotiated during a large form download sequence.
-        // This will cause intermittent download failures.  Silently retry once after each
-        // failure.  Only if there are two consecutive failures do we abort.
+        // This will cause intermittent download failures.  Silently retry, continuing where the
+        // failed attempt stopped.  Only if there are two consecutive failures that did not get
+        // any data do we abort.
         boolean success = false;
         int attemptCount = 0;
-        final int MAX_ATTEMPT_COUNT = 2;
-        while (!success && ++attemptCount <= MAX_ATTEMPT_COUNT) {
-            if (stateListener != null && stateListener.isTaskCanceled()) {
-                throw new TaskCancelledException(tempFile);
+        int attemptsWithoutProgress = 0;
+        while (!success) {
+            checkCancelled(tempFile, validatorFile);
+
+            long offset = tempFile.length();
+            String validator = null;
+            if (offset > 0) {
+                if (validatorFile.exists()) {
+                    validator = new String(FileUtils.read(validatorFile));
+                } else {
+                    // there is no way to tell whether the partial file is still current
+                    FileUtils.deleteAndReport(tempFile);
+                    offset = 0;
+                }
             }
-            Timber.i("Started downloading to %s from %s", tempFile.getAbsolutePath(), downloadUrl);
+            Timber.i("Started downloading to %s from %s at byte %d", tempFile.getAbsolutePath(), downloadUrl, offset);
 
-                // write connection to file
-                InputStream is = null;
-                OutputStream os = null;
+            // write connection to file
+            InputStream is = null;
+            OutputStream os = null;
+            long bytesWritten = 0;
 
-                try {
-                    is = collectServerClient.getHttpInputStream(downloadUrl, null).getInputStream();
-                    os = new FileOutputStream(tempFile);
-
-                    byte[] buf = new byte[4096];
-                    int len;
-                    while ((len = is.read(buf)) > 0 && (stateListener == null || !stateListener.isTaskCanceled())) {
-                        os.write(buf, 0, len);
+            try {
+                HttpGetResult result = collectServerClient.getHttpRangeInputStream(downloadUrl, offset, validator);
+                int statusCode = result.getStatusCode();
+                boolean append;
+                if (statusCode == HttpURLConnection.HTTP_PARTIAL) {
+                    String contentRange = result.getHeader(CONTENT_RANGE_HEADER);
+                    if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+                        FileUtils.deleteAndReport(validatorFile);
+                        throw new IOException("Unexpected Content-Range " + contentRange + " for " + downloadUrl);
                     }
-                    os.flush();
-                    success = true;
+                    append = true;
+                } else if (statusCode == HttpURLConnection.HTTP_OK) {
+                    // the server sends the whole file, because it changed or ranges aren't supported
+                    saveValidator(validatorFile, result);
+                    append = false;
+                } else {
+                    if (statusCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                        FileUtils.deleteAndReport(validatorFile);
+                    }
+                    throw new IOException("Unable to download " + downloadUrl + ", status code " + statusCode);
+                }
+
+                is = result.getInputStream();
+                os = new FileOutputStream(tempFile, append);
+
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = is.read(buf)) > 0 && !isCancelled()) {
+                    os.write(buf, 0, len);
+                    bytesWritten += len;
+                }
+                os.flush();
+                success = true;
 
             } catch (Exception e) {
                 Timber.e(e.toString());
-                // silently retry unless this is the last attempt,
+                if (Thread.currentThread().isInterrupted()) {
+                    // another media download failed; keep what we have for the next attempt
+                    throw e;
+                }
+                // silently retry unless the last attempts did not get anywhere,
                 // in which case we rethrow the exception.
 
-                FileUtils.deleteAndReport(tempFile);
+                if (!validatorFile.exists()) {
+                    FileUtils.deleteAndReport(tempFile);
+                }
 
-                if (attemptCount == MAX_ATTEMPT_COUNT) {
+                attemptsWithoutProgress = bytesWritten > 0 ? 0 : attemptsWithoutProgress + 1;
+                if (attemptsWithoutProgress == MAX_ATTEMPTS_WITHOUT_PROGRESS || ++attemptCount == MAX_ATTEMPT_COUNT) {
                     throw e;
                 }
             } finally {
-                    if (os != null) {
-                        try {
-                            os.close();
-                        } catch (Exception e) {
-                            Timber.e(e);
-                        }
+                if (os != null) {
+                    try {
+                        os.close();
+                    } catch (Exception e) {
+                        Timber.e(e);
                     }
-                    if (is != null) {
-                        try {
-                            // ensure stream is consumed...
-                            final long count = 1024L;
-                            while (is.skip(count) == count) {
-                                // skipping to the end of the http entity
-                            }
-                        } catch (Exception e) {
-                            // no-op
-                        }
-                        try {
-                            is.close();
-                        } catch (Exception e) {
-                            Timber.e(e);
+                }
+                if (is != null) {
+                    try {
+                        // ensure stream is consumed...
+                        final long count = 1024L;
+                        while (is.skip(count) == count) {
+                            // skipping to the end of the http entity
                         }
+                    } catch (Exception e) {
+                        // no-op
+                    }
+                    try {
+                        is.close();
+                    } catch (Exception e) {
+                        Timber.e(e);
                     }
                 }
-
-            if (stateListener != null && stateListener.isTaskCanceled()) {
-                FileUtils.deleteAndReport(tempFile);
-                throw new TaskCancelledException(tempFile);
             }
+
+            checkCancelled(tempFile, validatorFile);
         }
 
         Timber.d("Completed downloading of %s. It will be moved to the proper path...",
                 tempFile.getAbsolutePath());
 
+        FileUtils.deleteAndReport(validatorFile);
+
+        // a rename replaces the previous file at once, but only works within the same volume
+        if (tempFile.renameTo(file)) {
+            Timber.w("Moved %s over %s", tempFile.getAbsolutePath(), file.getAbsolutePath());
+            return;
+        }
+
         FileUtils.deleteAndReport(file);
 
         String errorMessage = FileUtils.copyFile(tempFile, file);
@@ -467,6 +547,50 @@ public class FormDownloader {
         }
     }
 
+    private static File getPartialDownloadFile(String downloadUrl) {
+        File cacheDir = new File(Collect.CACHE_PATH);
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Timber.w("Unable to create %s", cacheDir.getAbsolutePath());
+        }
+        String urlHash = FileUtils.getMd5Hash(new ByteArrayInputStream(downloadUrl.getBytes()));
+        return new File(cacheDir, urlHash + TEMP_DOWNLOAD_EXTENSION);
+    }
+
+    /**
+     * Remembers the strong ETag or, failing that, the Last-Modified date of a response so that a
+     * partial download of it can be resumed with If-Range. Without either of them the download
+     * cannot be resumed.
+     */
+    private static void saveValidator(File validatorFile, HttpGetResult result) {
+        String validator = result.getHeader(ETAG_HEADER);
+        if (validator == null || validator.startsWith("W/")) {
+            validator = result.getHeader(LAST_MODIFIED_HEADER);
+        }
+        if (validator != null) {
+            FileUtils.write(validatorFile, validator.getBytes());
+        } else {
+            FileUtils.deleteAndReport(validatorFile);
+        }
+    }
+
+    /**
+     * Deletes partial downloads that have not been resumed for a long time.
+     */
+    private static void deleteStalePartialDownloads() {
+        File[] files = new File(Collect.CACHE_PATH).listFiles();
+        if (files == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_PARTIAL_DOWNLOAD_MILLIS;
+        for (File f : files) {
+            String name = f.getName();
+            if ((name.endsWith(TEMP_DOWNLOAD_EXTENSION) || name.endsWith(TEMP_DOWNLOAD_EXTENSION + VALIDATOR_EXTENSION))
+                    && f.lastModified() < staleBefore) {
+                FileUtils.deleteAndReport(f);
+            }
+        }
+    }
+
     private static class UriResult {
 
         private final Uri uri;
@@ -617,7 +741,6 @@ public class FormDownloader {
 
         // OK we now have the full set of files to download...
         Timber.i("Downloading %d media files.", files.size());
-        int mediaCount = 0;
         if (!files.isEmpty()) {
             File tempMediaDir = new File(tempMediaPath);
             File finalMediaDir = new File(finalMediaPath);
@@ -625,44 +748,121 @@ public class FormDownloader {
             FileUtils.checkMediaPath(tempMediaDir);
             FileUtils.checkMediaPath(finalMediaDir);
 
-            for (MediaFile toDownload : files) {
-                ++mediaCount;
-                if (stateListener != null) {
-                    stateListener.progressUpdate(
-                            Collect.getInstance().getString(R.string.form_download_progress,
-                                    fd.getFormName(),
-                                    String.valueOf(mediaCount), String.valueOf(files.size())),
-                            String.valueOf(count), String.valueOf(total));
-                }
+            downloadMediaFiles(files, tempMediaDir, finalMediaDir, fd.getFormName(), count, total);
+        }
+        return null;
+    }
 
-                //try {
-                File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
-                File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+    /**
+     * Downloads the media files that are missing or have changed, running up to
+     * {@link #MAX_CONCURRENT_MEDIA_DOWNLOADS} transfers at once. Existing files are hashed on the
+     * same threads, so checking them overlaps with the transfers of other files.
+     */
+    private void downloadMediaFiles(List<MediaFile> files, final File tempMediaDir,
+                                    final File finalMediaDir, final String formName,
+                                    final int count, final int total) throws Exception {
+        final int mediaTotal = files.size();
+        final AtomicInteger mediaCount = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mediaTotal, MAX_CONCURRENT_MEDIA_DOWNLOADS)));
+        try {
+            List<Future<Void>> downloads = new ArrayList<>();
+            for (final MediaFile toDownload : files) {
+                downloads.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (isCancelled()) {
+                            throw new TaskCancelledException();
+                        }
+                        downloadMediaFile(toDownload, tempMediaDir, finalMediaDir);
+
+                        if (stateListener != null) {
+                            stateListener.progressUpdate(
+                                    Collect.getInstance().getString(R.string.form_download_progress,
+                                            formName, String.valueOf(mediaCount.incrementAndGet()),
+                                            String.valueOf(mediaTotal)),
+                                    String.valueOf(count), String.valueOf(total));
+                        }
+                        return null;
+                    }
+                }));
+            }
 
-                if (!finalMediaFile.exists()) {
-                    downloadFile(tempMediaFile, toDownload.getDownloadUrl());
-                } else {
-                    String currentFileHash = FileUtils.getMd5Hash(finalMediaFile);
-                    String downloadFileHash = getMd5Hash(toDownload.getHash());
-
-                    if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
-                        // if the hashes match, it's the same file
-                        // otherwise delete our current one and replace it with the new one
-                        FileUtils.deleteAndReport(finalMediaFile);
-                        downloadFile(tempMediaFile, toDownload.getDownloadUrl());
-                    } else {
-                        // exists, and the hash is the same
-                        // no need to download it again
-                        Timber.i("Skipping media file fetch -- file hashes identical: %s",
-                                finalMediaFile.getAbsolutePath());
+            for (Future<Void> download : downloads) {
+                try {
+                    download.get();
+                } catch (ExecutionException e) {
+                    // stop the other transfers and let them finish before the caller cleans up
+                    executor.shutdownNow();
+                    executor.awaitTermination(MEDIA_DOWNLOAD_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
                     }
+                    throw e;
                 }
-                //  } catch (Exception e) {
-                //  return e.getLocalizedMessage();
-                //}
             }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Timber.i("Fetched %d media files of %s in %.3f seconds.", mediaTotal, formName,
+                (System.currentTimeMillis() - start) / 1000F);
+    }
+
+    private void downloadMediaFile(MediaFile toDownload, File tempMediaDir, File finalMediaDir)
+            throws Exception {
+        File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
+        File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+
+        if (!finalMediaFile.exists()) {
+            downloadFile(tempMediaFile, toDownload.getDownloadUrl());
+        } else {
+            String currentFileHash = FileUtils.getMd5Hash(finalMediaFile);
+            String downloadFileHash = getMd5Hash(toDownload.getHash());
+
+            if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
+                // if the hashes match, it's the same file
+                // otherwise delete our current one and replace it with the new one
+                FileUtils.deleteAndReport(finalMediaFile);
+                downloadFile(tempMediaFile, toDownload.getDownloadUrl());
+            } else {
+                // exists, and the hash is the same
+                // no need to download it again
+                Timber.i("Skipping media file fetch -- file hashes identical: %s",
+                        finalMediaFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the task was cancelled or, for a media download, if the other downloads
+     * failed and this one was interrupted.
+     */
+    private boolean isCancelled() {
+        return isCancelledByUser() || Thread.currentThread().isInterrupted();
+    }
+
+    private boolean isCancelledByUser() {
+        return stateListener != null && stateListener.isTaskCanceled();
+    }
+
+    /**
+     * Stops a transfer that should not go on. Only a cancellation by the user throws away the
+     * partial download; a media download that was interrupted because another one failed keeps
+     * the temp file and its validator so that the next attempt can resume it.
+     */
+    private void checkCancelled(File tempFile, File validatorFile)
+            throws TaskCancelledException, InterruptedIOException {
+        if (isCancelledByUser()) {
+            FileUtils.deleteAndReport(tempFile);
+            FileUtils.deleteAndReport(validatorFile);
+            throw new TaskCancelledException(tempFile);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while downloading to " + tempFile.getAbsolutePath());
         }
-        return null;
     }
 
     public static String getMd5Hash(String hash) {
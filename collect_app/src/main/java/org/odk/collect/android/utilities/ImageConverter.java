@@ -39,13 +39,69 @@ public class ImageConverter {
     private ImageConverter() {
     }
 
+    /**
+     * Applies the EXIF orientation of the image and scales it down to the max-pixels from the
+     * form or the settings. The header is read first so that the image is decoded once, already
+     * sampled towards the target size, then rotated and scaled in a single pass and encoded once.
+     * This does disk and bitmap work so it should not be called on the main thread.
+     */
     public static void execute(String imagePath, QuestionWidget questionWidget, Context context) {
-        rotateImageIfNeeded(imagePath);
-        scaleDownImageIfNeeded(imagePath, questionWidget, context);
+        final long start = System.currentTimeMillis();
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            Timber.w("Unable to read the dimensions of %s", imagePath);
+            return;
+        }
+
+        int degrees = getRotation(imagePath);
+        boolean sideways = degrees == 90 || degrees == 270;
+        int width = sideways ? bounds.outHeight : bounds.outWidth;
+        int height = sideways ? bounds.outWidth : bounds.outHeight;
+
+        int[] size = getScaledSize(width, height, getMaxPixels(questionWidget, context));
+        if (degrees == 0 && size[0] == width && size[1] == height) {
+            return;
+        }
+
+        // The target size before rotation, which is what the decoder and the matrix work with
+        int targetWidth = sideways ? size[1] : size[0];
+        int targetHeight = sideways ? size[0] : size[1];
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = ImageLoader.getSampleSize(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        Bitmap sampled = FileUtils.getBitmap(imagePath, options);
+        if (sampled == null) {
+            return;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) targetWidth / sampled.getWidth(), (float) targetHeight / sampled.getHeight());
+        matrix.postRotate(degrees);
+
+        Bitmap image;
+        try {
+            image = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+        } catch (OutOfMemoryError e) {
+            Timber.w(e);
+            return;
+        }
+        if (image != sampled) {
+            sampled.recycle();
+        }
+
+        FileUtils.saveBitmapToFile(image, imagePath);
+        image.recycle();
+
+        Timber.i("Converted %s from %dx%d to %dx%d in %.3f seconds.", imagePath, bounds.outWidth,
+                bounds.outHeight, size[0], size[1], (System.currentTimeMillis() - start) / 1000F);
     }
 
-    private static void scaleDownImageIfNeeded(String imagePath, QuestionWidget questionWidget, Context context) {
-        Integer maxPixels;
+    /** Returns the max pixels of the long edge, or 0 if the image shouldn't be scaled down. */
+    private static int getMaxPixels(QuestionWidget questionWidget, Context context) {
+        Integer maxPixels = null;
 
         if (questionWidget != null) {
             maxPixels = getMaxPixelsFromFormIfDefined(questionWidget);
@@ -53,11 +109,9 @@ public class ImageConverter {
             if (maxPixels == null) {
                 maxPixels = getMaxPixelsFromSettings(context);
             }
-
-            if (maxPixels != null && maxPixels > 0) {
-                scaleDownImage(imagePath, maxPixels);
-            }
         }
+
+        return maxPixels != null && maxPixels > 0 ? maxPixels : 0;
     }
 
     private static Integer getMaxPixelsFromFormIfDefined(QuestionWidget questionWidget) {
@@ -93,69 +147,44 @@ public class ImageConverter {
     }
 
     /**
-     * This method is used to reduce an original picture size.
+     * Returns the size of the image once reduced to the given max pixels.
      * maxPixels refers to the max pixels of the long edge, the short edge is scaled proportionately.
      */
-    private static void scaleDownImage(String imagePath, int maxPixels) {
-        Bitmap image = FileUtils.getBitmap(imagePath, new BitmapFactory.Options());
-
-        if (image != null) {
-            double originalWidth = image.getWidth();
-            double originalHeight = image.getHeight();
-
-            if (originalWidth > originalHeight && originalWidth > maxPixels) {
-                int newHeight = (int) (originalHeight / (originalWidth / maxPixels));
-
-                image = Bitmap.createScaledBitmap(image, maxPixels, newHeight, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
-            } else if (originalHeight > maxPixels) {
-                int newWidth = (int) (originalWidth / (originalHeight / maxPixels));
-
-                image = Bitmap.createScaledBitmap(image, newWidth, maxPixels, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
+    static int[] getScaledSize(int width, int height, int maxPixels) {
+        if (maxPixels > 0) {
+            if (width > height && width > maxPixels) {
+                return new int[] {maxPixels, (int) (height / ((double) width / maxPixels))};
+            } else if (height > maxPixels) {
+                return new int[] {(int) (width / ((double) height / maxPixels)), maxPixels};
             }
         }
+        return new int[] {width, height};
     }
 
     /**
      * Sometimes an image might be taken up sideways.
      * https://github.com/opendatakit/collect/issues/36
      */
-    private static void rotateImageIfNeeded(String imagePath) {
-        ExifInterface exif = null;
+    private static int getRotation(String imagePath) {
         try {
-            exif = new ExifInterface(imagePath);
+            ExifInterface exif = new ExifInterface(imagePath);
+            return getRotation(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
         } catch (IOException e) {
             Timber.w(e);
-        }
-
-        if (exif != null) {
-            Bitmap image = FileUtils.getBitmap(imagePath, new BitmapFactory.Options());
-
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotateBitmap(image, 90, imagePath);
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotateBitmap(image, 180, imagePath);
-                    break;
-
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotateBitmap(image, 270, imagePath);
-                    break;
-            }
+            return 0;
         }
     }
 
-    private static void rotateBitmap(Bitmap image, int degrees, String imagePath) {
-        try {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(degrees);
-            image = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
-        } catch (OutOfMemoryError e) {
-            Timber.w(e);
+    static int getRotation(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
         }
-        FileUtils.saveBitmapToFile(image, imagePath);
     }
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import org.odk.collect.android.application.Collect;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Loads form media images off the main thread.
+ *
+ * Images are decoded on a small shared pool, scaled to fit the requested bounds and kept in a
+ * size-bounded in-memory LRU keyed by (path, size, last modified, bounds) so that paging back
+ * and forth through a form doesn't decode the same files again. Images that are much larger than
+ * the requested bounds are also saved as thumbnails in the cache directory, which makes the first
+ * display after a restart cheap too. The intermediate bitmap a decoder thread samples into before
+ * the final scaling step is reused for the next decode when the platform allows it.
+ */
+public final class ImageLoader {
+
+    /** Receives the result of {@link #load} on the main thread. */
+    public interface Listener {
+        void onImageLoaded(Bitmap bitmap);
+
+        void onImageFailed();
+    }
+
+    static final String THUMBNAIL_PATH = Collect.CACHE_PATH + File.separator + "thumbnails";
+
+    private static final int MAX_DECODE_THREADS = 2;
+    private static final int MAX_MEMORY_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_SCRATCH_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_DISK_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_CACHED_SIZES = 256;
+    private static final int MIN_THUMBNAIL_REDUCTION = 4;
+    private static final int THUMBNAIL_QUALITY = 90;
+
+    private static final LruCache<String, Bitmap> BITMAPS =
+            new LruCache<String, Bitmap>(getMemoryCacheSize()) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+
+    private static final LruCache<String, int[]> SIZES = new LruCache<>(MAX_CACHED_SIZES);
+
+    private static final ExecutorService DECODER = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_DECODE_THREADS)));
+
+    private static final Handler MAIN_THREAD = new Handler(Looper.getMainLooper());
+
+    /** The key each view is currently waiting for. Only accessed on the main thread. */
+    private static final Map<ImageView, String> PENDING = new WeakHashMap<>();
+
+    /** A mutable bitmap per decoder thread that the next sampled decode can be done into. */
+    private static final ThreadLocal<Bitmap> SCRATCH = new ThreadLocal<>();
+
+    private static final DiskCache DISK_CACHE = new DiskCache(new File(THUMBNAIL_PATH), MAX_DISK_CACHE_BYTES);
+
+    private ImageLoader() {
+    }
+
+    /**
+     * Shows the image from the given file in the view, scaled down to fit within the given
+     * bounds. A cached image is bound right away; otherwise the view is cleared and the image
+     * is filled in once it has been decoded. If the view is bound to another image in the
+     * meantime, the result is dropped.
+     */
+    public static void load(final File file, final int maxWidth, final int maxHeight,
+                            final ImageView view, @Nullable final Listener listener) {
+        final String key = getKey(file, maxWidth, maxHeight);
+        Bitmap cached = BITMAPS.get(key);
+        if (cached != null) {
+            PENDING.remove(view);
+            view.setImageBitmap(cached);
+            if (listener != null) {
+                listener.onImageLoaded(cached);
+            }
+            return;
+        }
+
+        PENDING.put(view, key);
+        view.setImageDrawable(null);
+        DECODER.execute(() -> {
+            final Bitmap bitmap = getBitmap(file, key, maxWidth, maxHeight);
+            MAIN_THREAD.post(() -> {
+                if (!key.equals(PENDING.get(view))) {
+                    return;
+                }
+                PENDING.remove(view);
+                if (bitmap != null) {
+                    view.setImageBitmap(bitmap);
+                    if (listener != null) {
+                        listener.onImageLoaded(bitmap);
+                    }
+                } else if (listener != null) {
+                    listener.onImageFailed();
+                }
+            });
+        });
+    }
+
+    /**
+     * Returns the dimensions the image from the given file will have once loaded with the
+     * given bounds, or null if the file can't be decoded. Only the image header is read so this
+     * is cheap enough to lay out placeholders on the main thread.
+     */
+    @Nullable
+    public static int[] getDisplaySize(File file, int maxWidth, int maxHeight) {
+        String key = getKey(file, maxWidth, maxHeight);
+        int[] size = SIZES.get(key);
+        if (size == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            size = getDisplaySize(options.outWidth, options.outHeight, maxWidth, maxHeight);
+            SIZES.put(key, size);
+        }
+        return size;
+    }
+
+    public static void clearMemoryCache() {
+        BITMAPS.evictAll();
+        SIZES.evictAll();
+    }
+
+    static String getKey(File file, int maxWidth, int maxHeight) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified()
+                + ":" + maxWidth + "x" + maxHeight;
+    }
+
+    /** Fits the image within the bounds, keeping its aspect ratio. Images are never scaled up. */
+    static int[] getDisplaySize(int width, int height, int maxWidth, int maxHeight) {
+        double scale = Math.max((double) width / maxWidth, (double) height / maxHeight);
+        if (scale <= 1) {
+            return new int[] {width, height};
+        }
+        return new int[] {
+                Math.max(1, (int) Math.round(width / scale)),
+                Math.max(1, (int) Math.round(height / scale))
+        };
+    }
+
+    /** The largest power of two that keeps the sampled image at least as big as the target. */
+    static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Nullable
+    static Bitmap getBitmap(File file, String key, int maxWidth, int maxHeight) {
+        Bitmap bitmap = BITMAPS.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            bitmap = decode(file, key, maxWidth, maxHeight);
+        } catch (OutOfMemoryError e) {
+            Timber.e(e);
+            BITMAPS.evictAll();
+            return null;
+        }
+
+        if (bitmap != null) {
+            BITMAPS.put(key, bitmap);
+            Timber.i("Loaded %s as %dx%d in %.3f seconds.", file.getName(), bitmap.getWidth(),
+                    bitmap.getHeight(), (System.currentTimeMillis() - start) / 1000F);
+        }
+        return bitmap;
+    }
+
+    @Nullable
+    private static Bitmap decode(File file, String key, int maxWidth, int maxHeight) {
+        File thumbnail = getThumbnailFile(key);
+        if (thumbnail.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getAbsolutePath());
+            if (bitmap != null) {
+                thumbnail.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        int[] size = getDisplaySize(bounds.outWidth, bounds.outHeight, maxWidth, maxHeight);
+        SIZES.put(key, size);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = getSampleSize(bounds.outWidth, bounds.outHeight, size[0], size[1]);
+        Bitmap sampled = decodeIntoScratch(file, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap bitmap;
+        if (sampled.getWidth() == size[0] && sampled.getHeight() == size[1]) {
+            // The sampled image is the result, so it can't be decoded into again
+            if (sampled == SCRATCH.get()) {
+                SCRATCH.remove();
+            }
+            bitmap = sampled;
+        } else {
+            bitmap = Bitmap.createScaledBitmap(sampled, size[0], size[1], true);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && sampled.isMutable() && sampled.getByteCount() <= MAX_SCRATCH_BYTES) {
+                SCRATCH.set(sampled);
+            } else {
+                if (sampled == SCRATCH.get()) {
+                    SCRATCH.remove();
+                }
+                sampled.recycle();
+            }
+        }
+
+        if ((long) bounds.outWidth * bounds.outHeight
+                >= (long) MIN_THUMBNAIL_REDUCTION * size[0] * size[1]) {
+            writeThumbnail(bitmap, thumbnail);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes with this thread's scratch bitmap as {@link BitmapFactory.Options#inBitmap} when
+     * it is big enough, falling back to a fresh allocation if the platform rejects it.
+     */
+    @Nullable
+    private static Bitmap decodeIntoScratch(File file, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.inMutable = true;
+            Bitmap scratch = SCRATCH.get();
+            if (scratch != null && !scratch.isRecycled()) {
+                options.inBitmap = scratch;
+                try {
+                    Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                } catch (IllegalArgumentException e) {
+                    Timber.d("Unable to reuse a %d byte bitmap for %s", scratch.getByteCount(), file.getName());
+                }
+                options.inBitmap = null;
+            }
+        }
+        return FileUtils.getBitmap(file.getAbsolutePath(), options);
+    }
+
+    private static File getThumbnailFile(String key) {
+        String name = FileUtils.getMd5Hash(new ByteArrayInputStream(key.getBytes()));
+        return new File(THUMBNAIL_PATH, name);
+    }
+
+    /**
+     * To avoid readers seeing a partially written thumbnail, we write into a temporary file
+     * and rename it when done.
+     */
+    private static void writeThumbnail(Bitmap bitmap, File thumbnail) {
+        File dir = thumbnail.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+
+        File temp = null;
+        try {
+            temp = File.createTempFile("thumbnail", null, dir);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                        THUMBNAIL_QUALITY, out);
+            }
+            if (temp.renameTo(thumbnail)) {
+                DISK_CACHE.onWritten(thumbnail.length());
+            } else {
+                Timber.w("Unable to rename %s to %s", temp.getName(), thumbnail.getName());
+            }
+        } catch (IOException e) {
+            Timber.e(e);
+        } finally {
+            if (temp != null && temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the directory fits within maxBytes.
+     *
+     * @return the bytes left in the directory
+     */
+    static long trimDiskCache(File dir, long maxBytes) {
+        File[] thumbnails = dir.listFiles();
+        if (thumbnails == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (File thumbnail : thumbnails) {
+            total += thumbnail.length();
+        }
+        if (total <= maxBytes) {
+            return total;
+        }
+
+        Arrays.sort(thumbnails, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File thumbnail : thumbnails) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = thumbnail.length();
+            if (thumbnail.delete()) {
+                total -= length;
+            }
+        }
+        return total;
+    }
+
+    private static int getMemoryCacheSize() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_MEMORY_CACHE_BYTES);
+    }
+
+    /**
+     * Tracks the size of the thumbnails directory as thumbnails are written and trims it whenever
+     * it grows past its limit. It is trimmed to three quarters of the limit so that a full cache
+     * isn't listed again on every write.
+     */
+    static class DiskCache {
+        private final File dir;
+        private final long maxBytes;
+
+        /** The size of the directory, or -1 until it is first measured. */
+        private long bytes = -1;
+
+        DiskCache(File dir, long maxBytes) {
+            this.dir = dir;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized void onWritten(long length) {
+            if (bytes >= 0) {
+                bytes += length;
+            }
+            if (bytes < 0 || bytes > maxBytes) {
+                bytes = trimDiskCache(dir, bytes < 0 ? maxBytes : maxBytes * 3 / 4);
+            }
+        }
+    }
+}
@@ -177,6 +177,38 @@ public class MediaUtils {
         return count;
     }
 
+    /**
+     * Deletes the media provider entries of all the files in the given folders, with one delete
+     * per {@link ApplicationConstants#SQLITE_MAX_VARIABLE_NUMBER} folders rather than one query
+     * and one delete per file and media type.
+     */
+    public static int deleteMediaInFoldersFromMediaProvider(List<File> folders) {
+        ContentResolver cr = Collect.getInstance().getContentResolver();
+        Uri filesUri = MediaStore.Files.getContentUri("external");
+        int count = 0;
+        for (int low = 0; low < folders.size(); low += ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER) {
+            List<File> batch = folders.subList(low,
+                    Math.min(folders.size(), low + ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER));
+
+            StringBuilder select = new StringBuilder();
+            String[] selectArgs = new String[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    select.append(" or ");
+                }
+                select.append(MediaStore.Files.FileColumns.DATA).append(" like ? escape '!'");
+                selectArgs[i] = escapePath(batch.get(i).getAbsolutePath()) + "/%";
+            }
+
+            try {
+                count += cr.delete(filesUri, select.toString(), selectArgs);
+            } catch (Exception e) {
+                Timber.e(e, "Unable to delete media in %d folders", batch.size());
+            }
+        }
+        return count;
+    }
+
     public static final Uri getAudioUriFromMediaProvider(String audioFile) {
         String selection = Audio.AudioColumns.DATA + "=?";
         String[] selectArgs = {audioFile};
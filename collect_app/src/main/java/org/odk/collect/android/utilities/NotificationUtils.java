@@ -67,4 +67,23 @@ public class NotificationUtils {
             manager.notify(notificationId, builder.build());
         }
     }
+
+    /**
+     * Shows a notification with a progress bar, which is updated without alerting the user again
+     * until it gets replaced.
+     */
+    public static void showProgressNotification(int notificationId, int title, int progress) {
+        Context context = Collect.getInstance();
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle(context.getString(title))
+                .setSmallIcon(IconUtils.getNotificationAppIcon())
+                .setProgress(100, progress, false)
+                .setOnlyAlertOnce(true);
+
+        NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(notificationId, builder.build());
+        }
+    }
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import android.support.annotation.Nullable;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import timber.log.Timber;
+
+import static org.odk.collect.android.utilities.FileUtils.AUTO_DELETE;
+import static org.odk.collect.android.utilities.FileUtils.AUTO_SEND;
+import static org.odk.collect.android.utilities.FileUtils.BASE64_RSA_PUBLIC_KEY;
+import static org.odk.collect.android.utilities.FileUtils.FORMID;
+import static org.odk.collect.android.utilities.FileUtils.SUBMISSIONURI;
+import static org.odk.collect.android.utilities.FileUtils.TITLE;
+import static org.odk.collect.android.utilities.FileUtils.VERSION;
+
+/**
+ * Reads the metadata of forms and instances with a pull parser, without building a document and
+ * stopping as soon as the metadata has been read. Forms are only read up to the end of their
+ * head, instances only up to their root element.
+ */
+public final class XmlMetadataParser {
+
+    private static final String XFORMS_NAMESPACE = "http://www.w3.org/2002/xforms";
+
+    private XmlMetadataParser() {
+    }
+
+    /**
+     * Reads the title, id, version and submission attributes of a form.
+     *
+     * @return the fields keyed by {@link FileUtils#TITLE}, {@link FileUtils#FORMID},
+     * {@link FileUtils#VERSION}, {@link FileUtils#SUBMISSIONURI},
+     * {@link FileUtils#BASE64_RSA_PUBLIC_KEY}, {@link FileUtils#AUTO_DELETE} and
+     * {@link FileUtils#AUTO_SEND}. The submission fields are missing if the form has no
+     * submission element.
+     * @throws IllegalStateException if the file can't be read or has no main instance
+     */
+    public static HashMap<String, String> parseFormMetadata(File formFile) {
+        final HashMap<String, String> fields = new HashMap<>();
+
+        try (InputStream is = new FileInputStream(formFile)) {
+            XmlPullParser parser = createParser(is);
+            if (!moveToRootElement(parser)) {
+                throw new IllegalStateException(formFile.getAbsolutePath() + " could not be parsed");
+            }
+            String html = parser.getNamespace();
+
+            if (!moveToChild(parser, html, "head")) {
+                throw new IllegalStateException(formFile.getAbsolutePath() + " has no head");
+            }
+            readHead(parser, html, fields);
+        } catch (IOException | XmlPullParserException e) {
+            Timber.e(e, "Unable to parse XML document %s", formFile.getAbsolutePath());
+            throw new IllegalStateException("Unable to parse XML document", e);
+        }
+
+        if (!fields.containsKey(FORMID)) {
+            throw new IllegalStateException(formFile.getAbsolutePath() + " could not be parsed");
+        }
+        if (!fields.containsKey(SUBMISSIONURI)) {
+            Timber.i("XML file %s does not have a submission element", formFile.getAbsolutePath());
+            // and that's totally fine.
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the value of an attribute of the root element of an instance, or null if the file
+     * can't be read or the attribute isn't there.
+     */
+    @Nullable
+    public static String getRootAttribute(File xmlFile, String attributeName) {
+        try (InputStream is = new FileInputStream(xmlFile)) {
+            XmlPullParser parser = createParser(is);
+            return moveToRootElement(parser) ? parser.getAttributeValue(null, attributeName) : null;
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w("Unable to read %s from %s", attributeName, xmlFile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the values of all the attributes with the given name and no namespace in the file,
+     * in document order. Returns the values read so far if the file can't be read to the end.
+     */
+    public static List<String> getAttributeValues(File xmlFile, String attributeName) {
+        List<String> values = new ArrayList<>();
+        try (InputStream is = new FileInputStream(xmlFile)) {
+            XmlPullParser parser = createParser(is);
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    String value = parser.getAttributeValue(null, attributeName);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+                eventType = parser.next();
+            }
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w("Unable to read %s attributes from %s", attributeName, xmlFile.getAbsolutePath());
+        }
+        return values;
+    }
+
+    /**
+     * Reads the head the parser is positioned on, up to the point where the title, the main
+     * instance and the submission have all been found.
+     */
+    private static void readHead(XmlPullParser parser, String html, HashMap<String, String> fields)
+            throws IOException, XmlPullParserException {
+        boolean titleRead = false;
+        boolean modelRead = false;
+
+        int headDepth = parser.getDepth();
+        while (!(titleRead && modelRead) && moveToNextChild(parser, headDepth)) {
+            if (!titleRead && html.equals(parser.getNamespace()) && "title".equals(parser.getName())) {
+                fields.put(TITLE, readText(parser));
+                titleRead = true;
+            } else if (!modelRead && "model".equalsIgnoreCase(parser.getName())) {
+                readModel(parser, fields);
+                modelRead = true;
+            } else {
+                skipElement(parser);
+            }
+        }
+    }
+
+    private static void readModel(XmlPullParser parser, HashMap<String, String> fields)
+            throws IOException, XmlPullParserException {
+        boolean instanceRead = false;
+        boolean submissionRead = false;
+
+        int modelDepth = parser.getDepth();
+        while (!(instanceRead && submissionRead) && moveToNextChild(parser, modelDepth)) {
+            if (!instanceRead && "instance".equalsIgnoreCase(parser.getName())) {
+                // the first data element holds the form id and version
+                int instanceDepth = parser.getDepth();
+                if (moveToNextChild(parser, instanceDepth)) {
+                    String id = parser.getAttributeValue(null, "id");
+                    String version = parser.getAttributeValue(null, "version");
+                    if (parser.getAttributeValue(null, "uiVersion") != null) {
+                        // pre-OpenRosa 1.0 variant of spec
+                        Timber.e("Obsolete use of uiVersion -- IGNORED -- only using version: %s",
+                                version);
+                    }
+
+                    fields.put(FORMID, id == null ? parser.getNamespace() : id);
+                    fields.put(VERSION, version);
+                    skipElement(parser);
+                }
+                skipToEnd(parser, instanceDepth);
+                instanceRead = true;
+            } else if (!submissionRead && XFORMS_NAMESPACE.equals(parser.getNamespace())
+                    && "submission".equals(parser.getName())) {
+                String base64RsaPublicKey = parser.getAttributeValue(null, "base64RsaPublicKey");
+
+                fields.put(SUBMISSIONURI, parser.getAttributeValue(null, "action"));
+                fields.put(BASE64_RSA_PUBLIC_KEY,
+                        (base64RsaPublicKey == null || base64RsaPublicKey.trim().length() == 0)
+                                ? null : base64RsaPublicKey.trim());
+                fields.put(AUTO_DELETE, parser.getAttributeValue(null, "auto-delete"));
+                fields.put(AUTO_SEND, parser.getAttributeValue(null, "auto-send"));
+                skipElement(parser);
+                submissionRead = true;
+            } else {
+                skipElement(parser);
+            }
+        }
+    }
+
+    private static XmlPullParser createParser(InputStream is) throws XmlPullParserException {
+        XmlPullParser parser = new KXmlParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        // the encoding is taken from the XML declaration, UTF-8 by default
+        parser.setInput(is, null);
+        return parser;
+    }
+
+    private static boolean moveToRootElement(XmlPullParser parser)
+            throws IOException, XmlPullParserException {
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.START_TAG && eventType != XmlPullParser.END_DOCUMENT) {
+            eventType = parser.next();
+        }
+        return eventType == XmlPullParser.START_TAG;
+    }
+
+    /**
+     * Moves to the first child element with the given namespace and name of the element the
+     * parser is positioned on, skipping the other children.
+     */
+    private static boolean moveToChild(XmlPullParser parser, String namespace, String name)
+            throws IOException, XmlPullParserException {
+        int parentDepth = parser.getDepth();
+        while (moveToNextChild(parser, parentDepth)) {
+            if (namespace.equals(parser.getNamespace()) && name.equals(parser.getName())) {
+                return true;
+            }
+            skipElement(parser);
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the start of the next child element of the element at the given depth, or to its
+     * end if it has no more children.
+     *
+     * @return false once the end of the parent has been reached
+     */
+    private static boolean moveToNextChild(XmlPullParser parser, int parentDepth)
+            throws IOException, XmlPullParserException {
+        while (true) {
+            int eventType = parser.next();
+            if (eventType == XmlPullParser.START_TAG) {
+                return true;
+            } else if (eventType == XmlPullParser.END_DOCUMENT
+                    || (eventType == XmlPullParser.END_TAG && parser.getDepth() == parentDepth)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the text the element the parser is positioned on starts with, the way
+     * XFormParser.getXMLText does, and moves to the end of the element.
+     */
+    private static String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int depth = parser.getDepth();
+        StringBuilder text = null;
+
+        int eventType = parser.next();
+        while (eventType == XmlPullParser.TEXT) {
+            if (text == null) {
+                text = new StringBuilder();
+            }
+            text.append(parser.getText());
+            eventType = parser.next();
+        }
+
+        if (!(eventType == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            skipToEnd(parser, depth);
+        }
+        return text == null ? null : text.toString().trim();
+    }
+
+    /**
+     * Moves to the end of the element the parser is positioned on the start of.
+     */
+    private static void skipElement(XmlPullParser parser) throws IOException, XmlPullParserException {
+        skipToEnd(parser, parser.getDepth());
+    }
+
+    /**
+     * Moves to the end of the element at the given depth.
+     */
+    private static void skipToEnd(XmlPullParser parser, int depth)
+            throws IOException, XmlPullParserException {
+        while (!(parser.getEventType() == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (parser.next() == XmlPullParser.END_DOCUMENT) {
+                return;
+            }
+        }
+    }
+}
@@ -99,7 +99,8 @@ public class SheetsHelper {
     }
 
     /**
-     * Inserts a new row in the given sheet of the spreadsheet
+     * Inserts new rows at the end of the given sheet of the spreadsheet. All rows of the value
+     * range are appended in a single request.
      */
     public void insertRow(String spreadsheetId, String sheetName, ValueRange row) throws IOException {
         if (row == null) {
@@ -142,6 +143,19 @@ public class SheetsHelper {
         return response.getValues();
     }
 
+    /**
+     * Fetches only the first row of the given sheet, which holds the column headers, instead of
+     * the whole sheet.
+     *
+     * @return the headers, or an empty list if the first row is empty
+     */
+    @NonNull
+    public List<Object> getHeaderRow(String spreadsheetId, String sheetName) throws IOException {
+        String range = "'" + sheetName.replace("'", "''") + "'!1:1";
+        List<List<Object>> rows = sheetsService.getSpreadsheet(spreadsheetId, range).getValues();
+        return rows == null || rows.isEmpty() ? new ArrayList<>() : rows.get(0);
+    }
+
     /**
      * Checks whether the selected google account has sufficient permissions
      * to modify the given spreadsheetId. If yes, then returns complete spreadsheet
@@ -40,6 +40,7 @@ import org.odk.collect.android.BuildConfig;
 import org.odk.collect.android.R;
 import org.odk.collect.android.listeners.AudioPlayListener;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageLoader;
 import org.odk.collect.android.utilities.ThemeUtils;
 import org.odk.collect.android.utilities.ToastUtils;
 import org.odk.collect.android.utilities.ViewIds;
@@ -213,15 +214,23 @@ public class MediaLayout extends RelativeLayout implements View.OnClickListener
                     DisplayMetrics metrics = getResources().getDisplayMetrics();
                     int screenWidth = metrics.widthPixels;
                     int screenHeight = metrics.heightPixels;
-                    Bitmap b = FileUtils.getBitmapScaledToDisplay(imageFile, screenHeight, screenWidth);
-                    if (b != null) {
-                        imageView.setVisibility(VISIBLE);
-                        imageView.setImageBitmap(b);
-                        imageView.setOnClickListener(this);
-                    } else {
-                        // Loading the image failed, so it's likely a bad file.
-                        errorMsg = getContext().getString(R.string.file_invalid, imageFile);
-                    }
+                    imageView.setVisibility(VISIBLE);
+                    imageView.setOnClickListener(this);
+                    ImageLoader.load(imageFile, screenWidth, screenHeight, imageView, new ImageLoader.Listener() {
+                        @Override
+                        public void onImageLoaded(Bitmap bitmap) {
+                        }
+
+                        @Override
+                        public void onImageFailed() {
+                            // Loading the image failed, so it's likely a bad file.
+                            String message = getContext().getString(R.string.file_invalid, imageFile);
+                            Timber.e(message);
+                            imageView.setVisibility(GONE);
+                            missingImage.setVisibility(VISIBLE);
+                            missingImage.setText(message);
+                        }
+                    });
                 } else {
                     // We should have an image, but the file doesn't exist.
                     errorMsg = getContext().getString(R.string.file_missing, imageFile);
@@ -145,7 +145,8 @@ public class AnnotateWidget extends BaseImageWidget {
 
     private int calculateScreenOrientation() {
         Bitmap bmp = null;
-        if (imageView != null) {
+        // The image may still be loading, in which case there is no drawable yet
+        if (imageView != null && imageView.getDrawable() instanceof BitmapDrawable) {
             bmp = ((BitmapDrawable) imageView.getDrawable()).getBitmap();
         }
 
@@ -41,7 +41,7 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.activities.DrawActivity;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.utilities.ApplicationConstants;
-import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageLoader;
 import org.odk.collect.android.utilities.MediaManager;
 import org.odk.collect.android.utilities.MediaUtils;
 import org.odk.collect.android.utilities.ViewIds;
@@ -149,15 +149,20 @@ public abstract class BaseImageWidget extends QuestionWidget implements FileWidg
 
             File f = new File(getInstanceFolder() + File.separator + binaryName);
 
-            Bitmap bmp = null;
+            imageView = getAnswerImageView(null);
             if (f.exists()) {
-                bmp = FileUtils.getBitmapScaledToDisplay(f, screenHeight, screenWidth);
-                if (bmp == null) {
-                    errorTextView.setVisibility(View.VISIBLE);
-                }
+                ImageLoader.load(f, screenWidth, screenHeight, imageView, new ImageLoader.Listener() {
+                    @Override
+                    public void onImageLoaded(Bitmap bitmap) {
+                    }
+
+                    @Override
+                    public void onImageFailed() {
+                        errorTextView.setVisibility(View.VISIBLE);
+                    }
+                });
             }
 
-            imageView = getAnswerImageView(bmp);
             imageView.setOnClickListener(new View.OnClickListener() {
 
                 @Override
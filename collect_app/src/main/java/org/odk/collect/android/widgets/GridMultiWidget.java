@@ -16,7 +16,6 @@ package org.odk.collect.android.widgets;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -43,7 +42,7 @@ import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.R;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSelectChoice;
-import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageLoader;
 import org.odk.collect.android.views.AudioButton.AudioHandler;
 import org.odk.collect.android.views.ExpandedHeightGridView;
 import org.odk.collect.android.widgets.interfaces.MultiChoiceWidget;
@@ -169,30 +168,33 @@ public class GridMultiWidget extends QuestionWidget implements MultiChoiceWidget
                     imageFilename = ReferenceManager.instance().DeriveReference(imageURI).getLocalURI();
                     final File imageFile = new File(imageFilename);
                     if (imageFile.exists()) {
-                        Bitmap b = FileUtils.getBitmapScaledToDisplay(imageFile, screenHeight, screenWidth);
-                        if (b != null) {
+                        int[] size = ImageLoader.getDisplaySize(imageFile, screenWidth, screenHeight);
+                        if (size != null) {
+                            int width = size[0];
+                            int height = size[1];
 
-                            if (b.getWidth() > maxColumnWidth) {
-                                maxColumnWidth = b.getWidth();
+                            if (width > maxColumnWidth) {
+                                maxColumnWidth = width;
                             }
 
                             ImageView imageView = (ImageView) imageViews[i];
 
                             if (numColumns > 0) {
-                                int resizeHeight = (b.getHeight() * resizeWidth) / b.getWidth();
-                                b = Bitmap.createScaledBitmap(b, resizeWidth, resizeHeight, false);
+                                height = (height * resizeWidth) / width;
+                                width = resizeWidth;
                             }
 
+                            // Size the cell up front so the grid doesn't reflow as images arrive
                             imageView.setPadding(IMAGE_PADDING, IMAGE_PADDING, IMAGE_PADDING,
                                     IMAGE_PADDING);
-                            imageView.setImageBitmap(b);
+                            imageView.setMinimumWidth(width + 2 * IMAGE_PADDING);
                             imageView.setLayoutParams(
                                     new ListView.LayoutParams(ListView.LayoutParams.WRAP_CONTENT,
                                             ListView.LayoutParams.WRAP_CONTENT));
                             imageView.setScaleType(ScaleType.FIT_XY);
+                            ImageLoader.load(imageFile, width, height, imageView, null);
 
-                            imageView.measure(0, 0);
-                            curHeight = imageView.getMeasuredHeight();
+                            curHeight = height + 2 * IMAGE_PADDING;
                         } else {
                             // Loading the image failed, so it's likely a bad file.
                             errorMsg = getContext().getString(R.string.file_invalid, imageFile);
@@ -16,7 +16,6 @@ package org.odk.collect.android.widgets;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.support.annotation.NonNull;
 import android.widget.TextView;
@@ -31,7 +30,8 @@ import org.javarosa.xpath.expr.XPathExpression;
 import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
-import org.odk.collect.android.database.ItemsetDbAdapter;
+import org.odk.collect.android.database.ItemsetEngine;
+import org.odk.collect.android.external.ExternalDataManager;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FileUtil;
 import org.odk.collect.android.utilities.XPathParseTool;
@@ -55,25 +55,36 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
 
     private final FormEntryPrompt formEntryPrompt;
     private final XPathParseTool parseTool;
-    private final ItemsetDbAdapter adapter;
+    private final ItemsetEngine itemsetEngine;
     private final FileUtil fileUtil;
 
+    // whether the engine belongs to this widget rather than to the form session
+    private boolean ownsItemsetEngine;
+
     protected ItemsetWidget(Context context, FormEntryPrompt formEntryPrompt, boolean autoAdvanceToNext) {
-        this(context, formEntryPrompt, autoAdvanceToNext, new XPathParseTool(), new ItemsetDbAdapter(), new FileUtil());
+        this(context, formEntryPrompt, autoAdvanceToNext, Collect.getInstance().getExternalDataManager());
+    }
+
+    private ItemsetWidget(Context context, FormEntryPrompt formEntryPrompt, boolean autoAdvanceToNext,
+                          ExternalDataManager externalDataManager) {
+        this(context, formEntryPrompt, autoAdvanceToNext, new XPathParseTool(),
+                externalDataManager != null ? externalDataManager.getItemsetEngine() : new ItemsetEngine(),
+                new FileUtil());
+        ownsItemsetEngine = externalDataManager == null;
     }
 
     public ItemsetWidget(Context context,
                          FormEntryPrompt formEntryPrompt,
                          boolean autoAdvance,
                          @NonNull XPathParseTool parseTool,
-                         @NonNull ItemsetDbAdapter adapter,
+                         @NonNull ItemsetEngine itemsetEngine,
                          @NonNull FileUtil fileUtil) {
 
         super(context, formEntryPrompt, autoAdvance);
 
         this.formEntryPrompt = formEntryPrompt;
         this.parseTool = parseTool;
-        this.adapter = adapter;
+        this.itemsetEngine = itemsetEngine;
         this.fileUtil = fileUtil;
 
         createLayout();
@@ -228,48 +239,17 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         File itemsetFile =  fileUtil.getItemsetFile(formController.getMediaFolder().getAbsolutePath());
 
         if (itemsetFile.exists()) {
-            adapter.open();
+            // try to get the value associated with the label:lang
+            // string if that doen't exist, then just use label
+            String lang = "";
+            if (formController.getLanguages() != null && formController.getLanguages().length > 0) {
+                lang = formController.getLanguage();
+            }
 
-            // name of the itemset table for this form
-            String pathHash = ItemsetDbAdapter.getMd5FromString(itemsetFile.getAbsolutePath());
             try {
-                Cursor c = adapter.query(pathHash, selection, selectionArgs);
-                if (c != null) {
-                    c.move(-1);
-                    int index = 0;
-                    while (c.moveToNext()) {
-                        String label;
-                        String val;
-
-                        // try to get the value associated with the label:lang
-                        // string if that doen't exist, then just use label
-                        String lang = "";
-                        if (formController.getLanguages() != null && formController.getLanguages().length > 0) {
-                            lang = formController.getLanguage();
-                        }
-
-                        // apparently you only need the double quotes in the
-                        // column name when creating the column with a : included
-                        String labelLang = "label" + "::" + lang;
-                        int langCol = c.getColumnIndex(labelLang);
-                        if (langCol == -1) {
-                            label = c.getString(c.getColumnIndex("label"));
-                        } else {
-                            label = c.getString(c.getColumnIndex(labelLang));
-                        }
-
-                        val = c.getString(c.getColumnIndex("name"));
-                        SelectChoice selectChoice = new SelectChoice(null, label, val, false);
-                        selectChoice.setIndex(index);
-                        items.add(selectChoice);
-                        index++;
-                    }
-                    c.close();
-                }
+                items = itemsetEngine.getItems(itemsetFile, selection, selectionArgs, lang);
             } catch (SQLiteException e) {
                 Timber.i(e);
-            } finally {
-                adapter.close();
             }
         } else {
             TextView error = new TextView(getContext());
@@ -278,4 +258,13 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         }
         return items;
     }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // the engine of the form session is closed along with the session
+        if (ownsItemsetEngine) {
+            itemsetEngine.close();
+        }
+    }
 }
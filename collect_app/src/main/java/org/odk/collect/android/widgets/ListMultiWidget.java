@@ -16,7 +16,6 @@ package org.odk.collect.android.widgets;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.support.v7.widget.AppCompatCheckBox;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
@@ -43,7 +42,7 @@ import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.R;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSelectChoice;
-import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageLoader;
 import org.odk.collect.android.utilities.ViewIds;
 import org.odk.collect.android.widgets.interfaces.MultiChoiceWidget;
 
@@ -149,26 +148,18 @@ public class ListMultiWidget extends QuestionWidget implements MultiChoiceWidget
                                 ReferenceManager.instance().DeriveReference(imageURI).getLocalURI();
                         final File imageFile = new File(imageFilename);
                         if (imageFile.exists()) {
-                            Bitmap b = null;
-                            try {
-                                DisplayMetrics metrics = context.getResources().getDisplayMetrics();
-                                int screenWidth = metrics.widthPixels;
-                                int screenHeight = metrics.heightPixels;
-                                b = FileUtils.getBitmapScaledToDisplay(imageFile, screenHeight, screenWidth);
-                            } catch (OutOfMemoryError e) {
-                                errorMsg = "ERROR: " + e.getMessage();
-                            }
+                            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+                            int screenWidth = metrics.widthPixels;
+                            int screenHeight = metrics.heightPixels;
 
-                            if (b != null) {
+                            if (ImageLoader.getDisplaySize(imageFile, screenWidth, screenHeight) != null) {
                                 imageView = new ImageView(getContext());
                                 imageView.setPadding(2, 2, 2, 2);
                                 imageView.setAdjustViewBounds(true);
-                                imageView.setImageBitmap(b);
+                                ImageLoader.load(imageFile, screenWidth, screenHeight, imageView, null);
                                 imageView.setId(labelId);
-                            } else if (errorMsg == null) {
-                                // An error hasn't been logged and loading the image failed, so it's
-                                // likely
-                                // a bad file.
+                            } else {
+                                // Loading the image failed, so it's likely a bad file.
                                 errorMsg = getContext().getString(R.string.file_invalid, imageFile);
 
                             }
@@ -0,0 +1,126 @@
+package org.odk.collect.android.adapters;
+
+import org.javarosa.core.model.SelectChoice;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ChoiceSearchIndexTest {
+
+    @Test
+    public void searchShouldIgnoreCaseAndDiacritics() {
+        List<SelectChoice> items = createChoices("Évora", "Lisboa", "Porto", "Setúbal");
+        ChoiceSearchIndex searchIndex = new ChoiceSearchIndex(items, SelectChoice::getLabelInnerText);
+
+        assertEquals(labels(items.get(0)), labels(searchIndex.filter("evo", null)));
+        assertEquals(labels(items.get(0)), labels(searchIndex.filter("ÉVO", null)));
+        assertEquals(labels(items.get(3)), labels(searchIndex.filter("TUB", null)));
+        assertEquals(labels(items.get(1), items.get(3)), labels(searchIndex.filter("b", null)));
+    }
+
+    @Test
+    public void emptySearchShouldReturnAllChoices() {
+        List<SelectChoice> items = createChoices("Évora", "Lisboa");
+        ChoiceSearchIndex searchIndex = new ChoiceSearchIndex(items, SelectChoice::getLabelInnerText);
+
+        assertSame(items, searchIndex.filter("", null));
+    }
+
+    @Test
+    public void narrowingSearchesShouldFindTheSameChoicesAsNewSearches() {
+        List<SelectChoice> items = createRandomChoices(2000);
+        ChoiceSearchIndex searchIndex = new ChoiceSearchIndex(items, SelectChoice::getLabelInnerText);
+
+        String search = "abc";
+        for (int i = 1; i <= search.length(); i++) {
+            assertEquals(scan(items, search.substring(0, i)), searchIndex.filter(search.substring(0, i), null));
+        }
+        // deleting a character and searching for something else starts over
+        assertEquals(scan(items, "ab"), searchIndex.filter("ab", null));
+        assertEquals(scan(items, "b"), searchIndex.filter("b", null));
+        assertEquals(scan(items, "xb"), searchIndex.filter("xb", null));
+    }
+
+    @Test
+    public void labelsShouldBeLocalizedOncePerLanguage() {
+        List<SelectChoice> items = createChoices("one", "two", "three");
+        final int[] calls = {0};
+        final String[] language = {"English"};
+        ChoiceSearchIndex searchIndex = new ChoiceSearchIndex(items, choice -> {
+            calls[0]++;
+            return language[0].equals("English") ? choice.getLabelInnerText() : "x" + choice.getLabelInnerText();
+        });
+
+        searchIndex.filter("t", "English");
+        searchIndex.filter("tw", "English");
+        searchIndex.filter("o", "English");
+        assertEquals(3, calls[0]);
+
+        language[0] = "French";
+        assertEquals(2, searchIndex.filter("xt", "French").size());
+        assertEquals(6, calls[0]);
+    }
+
+    @Test
+    public void filteringLargeListsShouldFindTheSameChoicesAsScanning() {
+        List<SelectChoice> items = createRandomChoices(100000);
+        ChoiceSearchIndex searchIndex = new ChoiceSearchIndex(items, SelectChoice::getLabelInnerText);
+
+        String search = "abcd";
+        for (int i = 1; i <= search.length(); i++) {
+            assertEquals(scan(items, search.substring(0, i)), searchIndex.filter(search.substring(0, i), null));
+        }
+    }
+
+    private static List<SelectChoice> scan(List<SelectChoice> items, String search) {
+        List<SelectChoice> filteredItems = new ArrayList<>();
+        for (SelectChoice item : items) {
+            if (item.getLabelInnerText().toLowerCase(Locale.US).contains(search)) {
+                filteredItems.add(item);
+            }
+        }
+        return filteredItems;
+    }
+
+    private static List<SelectChoice> createChoices(String... labels) {
+        List<SelectChoice> items = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            SelectChoice item = new SelectChoice(null, labels[i], String.valueOf(i), false);
+            item.setIndex(i);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static List<SelectChoice> createRandomChoices(int count) {
+        Random random = new Random(42);
+        String[] labels = new String[count];
+        for (int i = 0; i < count; i++) {
+            char[] label = new char[12];
+            for (int j = 0; j < label.length; j++) {
+                label[j] = (char) ('a' + random.nextInt(6));
+            }
+            labels[i] = new String(label);
+        }
+        return createChoices(labels);
+    }
+
+    private static List<String> labels(SelectChoice... items) {
+        return labels(Arrays.asList(items));
+    }
+
+    private static List<String> labels(List<SelectChoice> items) {
+        List<String> labels = new ArrayList<>();
+        for (SelectChoice item : items) {
+            labels.add(item.getLabelInnerText());
+        }
+        return labels;
+    }
+}
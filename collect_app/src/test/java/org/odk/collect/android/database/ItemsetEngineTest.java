@@ -0,0 +1,37 @@
+package org.odk.collect.android.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ItemsetEngineTest {
+
+    @Test
+    public void filterColumnsShouldBeReadFromThePredicate() {
+        assertEquals(Arrays.asList("state", "county"), ItemsetEngine.getFilterColumns(
+                "instance('cities')/root/item[state=/data/state and county=/data/county]"));
+        assertEquals(Arrays.asList("state", "county"), ItemsetEngine.getFilterColumns(
+                "instance('cities')/root/item[ state = /data/state or county = /data/county ]"));
+    }
+
+    @Test
+    public void filterColumnsShouldNotBeSplitInsideWords() {
+        assertEquals(Collections.singletonList("island"), ItemsetEngine.getFilterColumns(
+                "instance('places')/root/item[island=/data/island]"));
+    }
+
+    @Test
+    public void columnsShouldOnlyBeListedOnce() {
+        assertEquals(Collections.singletonList("state"), ItemsetEngine.getFilterColumns(
+                "instance('cities')/root/item[state=/data/state or state=/data/other_state]"));
+    }
+
+    @Test
+    public void queriesWithoutPredicateShouldHaveNoFilterColumns() {
+        assertEquals(Collections.emptyList(), ItemsetEngine.getFilterColumns("instance('states')/root/item"));
+        assertEquals(Collections.emptyList(), ItemsetEngine.getFilterColumns("instance('states')/root/item[]"));
+    }
+}
@@ -0,0 +1,35 @@
+package org.odk.collect.android.external;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExternalDataFullTextIndexTest {
+
+    @Test
+    public void matchExpressionShouldPrefixMatchEveryWord() {
+        assertEquals("ana* mar*", ExternalDataFullTextIndex.toMatchExpression("Ana Mar"));
+        assertEquals("ana* mar*", ExternalDataFullTextIndex.toMatchExpression("  Ana, Mar"));
+    }
+
+    @Test
+    public void matchExpressionShouldNotContainOperators() {
+        assertEquals("a* or* not* b*", ExternalDataFullTextIndex.toMatchExpression("a OR \"NOT\" -b"));
+    }
+
+    @Test
+    public void matchExpressionShouldBeNullWithoutWords() {
+        assertNull(ExternalDataFullTextIndex.toMatchExpression(""));
+        assertNull(ExternalDataFullTextIndex.toMatchExpression(" -*"));
+    }
+
+    @Test
+    public void selectionShouldMatchEachColumn() {
+        assertEquals("rowid IN (SELECT docid FROM externalData_fts WHERE c_a MATCH ?"
+                        + " UNION SELECT docid FROM externalData_fts WHERE c_b MATCH ?)",
+                ExternalDataFullTextIndex.getSelection("externalData", Arrays.asList("c_a", "c_b")));
+    }
+}
@@ -0,0 +1,74 @@
+package org.odk.collect.android.external;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalDataQueryCacheTest {
+
+    private File mediaFolder;
+    private ExternalDataQueryCache queryCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mediaFolder = File.createTempFile("media", "");
+        mediaFolder.delete();
+        mediaFolder.mkdirs();
+        queryCache = new ExternalDataQueryCache(mediaFolder);
+    }
+
+    @After
+    public void tearDown() {
+        queryCache.close();
+        mediaFolder.delete();
+    }
+
+    @Test
+    public void storedResultsShouldBeReturnedAndCounted() {
+        String key = ExternalDataQueryCache.key("pulldata", "name", "id", "1");
+        assertNull(queryCache.get("data", key));
+
+        queryCache.put("data", key, "Alice");
+        assertEquals("Alice", queryCache.get("data", key));
+        assertEquals(1, queryCache.getHits());
+        assertEquals(1, queryCache.getMisses());
+        assertEquals(0.5, queryCache.getHitRate(), 0);
+    }
+
+    @Test
+    public void resultsShouldBeDroppedWhenTheDatabaseIsInvalidated() {
+        String key = ExternalDataQueryCache.key("pulldata", "name", "id", "1");
+        queryCache.put("data", key, "Alice");
+
+        ExternalDataQueryCache.invalidate(new File(mediaFolder, "data.db"));
+        assertNull(queryCache.get("data", key));
+
+        queryCache.put("data", key, "Bob");
+        assertEquals("Bob", queryCache.get("data", key));
+    }
+
+    @Test
+    public void resultsOfOtherDatabasesShouldBeKeptWhenADatabaseIsInvalidated() {
+        String key = ExternalDataQueryCache.key("pulldata", "name", "id", "1");
+        queryCache.put("data", key, "Alice");
+
+        ExternalDataQueryCache.invalidate(new File(mediaFolder, "other.db"));
+        assertEquals("Alice", queryCache.get("data", key));
+    }
+
+    @Test
+    public void keysShouldNotCollideWhenArgumentsShift() {
+        assertNotEquals(ExternalDataQueryCache.key("a,b", "c"), ExternalDataQueryCache.key("a", "b,c"));
+        assertNotEquals(ExternalDataQueryCache.key("ab", null), ExternalDataQueryCache.key("a", "bnull"));
+    }
+}
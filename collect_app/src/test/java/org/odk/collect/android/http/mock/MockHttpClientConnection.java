@@ -7,6 +7,7 @@ import org.odk.collect.android.http.HttpCredentialsInterface;
 import org.odk.collect.android.http.HttpGetResult;
 import org.odk.collect.android.http.HttpHeadResult;
 import org.odk.collect.android.http.OpenRosaHttpInterface;
+import org.odk.collect.android.http.UploadProgressListener;
 import org.odk.collect.android.utilities.ResponseMessageParser;
 
 import java.io.ByteArrayInputStream;
@@ -42,6 +43,12 @@ public class MockHttpClientConnection implements OpenRosaHttpInterface {
         return new HttpGetResult(is, headers, "test-hash", HttpURLConnection.HTTP_OK);
     }
 
+    @NonNull
+    @Override
+    public HttpGetResult getRange(@NonNull URI uri, long offset, @Nullable String validator, @Nullable HttpCredentialsInterface credentials) throws Exception {
+        return get(uri, null, credentials);
+    }
+
     @NonNull
     @Override
     public HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception {
@@ -50,7 +57,8 @@ public class MockHttpClientConnection implements OpenRosaHttpInterface {
 
     @NonNull
     @Override
-    public ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws IOException {
+    public ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials,
+                                                      long maxContentLength, boolean gzipSupported, @Nullable UploadProgressListener progressListener) throws IOException {
         return null;
     }
 }
@@ -32,6 +32,9 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.android.controller.ActivityController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -109,4 +112,12 @@ public class GeoTraceActivityTest extends BaseGeoActivityTest {
         map.onClientStart();
         assertTrue(map.isGpsErrorDialogShowing());
     }
+
+    @Test public void pointsShouldBeFormattedAsBefore() {
+        List<MapPoint> points = new ArrayList<>();
+        points.add(new MapPoint(11.5, -12.25, 13, 14.5));
+        points.add(new MapPoint(1.0E-5, 22, 0, 0.1));
+        assertEquals("11.5 -12.25 13.0 14.5;1.0E-5 22.0 0.0 0.1;", GeoTraceActivity.formatPoints(points));
+        assertEquals("", GeoTraceActivity.formatPoints(new ArrayList<>()));
+    }
 }
@@ -0,0 +1,125 @@
+package org.odk.collect.android.map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Marker;
+import org.osmdroid.views.overlay.Overlay;
+import org.osmdroid.views.overlay.Polyline;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.odk.collect.android.map.OsmMapFragment.DraggablePoly.CHUNK_SIZE;
+import static org.odk.collect.android.map.OsmMapFragment.DraggablePoly.getChunkCount;
+
+@RunWith(RobolectricTestRunner.class)
+public class DraggablePolyTest {
+
+    private MapView map;
+
+    @Before
+    public void setUp() {
+        map = mock(MapView.class);
+        when(map.getOverlays()).thenReturn(new ArrayList<Overlay>());
+    }
+
+    @Test
+    public void chunksShouldHoldAtMostChunkSizeSegments() {
+        assertEquals(1, getChunkCount(0));
+        assertEquals(1, getChunkCount(1));
+        assertEquals(1, getChunkCount(2));
+        assertEquals(1, getChunkCount(CHUNK_SIZE + 1));
+        assertEquals(2, getChunkCount(CHUNK_SIZE + 2));
+        assertEquals(2, getChunkCount(2 * CHUNK_SIZE + 1));
+        assertEquals(3, getChunkCount(2 * CHUNK_SIZE + 2));
+    }
+
+    @Test
+    public void vertexSharedByTwoChunksShouldRedrawBoth() {
+        RecordingPoly poly = new RecordingPoly(map, createPoints(600));
+
+        poly.redrawVertex(CHUNK_SIZE);
+
+        assertEquals(Arrays.asList(0, 1), poly.drawnChunks);
+    }
+
+    @Test
+    public void vertexInsideAChunkShouldOnlyRedrawThatChunk() {
+        RecordingPoly poly = new RecordingPoly(map, createPoints(600));
+
+        poly.redrawVertex(0);
+        assertEquals(Arrays.asList(0), poly.drawnChunks);
+
+        poly.drawnChunks.clear();
+        poly.redrawVertex(CHUNK_SIZE + 1);
+        assertEquals(Arrays.asList(1), poly.drawnChunks);
+    }
+
+    @Test
+    public void lastVertexShouldOnlyRedrawTheLastChunk() {
+        RecordingPoly poly = new RecordingPoly(map, createPoints(2 * CHUNK_SIZE + 1));
+        assertEquals(2, poly.chunks.size());
+
+        poly.redrawVertex(2 * CHUNK_SIZE);
+        assertEquals(Arrays.asList(1), poly.drawnChunks);
+
+        poly = new RecordingPoly(map, createPoints(CHUNK_SIZE + 1));
+        assertEquals(1, poly.chunks.size());
+
+        poly.redrawVertex(CHUNK_SIZE);
+        assertEquals(Arrays.asList(0), poly.drawnChunks);
+    }
+
+    @Test
+    public void appendingAVertexShouldOnlyDrawTheLastChunk() {
+        RecordingPoly poly = new RecordingPoly(map, createPoints(CHUNK_SIZE + 1));
+
+        poly.addPoint(new MapPoint(1, 1));
+
+        assertEquals(2, poly.chunks.size());
+        assertEquals(Arrays.asList(1), poly.drawnChunks);
+    }
+
+    private static List<MapPoint> createPoints(int count) {
+        List<MapPoint> points = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            points.add(new MapPoint(0, i * 0.0001));
+        }
+        return points;
+    }
+
+    /** Records the chunks that are drawn after it has been created. */
+    private static class RecordingPoly extends OsmMapFragment.DraggablePoly {
+        final List<Integer> drawnChunks = new ArrayList<>();
+        boolean created;
+
+        RecordingPoly(MapView map, List<MapPoint> points) {
+            super(map, points, false);
+            created = true;
+        }
+
+        @Override protected Polyline createPolyline() {
+            return mock(Polyline.class);
+        }
+
+        @Override protected void drawChunk(int chunk) {
+            super.drawChunk(chunk);
+            if (created) {
+                drawnChunks.add(chunk);
+            }
+        }
+
+        @Override protected void addMarker(int index) {
+            Marker marker = mock(Marker.class);
+            markers.put(index, marker);
+            markerIndexes.put(marker, index);
+        }
+    }
+}
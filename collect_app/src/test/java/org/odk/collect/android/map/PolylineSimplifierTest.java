@@ -0,0 +1,79 @@
+package org.odk.collect.android.map;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolylineSimplifierTest {
+
+    @Test
+    public void collinearVerticesShouldBeDropped() {
+        List<MapPoint> points = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            points.add(new MapPoint(0, i * 0.001));
+        }
+
+        assertArrayEquals(new boolean[] {true, false, false, false, true},
+                PolylineSimplifier.simplify(points, 0, 4, 1));
+    }
+
+    @Test
+    public void cornersShouldBeKept() {
+        List<MapPoint> points = new ArrayList<>();
+        points.add(new MapPoint(0, 0));
+        points.add(new MapPoint(0, 0.001));
+        points.add(new MapPoint(0, 0.002));
+        points.add(new MapPoint(0.001, 0.002));
+        points.add(new MapPoint(0.002, 0.002));
+
+        assertArrayEquals(new boolean[] {true, false, true, false, true},
+                PolylineSimplifier.simplify(points, 0, 4, 1));
+    }
+
+    @Test
+    public void verticesWithinToleranceShouldBeDropped() {
+        List<MapPoint> points = new ArrayList<>();
+        points.add(new MapPoint(0, 0));
+        points.add(new MapPoint(0.00001, 0.001)); // about 1.1 m off the line
+        points.add(new MapPoint(0, 0.002));
+
+        assertArrayEquals(new boolean[] {true, false, true}, PolylineSimplifier.simplify(points, 0, 2, 2));
+        assertArrayEquals(new boolean[] {true, true, true}, PolylineSimplifier.simplify(points, 0, 2, 1));
+    }
+
+    @Test
+    public void rangeShouldBeIndexedFromItsStart() {
+        List<MapPoint> points = new ArrayList<>();
+        points.add(new MapPoint(1, 1));
+        for (int i = 0; i < 3; i++) {
+            points.add(new MapPoint(0, i * 0.001));
+        }
+
+        assertArrayEquals(new boolean[] {true, false, true}, PolylineSimplifier.simplify(points, 1, 3, 1));
+        assertArrayEquals(new boolean[] {true, true}, PolylineSimplifier.simplify(points, 2, 3, 1));
+    }
+
+    @Test
+    public void longTracesShouldBeSimplified() {
+        // A 10k vertex walk that zigzags a few meters around a straight line.
+        List<MapPoint> points = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            points.add(new MapPoint(45 + (i % 2) * 0.00002, -122 + i * 0.00001));
+        }
+
+        boolean[] keep = PolylineSimplifier.simplify(points, 0, points.size() - 1, 5);
+
+        int kept = 0;
+        for (boolean k : keep) {
+            kept += k ? 1 : 0;
+        }
+        assertEquals(2, kept);
+        assertTrue(keep[0]);
+        assertTrue(keep[keep.length - 1]);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.odk.collect.android.upload;
+
+import org.junit.Test;
+import org.odk.collect.android.dto.Instance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstanceUploadPipelineTest {
+
+    private static final String SERVER = "http://example.org/submission";
+    private static final String OTHER_SERVER = "http://example.com/submission";
+
+    @Test
+    public void instancesOfTheSameFormShouldBeUploadedConcurrentlyByDefault() {
+        List<Instance> instances = createInstances(SERVER, "form", 1, 10);
+        FakeUploader uploader = new FakeUploader();
+        RecordingListener listener = new RecordingListener();
+
+        new InstanceUploadPipeline(uploader).upload(instances, null, null, listener);
+
+        assertEquals(10, listener.uploaded.size());
+        assertEquals(InstanceUploadPipeline.DEFAULT_MAX_CONCURRENT_UPLOADS, uploader.maxInFlight.get());
+    }
+
+    @Test
+    public void noMoreThanTheMaximumNumberOfUploadsShouldBeInFlight() {
+        List<Instance> instances = new ArrayList<>();
+        instances.addAll(createInstances(SERVER, "a", 1, 8));
+        instances.addAll(createInstances(SERVER, "b", 9, 8));
+        FakeUploader uploader = new FakeUploader();
+        RecordingListener listener = new RecordingListener();
+
+        new InstanceUploadPipeline(uploader, 2, InstanceUploadPipeline.Ordering.NONE)
+                .upload(instances, null, null, listener);
+
+        assertEquals(16, listener.uploaded.size());
+        assertEquals(2, uploader.maxInFlight.get());
+    }
+
+    @Test
+    public void firstInstanceOfEachDestinationShouldBeUploadedAlone() {
+        List<Instance> instances = new ArrayList<>();
+        instances.addAll(createInstances(SERVER, "a", 1, 5));
+        instances.addAll(createInstances(OTHER_SERVER, "b", 6, 5));
+        FakeUploader uploader = new FakeUploader();
+
+        new InstanceUploadPipeline(uploader).upload(instances, null, null, new RecordingListener());
+
+        assertEquals(1L, (long) uploader.started.get(0));
+        assertEquals(6L, (long) uploader.started.get(1));
+        assertEquals(1, (int) uploader.inFlightAtStart.get(1L));
+        assertEquals(1, (int) uploader.inFlightAtStart.get(6L));
+    }
+
+    @Test
+    public void instancesOfTheSameFormShouldKeepTheirOrderWhenOrderedPerForm() {
+        List<Instance> instances = new ArrayList<>();
+        instances.addAll(createInstances(SERVER, "a", 1, 6));
+        instances.addAll(createInstances(SERVER, "b", 7, 6));
+        FakeUploader uploader = new FakeUploader();
+        RecordingListener listener = new RecordingListener();
+
+        new InstanceUploadPipeline(uploader, 3, InstanceUploadPipeline.Ordering.PER_FORM)
+                .upload(instances, null, null, listener);
+
+        assertEquals(12, listener.uploaded.size());
+        // one lane per form
+        assertTrue(uploader.maxInFlight.get() <= 2);
+
+        List<Long> formA = new ArrayList<>();
+        List<Long> formB = new ArrayList<>();
+        for (Long id : uploader.started) {
+            if (id <= 6) {
+                formA.add(id);
+            } else {
+                formB.add(id);
+            }
+        }
+        assertEquals(createIds(1, 6), formA);
+        assertEquals(createIds(7, 6), formB);
+    }
+
+    @Test
+    public void remainingInstancesOfADestinationRequestingAuthenticationShouldNotBeAttempted() {
+        List<Instance> instances = new ArrayList<>();
+        instances.addAll(createInstances(SERVER, "a", 1, 4));
+        instances.addAll(createInstances(OTHER_SERVER, "b", 5, 4));
+        FakeUploader uploader = new FakeUploader();
+        uploader.authRequestingUrl = OTHER_SERVER;
+        RecordingListener listener = new RecordingListener();
+
+        new InstanceUploadPipeline(uploader).upload(instances, null, null, listener);
+
+        assertEquals(createIds(1, 4), sorted(listener.uploaded));
+        assertEquals(Collections.singletonList(5L), listener.failed);
+        assertFalse(uploader.started.contains(6L));
+    }
+
+    @Test
+    public void noUploadsShouldStartOnceCancelled() {
+        FakeUploader uploader = new FakeUploader();
+        RecordingListener listener = new RecordingListener();
+        listener.cancelAfter = 3;
+
+        new InstanceUploadPipeline(uploader, 1, InstanceUploadPipeline.Ordering.NONE)
+                .upload(createInstances(SERVER, "a", 1, 10), null, null, listener);
+
+        assertEquals(3, uploader.started.size());
+    }
+
+    private static List<Instance> createInstances(String submissionUri, String formId, long firstId, int count) {
+        List<Instance> instances = new ArrayList<>();
+        for (long id = firstId; id < firstId + count; id++) {
+            instances.add(new Instance.Builder()
+                    .databaseId(id)
+                    .jrFormId(formId)
+                    .submissionUri(submissionUri)
+                    .build());
+        }
+        return instances;
+    }
+
+    private static List<Long> createIds(long firstId, int count) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = firstId; id < firstId + count; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Takes a little while for each upload so that uploads that may overlap do, and records how
+     * many are in flight.
+     */
+    private static class FakeUploader extends InstanceUploader {
+        final List<Long> started = Collections.synchronizedList(new ArrayList<Long>());
+        final Map<Long, Integer> inFlightAtStart = Collections.synchronizedMap(new HashMap<Long, Integer>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        String authRequestingUrl;
+
+        @Override
+        public String uploadOneSubmission(Instance instance, String destinationUrl) throws UploadException {
+            int count = inFlight.incrementAndGet();
+            started.add(instance.getDatabaseId());
+            inFlightAtStart.put(instance.getDatabaseId(), count);
+            int max = maxInFlight.get();
+            while (count > max && !maxInFlight.compareAndSet(max, count)) {
+                max = maxInFlight.get();
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+            if (destinationUrl.equals(authRequestingUrl)) {
+                throw new UploadAuthRequestedException("Authentication requested", null);
+            }
+            return null;
+        }
+
+        @Override
+        public String getUrlToSubmitTo(Instance instance, String deviceId, String overrideUrl) {
+            return instance.getSubmissionUri();
+        }
+    }
+
+    private static class RecordingListener implements InstanceUploadPipeline.Listener {
+        final List<Long> uploaded = new ArrayList<>();
+        final List<Long> failed = new ArrayList<>();
+        int cancelAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void onUploaded(Instance instance, String customMessage) {
+            uploaded.add(instance.getDatabaseId());
+        }
+
+        @Override
+        public void onFailed(Instance instance, UploadException e) {
+            failed.add(instance.getDatabaseId());
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return uploaded.size() + failed.size() >= cancelAfter;
+        }
+    }
+}
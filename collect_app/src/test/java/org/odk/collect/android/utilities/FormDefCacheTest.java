@@ -0,0 +1,137 @@
+package org.odk.collect.android.utilities;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FormDefCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File form;
+
+    @Before
+    public void setUp() throws IOException {
+        PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+        new XFormsModule().registerModule();
+
+        new File(Collect.CACHE_PATH).mkdirs();
+        FormDefCache.clearMemoryCache();
+        form = writeForm("Form", 1000000L);
+    }
+
+    @After
+    public void tearDown() {
+        FormDefCache.clearMemoryCache();
+        FormDefCache.deleteKey(form);
+    }
+
+    @Test
+    public void signatureShouldBeReadFromTheKeyWhileTheFormIsUnchanged() throws IOException {
+        FormDefCache.FormSignature signature = FormDefCache.getSignature(form);
+        assertEquals(FileUtils.getMd5Hash(form), signature.md5);
+        assertTrue(FormDefCache.getKeyFile(form).exists());
+
+        // same size and modification time, so the form is not hashed again
+        writeForm("Mrof", 1000000L);
+        assertEquals(signature.md5, FormDefCache.getSignature(form).md5);
+    }
+
+    @Test
+    public void signatureShouldBeRecomputedWhenTheFormChanges() throws IOException {
+        String md5 = FormDefCache.getSignature(form).md5;
+
+        writeForm("Mrof", 2000000L);
+
+        assertNotEquals(md5, FormDefCache.getSignature(form).md5);
+        assertEquals(FileUtils.getMd5Hash(form), FormDefCache.getSignature(form).md5);
+    }
+
+    @Test
+    public void deletingTheKeyShouldRemoveTheKeyFile() {
+        FormDefCache.getSignature(form);
+
+        FormDefCache.deleteKey(form);
+
+        assertFalse(FormDefCache.getKeyFile(form).exists());
+    }
+
+    @Test
+    public void cachedFormShouldBeReadBackAsAFreshCopy() throws IOException {
+        FormDefCache.writeCache(parseForm(), form.getAbsolutePath());
+
+        FormDef first = FormDefCache.readCache(form);
+        FormDef second = FormDefCache.readCache(form);
+
+        assertNotNull(first);
+        assertEquals("Form", first.getTitle());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void cachedFormShouldNotBeReturnedOnceTheFormChanges() throws IOException {
+        FormDefCache.writeCache(parseForm(), form.getAbsolutePath());
+
+        writeForm("Mrof", 2000000L);
+
+        assertNull(FormDefCache.readCache(form));
+    }
+
+    @Test
+    public void recentlyUsedFormsShouldBeReadFromMemory() throws IOException {
+        FormDefCache.writeCache(parseForm(), form.getAbsolutePath());
+        File cacheFile = new File(Collect.CACHE_PATH, FormDefCache.getSignature(form).md5 + ".formdef");
+        assertTrue(cacheFile.delete());
+
+        assertNotNull(FormDefCache.readCache(form));
+
+        FormDefCache.clearMemoryCache();
+        assertNull(FormDefCache.readCache(form));
+    }
+
+    private File writeForm(String title, long lastModified) throws IOException {
+        File file = new File(folder.getRoot(), "form.xml");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                    + "<h:head><h:title>" + title + "</h:title>"
+                    + "<model><instance><data id=\"form\"><q/></data></instance></model></h:head>"
+                    + "<h:body><input ref=\"/data/q\"><label>Q</label></input></h:body></h:html>");
+        }
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    private FormDef parseForm() throws IOException {
+        try (InputStream is = new FileInputStream(form)) {
+            return XFormUtils.getFormFromInputStream(is);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImageLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void imagesShouldBeScaledDownToFitTheBounds() {
+        assertArrayEquals(new int[] {500, 250}, ImageLoader.getDisplaySize(4000, 2000, 500, 800));
+        assertArrayEquals(new int[] {150, 200}, ImageLoader.getDisplaySize(600, 800, 600, 200));
+        assertArrayEquals(new int[] {1, 300}, ImageLoader.getDisplaySize(2, 3000, 100, 300));
+    }
+
+    @Test
+    public void imagesShouldNotBeScaledUp() {
+        assertArrayEquals(new int[] {300, 200}, ImageLoader.getDisplaySize(300, 200, 1080, 1920));
+        assertArrayEquals(new int[] {1080, 1920}, ImageLoader.getDisplaySize(1080, 1920, 1080, 1920));
+    }
+
+    @Test
+    public void sampleSizeShouldBeTheLargestPowerOfTwoThatKeepsTheTargetSize() {
+        assertEquals(1, ImageLoader.getSampleSize(500, 500, 500, 500));
+        assertEquals(1, ImageLoader.getSampleSize(999, 999, 500, 500));
+        assertEquals(2, ImageLoader.getSampleSize(1000, 1000, 500, 500));
+        assertEquals(4, ImageLoader.getSampleSize(4000, 3000, 600, 450));
+        assertEquals(8, ImageLoader.getSampleSize(4608, 3456, 500, 375));
+    }
+
+    @Test
+    public void keyShouldChangeWhenTheFileOrBoundsChange() throws IOException {
+        File image = folder.newFile("image.jpg");
+        image.setLastModified(1000000L);
+        String key = ImageLoader.getKey(image, 100, 100);
+
+        assertEquals(key, ImageLoader.getKey(image, 100, 100));
+        assertNotEquals(key, ImageLoader.getKey(image, 200, 100));
+
+        image.setLastModified(2000000L);
+        assertNotEquals(key, ImageLoader.getKey(image, 100, 100));
+    }
+
+    @Test
+    public void trimmingShouldDeleteTheLeastRecentlyUsedThumbnails() throws IOException {
+        File dir = folder.newFolder("thumbnails");
+        File oldest = createThumbnail(dir, "a", 1000000L);
+        File middle = createThumbnail(dir, "b", 2000000L);
+        File newest = createThumbnail(dir, "c", 3000000L);
+
+        assertEquals(2 * 1024, ImageLoader.trimDiskCache(dir, 2 * 1024));
+
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void diskCacheShouldBeTrimmedEveryTimeItGrowsPastTheLimit() throws IOException {
+        File dir = folder.newFolder("thumbnails");
+        ImageLoader.DiskCache diskCache = new ImageLoader.DiskCache(dir, 4 * 1024);
+
+        File first = createThumbnail(dir, "a", 1000000L);
+        diskCache.onWritten(first.length());
+        for (int i = 1; i < 4; i++) {
+            diskCache.onWritten(createThumbnail(dir, "b" + i, 1000000L + i * 1000L).length());
+        }
+        assertTrue(first.exists());
+
+        diskCache.onWritten(createThumbnail(dir, "c", 2000000L).length());
+        assertFalse(first.exists());
+        assertEquals(3, dir.listFiles().length);
+
+        diskCache.onWritten(createThumbnail(dir, "d", 3000000L).length());
+        diskCache.onWritten(createThumbnail(dir, "e", 4000000L).length());
+        assertEquals(3, dir.listFiles().length);
+        assertTrue(new File(dir, "e").exists());
+    }
+
+    private File createThumbnail(File dir, String name, long lastModified) throws IOException {
+        File thumbnail = new File(dir, name);
+        FileUtils.write(thumbnail, new byte[1024]);
+        thumbnail.setLastModified(lastModified);
+        return thumbnail;
+    }
+}
@@ -0,0 +1,148 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class XmlMetadataParserTest {
+
+    private static final String HEAD_START = "<?xml version=\"1.0\"?>\n"
+            + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">\n"
+            + "  <h:head>\n"
+            + "    <h:title> Sample &amp; Form </h:title>\n"
+            + "    <model>\n"
+            + "      <instance>\n"
+            + "        <data id=\"sample\" version=\"2018110801\">\n";
+
+    private static final String HEAD_END = "        </data>\n"
+            + "      </instance>\n"
+            + "      <instance id=\"secondary\"><root id=\"other\"/></instance>\n"
+            + "      <bind nodeset=\"/data/name\" type=\"string\"/>\n";
+
+    private static final String SUBMISSION = "      <submission action=\"https://example.com/submission\""
+            + " base64RsaPublicKey=\" key \" auto-send=\"true\" auto-delete=\"false\"/>\n";
+
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        files.clear();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void parseFormMetadata_readsTheFieldsOfTheHead() throws IOException {
+        File form = createForm(1, true);
+
+        Map<String, String> fields = XmlMetadataParser.parseFormMetadata(form);
+
+        assertEquals("Sample & Form", fields.get(FileUtils.TITLE));
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertEquals("2018110801", fields.get(FileUtils.VERSION));
+        assertEquals("https://example.com/submission", fields.get(FileUtils.SUBMISSIONURI));
+        assertEquals("key", fields.get(FileUtils.BASE64_RSA_PUBLIC_KEY));
+        assertEquals("true", fields.get(FileUtils.AUTO_SEND));
+        assertEquals("false", fields.get(FileUtils.AUTO_DELETE));
+    }
+
+    @Test
+    public void parseFormMetadata_leavesSubmissionFieldsOut_whenThereIsNoSubmission() throws IOException {
+        File form = createForm(1, false);
+
+        Map<String, String> fields = XmlMetadataParser.parseFormMetadata(form);
+
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertFalse(fields.containsKey(FileUtils.SUBMISSIONURI));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseFormMetadata_throws_whenTheFormIsNotWellFormed() throws IOException {
+        XmlMetadataParser.parseFormMetadata(createFile("<h:html xmlns:h=\"http://www.w3.org/1999/xhtml\"><h:head>"));
+    }
+
+    @Test
+    public void getRootAttribute_readsTheAttributesOfTheRootElement() throws IOException {
+        File instance = createInstance(1);
+
+        assertEquals("sample", XmlMetadataParser.getRootAttribute(instance, "id"));
+        assertEquals("uuid:1234", XmlMetadataParser.getRootAttribute(instance, "instanceID"));
+        assertNull(XmlMetadataParser.getRootAttribute(instance, "missing"));
+    }
+
+    @Test
+    public void largeFilesShouldBeParsedUpToTheirMetadata() throws IOException {
+        File form = createForm(50000, true);
+        File instance = createInstance(100000);
+
+        Map<String, String> fields = XmlMetadataParser.parseFormMetadata(form);
+
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertEquals("https://example.com/submission", fields.get(FileUtils.SUBMISSIONURI));
+        assertEquals("uuid:1234", XmlMetadataParser.getRootAttribute(instance, "instanceID"));
+    }
+
+    /**
+     * Creates a form with the given number of questions, each with a node in the main instance
+     * and an input in the body.
+     */
+    private File createForm(int questionCount, boolean withSubmission) throws IOException {
+        File form = File.createTempFile("form", ".xml");
+        files.add(form);
+        try (Writer writer = new FileWriter(form)) {
+            writer.write(HEAD_START);
+            for (int i = 0; i < questionCount; i++) {
+                writer.write("          <q" + i + "/>\n");
+            }
+            writer.write(HEAD_END);
+            if (withSubmission) {
+                writer.write(SUBMISSION);
+            }
+            writer.write("    </model>\n  </h:head>\n  <h:body>\n");
+            for (int i = 0; i < questionCount; i++) {
+                writer.write("    <input ref=\"/data/q" + i + "\"><label>Question " + i + "</label></input>\n");
+            }
+            writer.write("  </h:body>\n</h:html>\n");
+        }
+        return form;
+    }
+
+    private File createInstance(int answerCount) throws IOException {
+        File instance = File.createTempFile("instance", ".xml");
+        files.add(instance);
+        try (Writer writer = new FileWriter(instance)) {
+            writer.write("<?xml version='1.0' ?><data id=\"sample\" instanceID=\"uuid:1234\">");
+            for (int i = 0; i < answerCount; i++) {
+                writer.write("<q" + i + ">answer " + i + "</q" + i + ">");
+            }
+            writer.write("</data>");
+        }
+        return instance;
+    }
+
+    private File createFile(String content) throws IOException {
+        File file = File.createTempFile("file", ".xml");
+        files.add(file);
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
@@ -14,8 +14,12 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -83,6 +87,22 @@ public class SheetsHelperTest {
         verify(sheetsService).updateRow("spreadsheet_id", "sheet_name!A1", valueRange);
     }
 
+    @Test
+    public void getHeaderRowShouldOnlyFetchTheFirstRow() throws IOException {
+        List<Object> headers = Arrays.<Object>asList("name", "age");
+        ValueRange valueRange = new ValueRange().setValues(Collections.singletonList(headers));
+        doReturn(valueRange).when(sheetsService).getSpreadsheet("spreadsheet_id", "'sheet_name'!1:1");
+
+        assertEquals(headers, sheetsHelper.getHeaderRow("spreadsheet_id", "sheet_name"));
+    }
+
+    @Test
+    public void getHeaderRowShouldBeEmptyForEmptySheet() throws IOException {
+        doReturn(new ValueRange()).when(sheetsService).getSpreadsheet("spreadsheet_id", "'it''s'!1:1");
+
+        assertTrue(sheetsHelper.getHeaderRow("spreadsheet_id", "it's").isEmpty());
+    }
+
     @Test
     public void getSpreadsheetTest() throws IOException {
         Spreadsheet mockedSpreadsheet = mock(Spreadsheet.class);
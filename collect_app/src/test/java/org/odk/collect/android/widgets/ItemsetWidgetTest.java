@@ -1,6 +1,5 @@
 package org.odk.collect.android.widgets;
 
-import android.database.Cursor;
 import android.support.annotation.NonNull;
 
 import net.bytebuddy.utility.RandomString;
@@ -8,6 +7,7 @@ import net.bytebuddy.utility.RandomString;
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.FormIndex;
 import org.javarosa.core.model.QuestionDef;
+import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.data.StringData;
 import org.javarosa.core.model.instance.FormInstance;
@@ -17,22 +17,21 @@ import org.javarosa.xpath.XPathNodeset;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.junit.Test;
 import org.mockito.Mock;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
-import org.odk.collect.android.database.ItemsetDbAdapter;
+import org.odk.collect.android.database.ItemsetEngine;
 import org.odk.collect.android.utilities.FileUtil;
 import org.odk.collect.android.utilities.XPathParseTool;
 import org.odk.collect.android.widgets.base.QuestionWidgetTest;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
 
@@ -81,10 +80,7 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
     FileUtil fileUtil;
 
     @Mock
-    ItemsetDbAdapter adapter;
-
-    @Mock
-    Cursor cursor;
+    ItemsetEngine itemsetEngine;
 
     private Map<String, String> choices;
 
@@ -92,7 +88,7 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
     @Override
     public ItemsetWidget createWidget() {
         return new ItemsetWidget(RuntimeEnvironment.application, formEntryPrompt,
-                false, parseTool, adapter, fileUtil);
+                false, parseTool, itemsetEngine, fileUtil);
     }
 
     @NonNull
@@ -113,7 +109,6 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
     public void setUp() throws Exception {
         super.setUp();
         choices = createChoices();
-        CursorMocker cursorMocker = new CursorMocker(choices, cursor);
 
         when(parseTool.parseXPath(any(String.class))).thenReturn(expression);
 
@@ -137,7 +132,8 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
         when(expression.eval(any(FormInstance.class), any(EvaluationContext.class))).thenReturn(nodeset);
         when(nodeset.getValAt(0)).thenReturn("");
 
-        when(adapter.query(anyString(), anyString(), any(String[].class))).thenReturn(cursorMocker.getCursor());
+        when(itemsetEngine.getItems(any(File.class), anyString(), any(String[].class), anyString()))
+                .thenReturn(createSelectChoices(choices));
 
         when(formEntryPrompt.getQuestion()).thenReturn(questionDef);
         when(questionDef.getAdditionalAttribute(null, "query")).thenReturn("instance('cities')/root/item[state=/data/state]");
@@ -157,6 +153,16 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
         assertEquals(answer.getDisplayText(), selectedChoice);
     }
 
+    private List<SelectChoice> createSelectChoices(Map<String, String> choices) {
+        List<SelectChoice> selectChoices = new ArrayList<>();
+        for (int i = 0; i < choices.size(); i++) {
+            SelectChoice selectChoice = new SelectChoice(null, "", choices.get(Integer.toString(i)), false);
+            selectChoice.setIndex(i);
+            selectChoices.add(selectChoice);
+        }
+        return selectChoices;
+    }
+
     private Map<String, String> createChoices() {
         int choiceCount = (Math.abs(random.nextInt()) % 3) + 2;
 
@@ -167,51 +173,4 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
 
         return choices;
     }
-
-    public static class CursorMocker {
-        private int cursorIndex = -1;
-        private final Cursor cursor;
-
-        CursorMocker(final Map<String, String> choices, Cursor cursor) {
-            this.cursor = cursor;
-
-            when(cursor.moveToNext()).thenAnswer(new Answer<Boolean>() {
-                @Override
-                public Boolean answer(InvocationOnMock invocation) throws Throwable {
-                    return ++cursorIndex < choices.size();
-                }
-            });
-
-            when(cursor.getColumnIndex("name")).thenAnswer(new Answer<Integer>() {
-                @Override
-                public Integer answer(InvocationOnMock invocation) throws Throwable {
-                    return cursorIndex;
-                }
-            });
-
-            when(cursor.getString(anyInt())).thenAnswer(new Answer<String>() {
-                @Override
-                public String answer(InvocationOnMock invocation) throws Throwable {
-                    Object[] arguments = invocation.getArguments();
-                    Object first = arguments[0];
-                    if (first instanceof Integer) {
-                        if (first.equals(-1)) {
-                            return Integer.toString(cursorIndex);
-                        } else {
-                            return choices.get(first.toString());
-                        }
-                    }
-
-                    return "";
-                }
-            });
-
-            when(cursor.getColumnIndex("label")).thenReturn(-1);
-            when(cursor.getColumnIndex("label::")).thenReturn(-1);
-        }
-
-        Cursor getCursor() {
-            return cursor;
-        }
-    }
 }